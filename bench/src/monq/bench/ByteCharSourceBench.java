@@ -0,0 +1,77 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import monq.jfa.ByteCharSource;
+
+/**
+ * <p>measures how fast a {@link ByteCharSource} decodes bytes into
+ * characters, reported in characters per second. The text contains
+ * some non-ASCII characters, so UTF-8 needs multibyte
+ * sequences.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class ByteCharSourceBench {
+  public static final int CHARS = 1<<22;
+
+  @Param({"UTF-8", "ISO-8859-1"})
+  public String charset;
+
+  private byte[] bytes;
+  private int nChars;
+
+  @Setup
+  public void setup() {
+    String text = Workload.text(CHARS, Workload.terms(0, Workload.SEED), 1,
+				Workload.SEED).replace('q', '\u00e4');
+    nChars = text.length();
+    bytes = text.getBytes(Charset.forName(charset));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CHARS)
+  public int read() throws Exception {
+    ByteCharSource in = new ByteCharSource(new ByteArrayInputStream(bytes));
+    in.setDecoder(Charset.forName(charset).newDecoder());
+    int n = 0;
+    while( in.read()>=0 ) n += 1;
+    if( n!=nChars ) throw new IllegalStateException(n+"!="+nChars);
+    return n;
+  }
+}
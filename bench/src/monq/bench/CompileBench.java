@@ -0,0 +1,93 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import monq.jfa.Dfa;
+import monq.jfa.DfaRun;
+import monq.jfa.FaAction;
+import monq.jfa.LiteralDfaBuilder;
+import monq.jfa.Nfa;
+import monq.jfa.actions.Printf;
+
+/**
+ * <p>measures {@link Nfa#compile Nfa.compile()} for dictionaries of
+ * literal terms, each with its own action. The <code>Nfa</code> is
+ * set up once per trial, only compiling it is timed.</p>
+ *
+ * <p>Benchmark <code>literal</code> builds the same automaton with
+ * a {@link LiteralDfaBuilder} from the terms sorted beforehand.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=1)
+@Measurement(iterations=3)
+@Fork(value=1, jvmArgsAppend={"-Xmx6g"})
+public class CompileBench {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int terms;
+
+  private Nfa nfa;
+  private List<String> sorted;
+  private List<FaAction> actions;
+
+  @Setup
+  public void setup() throws Exception {
+    List<String> dict = Workload.terms(terms, Workload.SEED);
+    nfa = new Nfa(Nfa.NOTHING);
+    for(int i=0; i<dict.size(); i++) {
+      nfa.or(nfa.escape(dict.get(i)), new Printf("<"+i+">%0</>"));
+    }
+
+    sorted = new ArrayList<String>(dict);
+    Collections.sort(sorted);
+    actions = new ArrayList<FaAction>(sorted.size());
+    for(int i=0; i<sorted.size(); i++) {
+      actions.add(new Printf("<"+i+">%0</>"));
+    }
+  }
+
+  @Benchmark
+  public Dfa compile() throws Exception {
+    return nfa.compile(DfaRun.UNMATCHED_COPY);
+  }
+
+  @Benchmark
+  public Dfa literal() throws Exception {
+    LiteralDfaBuilder b = new LiteralDfaBuilder();
+    for(int i=0; i<sorted.size(); i++) b.add(sorted.get(i), actions.get(i));
+    return b.compile(DfaRun.UNMATCHED_COPY);
+  }
+}
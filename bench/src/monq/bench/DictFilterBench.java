@@ -0,0 +1,102 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import monq.jfa.CharSequenceCharSource;
+import monq.jfa.DfaRun;
+import monq.programs.DictFilter;
+
+/**
+ * <p>measures a {@link DictFilter} from end to end: the mwt file is
+ * read and compiled once per trial, and the throughput of tagging
+ * plain text is reported in characters per second.</p>
+ *
+ * <p>Benchmark <code>filter</code> runs on one thread, benchmark
+ * <code>filterAllCores</code> runs one thread per available core,
+ * each with its own run of the same dictionary, and reports the sum
+ * of their throughput. With runs not contending for anything, the
+ * latter is the former times the number of cores. Other numbers of
+ * threads can be measured with JMH option <code>-t</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgsAppend={"-Xmx6g"})
+public class DictFilterBench {
+  public static final int CHARS = 1<<22;
+
+  @Param({"1000", "100000"})
+  public int terms;
+
+  private String text;
+  private DictFilter dict;
+
+  // the output of one thread
+  @State(Scope.Thread)
+  public static class Out {
+    final StringBuilder sb = new StringBuilder(2*CHARS);
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    List<String> words = Workload.terms(terms, Workload.SEED);
+    text = Workload.text(CHARS, words, 8, Workload.SEED+1);
+    dict = new DictFilter(new StringReader(Workload.mwt(words)), "raw",
+			  null, false);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CHARS)
+  public int filter(Out out) throws Exception {
+    return run(out.sb);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  @OperationsPerInvocation(CHARS)
+  public int filterAllCores(Out out) throws Exception {
+    return run(out.sb);
+  }
+
+  private int run(StringBuilder out) throws Exception {
+    out.setLength(0);
+    DfaRun r = dict.createRun();
+    r.setIn(new CharSequenceCharSource(text));
+    r.filter(out);
+    return out.length();
+  }
+}
@@ -0,0 +1,133 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import monq.jfa.CharSequenceCharSource;
+import monq.jfa.Dfa;
+import monq.jfa.DfaProfile;
+import monq.jfa.DfaRun;
+import monq.jfa.Nfa;
+import monq.jfa.actions.Printf;
+
+/**
+ * <p>measures the throughput of {@link DfaRun#filter(StringBuilder)}
+ * in characters per second. Parameter <code>trans</code> selects the
+ * transition tables through {@link Nfa#setMemoryForSpeedTradeFactor
+ * Nfa.setMemoryForSpeedTradeFactor()}: <code>array</code> forces
+ * binary searched arrays, <code>table</code> forces direct lookup
+ * tables and <code>default</code> lets the compiler choose with the
+ * default trade off. With <code>profiled</code>, the default
+ * automaton is run through {@link Dfa#optimize Dfa.optimize()} with a
+ * profile of the first part of the input and a budget of
+ * {@link #BUDGET} bytes.</p>
+ *
+ * <p>Benchmark <code>filter</code> tags dictionary terms, benchmark
+ * <code>submatch</code> reformats key/value pairs with
+ * submatches.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class FilterBench {
+  public static final int CHARS = 1<<22;
+  public static final long BUDGET = 1<<20;
+
+  @Param({"array", "default", "table", "profiled"})
+  public String trans;
+
+  @Param({"1000", "100000"})
+  public int terms;
+
+  private String text;
+  private String pairs;
+  private Dfa dict;
+  private Dfa submatch;
+  private final StringBuilder out = new StringBuilder(2*CHARS);
+
+  @Setup
+  public void setup() throws Exception {
+    float factor;
+    if( "array".equals(trans) ) factor = 0.0f;
+    else if( "table".equals(trans) ) factor = 1e9f;
+    else factor = 1.0f;
+
+    List<String> words = Workload.terms(terms, Workload.SEED);
+    text = Workload.text(CHARS, words, 8, Workload.SEED+1);
+    Nfa nfa = new Nfa(Nfa.NOTHING);
+    for(int i=0; i<words.size(); i++) {
+      nfa.or(nfa.escape(words.get(i)), new Printf("<"+i+">%0</>"));
+    }
+    nfa.setMemoryForSpeedTradeFactor(factor);
+    dict = optimize(nfa.compile(DfaRun.UNMATCHED_COPY), text);
+
+    StringBuilder sb = new StringBuilder(CHARS+100);
+    int i = 0;
+    while( sb.length()<CHARS ) {
+      sb.append(words.get(i++%words.size())).append('=').append(i)
+	.append("; ");
+    }
+    pairs = sb.toString();
+    nfa = new Nfa("([a-z]+)!=([0-9]+)!", new Printf(true, "%2:%1"));
+    nfa.setMemoryForSpeedTradeFactor(factor);
+    submatch = optimize(nfa.compile(DfaRun.UNMATCHED_COPY), pairs);
+  }
+
+  private Dfa optimize(Dfa dfa, String in) {
+    if( !"profiled".equals(trans) ) return dfa;
+    DfaProfile profile = 
+      new DfaProfile(dfa).sample(in.substring(0, CHARS/16));
+    return dfa.optimize(profile, BUDGET);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CHARS)
+  public int filter() throws Exception {
+    return run(dict, text);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CHARS)
+  public int submatch() throws Exception {
+    return run(submatch, pairs);
+  }
+
+  private int run(Dfa dfa, String in) throws Exception {
+    out.setLength(0);
+    DfaRun r = new DfaRun(dfa, new CharSequenceCharSource(in));
+    r.filter(out);
+    return out.length();
+  }
+}
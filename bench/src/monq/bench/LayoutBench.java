@@ -0,0 +1,110 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import monq.jfa.CharSequenceCharSource;
+import monq.jfa.Dfa;
+import monq.jfa.DfaProfile;
+import monq.jfa.DfaRun;
+import monq.jfa.Nfa;
+import monq.jfa.actions.Copy;
+
+/**
+ * <p>measures how the heap layout of the states of a large dictionary
+ * automaton affects filter throughput. Parameter <code>layout</code>
+ * is <code>compiled</code> for the automaton as returned by the
+ * compiler, <code>compact</code> for {@link Dfa#compact} and
+ * <code>profiled</code> for {@link Dfa#optimize Dfa.optimize()} with
+ * a budget of zero. The automaton is compiled with the default
+ * memory for speed trade factor of 1.0, which <code>optimize()</code>
+ * also applies to states outside the budget, so all three layouts
+ * have the same kind of transition table in every state and differ
+ * only in the order of the states.</p>
+ *
+ * <p>Throughput alone hides where the time goes. Run it with a
+ * profiler counting cache misses per operation, like</p>
+ * <pre>
+ * ant bench -Djmh.jar=... -Dbench.args="-prof perfnorm LayoutBench"
+ * </pre>
+ * <p>and compare <code>L1-dcache-load-misses</code> and
+ * <code>LLC-load-misses</code> between the layouts.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgsAppend={"-Xmx6g"})
+public class LayoutBench {
+  public static final int CHARS = 1<<22;
+
+  @Param({"compiled", "compact", "profiled"})
+  public String layout;
+
+  @Param({"100000", "1000000"})
+  public int terms;
+
+  private String text;
+  private Dfa dict;
+  private final StringBuilder out = new StringBuilder(2*CHARS);
+
+  @Setup
+  public void setup() throws Exception {
+    List<String> words = Workload.terms(terms, Workload.SEED);
+    text = Workload.text(CHARS, words, 8, Workload.SEED+1);
+    Nfa nfa = new Nfa(Nfa.NOTHING);
+    // a cheap action, such that the time is spent in the automaton
+    for(String w : words) nfa.or(nfa.escape(w), Copy.COPY);
+    dict = nfa.compile(DfaRun.UNMATCHED_COPY);
+    nfa = null;
+
+    if( "compact".equals(layout) ) {
+      dict = dict.compact();
+    } else if( "profiled".equals(layout) ) {
+      // profile on other text than we measure with
+      String sample = Workload.text(CHARS/4, words, 8, Workload.SEED+2);
+      dict = dict.optimize(new DfaProfile(dict).sample(sample), 0);
+    }
+    // get the copy into the old generation before measuring
+    System.gc();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CHARS)
+  public int filter() throws Exception {
+    out.setLength(0);
+    DfaRun r = new DfaRun(dict, new CharSequenceCharSource(text));
+    r.filter(out);
+    return out.length();
+  }
+}
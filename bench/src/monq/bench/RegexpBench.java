@@ -0,0 +1,70 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import monq.jfa.Regexp;
+
+/**
+ * <p>measures {@link Regexp#find(CharSequence,int) Regexp.find()} by
+ * finding all matches in a text, reported in characters per
+ * second.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class RegexpBench {
+  public static final int CHARS = 1<<20;
+
+  private String text;
+  private Regexp re;
+
+  @Setup
+  public void setup() {
+    text = Workload.text(CHARS, Workload.terms(0, Workload.SEED), 1,
+			 Workload.SEED);
+    re = new Regexp("[a-z]*q[a-z]*u");
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CHARS)
+  public int find() {
+    int found = 0;
+    int pos = re.find(text, 0);
+    while( pos>=0 ) {
+      found += 1;
+      pos = re.find(text, pos+re.length());
+    }
+    return found;
+  }
+}
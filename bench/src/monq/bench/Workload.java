@@ -0,0 +1,68 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.bench;
+
+import java.io.IOException;
+import java.util.List;
+
+import monq.stuff.CorpusGenerator;
+
+/**
+ * <p>creates the synthetic dictionaries and texts used by the
+ * benchmarks with a {@link CorpusGenerator}. Everything is derived
+ * from a seed, so all benchmarks and all runs see exactly the same
+ * data.</p>
+ */
+public final class Workload {
+  public static final long SEED = 15121962;
+
+  private Workload() {}
+  /**********************************************************************/
+  /**
+   * <p>returns <code>n</code> distinct dictionary terms made of
+   * lower case letters, some of them consisting of two or more
+   * words.</p>
+   */
+  public static List<String> terms(int n, long seed) {
+    return new CorpusGenerator(seed).terms(n);
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns a text of <code>nChars</code> characters of random
+   * words in which about every <code>hitRate</code>th word is one of
+   * the given terms.</p>
+   */
+  public static String text(int nChars, List<String> terms, int hitRate,
+			    long seed) {
+    return new CorpusGenerator(seed).setTerms(terms, 1.0/hitRate)
+      .text(nChars).toString();
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns an mwt file for {@link monq.programs.DictFilter} which
+   * tags each term with its index.</p>
+   */
+  public static String mwt(List<String> terms) {
+    StringBuilder sb = new StringBuilder(terms.size()*30);
+    try {
+      CorpusGenerator.mwt(sb, terms, "<t id=\"%1\">%0</t>");
+    } catch( IOException e ) {
+      throw new Error("impossible", e);
+    }
+    return sb.toString();
+  }
+}
@@ -51,7 +51,8 @@ public class EnumOption extends Option {
 		    String[] deFault) throws CommandlineException {
     this(opt, name, usage, cmin, cmax, allowed);
 
-     setDefault(deFault);
+    if( deFault==null ) return;
+    setDefault(deFault);
   }
   //**********************************************************************/
   public EnumOption(String opt, String name, String usage,
@@ -39,6 +39,7 @@ public class LongOption extends Option {
 		    int cmin, int cmax, long min, long max,
 		    Object[] defalt) throws CommandlineException {
     this(opt, name, usage, cmin, cmax, min, max);
+    if( defalt==null ) return;
     setDefalt(defalt);
   }
   // **********************************************************************/
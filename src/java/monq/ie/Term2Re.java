@@ -69,19 +69,17 @@ public class Term2Re {
   private static String stopWords =
     "ii|iii|iv|vi|it|up|of|and|the|to|or|with|due|in|other|as|by|without";
 
-  // automaton to replace ae by a?e. Used within a word
-  private static DfaRun aeAut;
+  // automaton to replace ae by a?e. Used within a word, each
+  // converter runs it with its own DfaRun.
+  private static Dfa aeDfa;
 
-  // automaton to check whether a word will be subject to
-  // uppercase/lowercase conversion of first character
-  private static Regexp ulFirstOk = new Regexp(".*[a-z].*");
+  // checks whether a word will be subject to uppercase/lowercase
+  // conversion of first character
+  private static final String UL_FIRST_OK = ".*[a-z].*";
 
 
   static {
     try {
-      convert = createConverter(RE_SPLIT_WORD, RE_SEP_WORD, RE_TRAIL_CONTEXT,
-				reParser);
-
 //   	= new Nfa(wordSplitIn, new AbstractFaAction.Replace(wordSplitOut))
 // 	.or("[A-Za-z]("+wordSplitIn+")^", new DoOrdinaryWord())
 // 	.or("("+wordSplitIn+")^", new DoFunnyWord())
@@ -89,15 +87,18 @@ public class Term2Re {
 // 	.compile()
 // 	.createRun(DfaRun.UNMATCHED_THROW);
 
-      aeAut
+      aeDfa
 	= new Nfa(".ae", new AbstractFaAction() {
 	    public void invoke(StringBuilder yytext, int start, DfaRun r) {
 	      yytext.setLength(start+1);
 	      yytext.append("a?e");
 	    }
 	  })
-	.compile(DfaRun.UNMATCHED_COPY)
-	.createRun();
+	.compile(DfaRun.UNMATCHED_COPY);
+
+      // needs aeDfa
+      convert = createConverter(RE_SPLIT_WORD, RE_SEP_WORD, RE_TRAIL_CONTEXT,
+				reParser);
 
     } catch( ReSyntaxException e ) {
       throw new Error("this cannot happen", e);
@@ -122,6 +123,10 @@ public class Term2Re {
    * <p><b>Note:</b> This comment does not necessarily keep up with
    * changes to the code.-(</p>
    *
+   * <p>Like any <code>DfaRun</code>, the converter must not be used
+   * by several threads at once, but converters created by separate
+   * calls can be used concurrently.</p>
+   *
    * @param wordSplitRe is the regular expression used to separate an
    * incoming term into individual words. See {@link #RE_SPLIT_WORD} for
    * an example.
@@ -180,6 +185,8 @@ public class Term2Re {
     private ReParser rp;
     private StringBuilder scratch = new StringBuilder();
     private StringBuilder scratch2 = new StringBuilder();
+    private DfaRun aeAut = new DfaRun(aeDfa);
+    private Regexp ulFirstOk = new Regexp(UL_FIRST_OK);
 
     //public int getPriority() { return -1; }
     private DoOrdinaryWord(ReParser rp) { 
@@ -38,7 +38,6 @@ class ArrayCharTrans<T> implements Serializable, CharTrans<T> {
   // mapped.
   T[] values;
 
-  public static long stats = 0;
   /**********************************************************************/
   public static int estimateSize(int n) {
     int thisSize =
@@ -84,7 +83,6 @@ class ArrayCharTrans<T> implements Serializable, CharTrans<T> {
   }
   /********************************************************************/
   public T get(char ch) {
-    stats += 1;
 
     int pos = getPos(ch);
     if( pos==values.length || ch<getFirstAt(pos) ) return null;
@@ -108,11 +106,15 @@ class ArrayCharTrans<T> implements Serializable, CharTrans<T> {
     // Ist im Rahmen der Meßungenauigkeit identisch.
   *****/
   private int getPos(char ch) {
-    int lo, hi; 
+    return getPos(ch, 0);
+  }
+  // same as above, but only looks at the ranges from position lo on
+  int getPos(char ch, int lo) {
+    int hi; 
     // we start out with the correct position pos such that
     //    lo <= pos <= hi
     // We maintain the above inequality throughout the loop
-    for(lo=0, hi=values.length; lo<hi; /**/) {
+    for(hi=values.length; lo<hi; /**/) {
       int mid = (lo+hi)/2;
       if( getLastAt(mid)<ch ) {
 	// ==> mid<pos  ==> mid+1<=pos
@@ -0,0 +1,392 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>is a {@link Dfa} translated into an automaton the transitions of
+ * which are labeled with the bytes of the UTF-8 encoding of the
+ * original characters. It is operated by a {@link ByteDfaRun}
+ * directly on a <code>ByteBuffer</code>, e.g. a memory mapped file,
+ * without first decoding the input into characters.</p>
+ *
+ * <p>Every character range of the original automaton is expanded into
+ * a small set of byte range sequences, each of 1 to 4 bytes
+ * length. States in the middle of a multi-byte character are
+ * intermediate states without action, so a match found by a
+ * <code>ByteDfa</code> always covers complete UTF-8 encoded
+ * characters. Characters outside the BMP are represented in a
+ * <code>Dfa</code> by a pair of surrogates. They are translated into
+ * their 4 byte encoding if the <code>Dfa</code> has a transition on
+ * the high surrogate followed by one on the low surrogate. Surrogates
+ * which do not form such a pair are not representable in UTF-8 and
+ * are dropped. As a consequence, a single <code>'.'</code> does not
+ * match a character outside the BMP, while two of them do.</p>
+ *
+ * <p>For input that is mostly ASCII, the resulting automaton has
+ * hardly more states than the original one.</p>
+ *
+ * @see Nfa#compileUtf8
+ */
+public class ByteDfa implements Serializable {
+
+  private final Dfa dfa;
+  // written by writeObject(), as DfaState is not serializable
+  private transient DfaState startState;
+  private final boolean haveSubinfos;
+
+  private static final int MIN_HIGH_SURROGATE = 0xD800;
+  private static final int MAX_HIGH_SURROGATE = 0xDBFF;
+  private static final int MIN_LOW_SURROGATE = 0xDC00;
+  private static final int MAX_LOW_SURROGATE = 0xDFFF;
+
+  /**********************************************************************/
+  /**
+   * <p>translates the given <code>Dfa</code> into a byte level
+   * automaton.</p>
+   *
+   * @see #ByteDfa(Dfa,double)
+   */
+  public ByteDfa(Dfa dfa) {
+    this(dfa, 1.0);
+  }
+  /**********************************************************************/
+  /**
+   * <p>translates the given <code>Dfa</code> into a byte level
+   * automaton. The actions, the end of file action and the behaviour
+   * on unmatched input are taken over from the <code>Dfa</code>,
+   * which is kept to be handed to the callbacks via a
+   * {@link DfaRun}.</p>
+   *
+   * @param memoryForSpeedTradeFactor is used for the transition
+   * tables of the new states as described for {@link
+   * Nfa#setMemoryForSpeedTradeFactor}.
+   */
+  public ByteDfa(Dfa dfa, double memoryForSpeedTradeFactor) {
+    this.dfa = dfa;
+
+    Map<DfaState, DfaState> charToByte = new IdentityHashMap<>();
+    LinkedList<DfaState> work = new LinkedList<>();
+    Intervals<DfaState> ivals = new Intervals<>();
+    List<int[]> seqs = new ArrayList<>();
+    boolean subinfos = false;
+
+    DfaState charStart = dfa.getStart();
+    startState = new DfaState(charStart.getAction());
+    charToByte.put(charStart, startState);
+    work.add(charStart);
+
+    while( !work.isEmpty() ) {
+      DfaState current = work.removeLast();
+      subinfos |= current.getSubinfos()!=null;
+      Node root = new Node();
+
+      CharTrans<DfaState> tr = current.getTrans();
+      for(int i=0; i<tr.size(); i++) {
+        int first = tr.getFirstAt(i);
+        int last = tr.getLastAt(i);
+        DfaState child = tr.getAt(i);
+
+        if( first<MIN_HIGH_SURROGATE ) {
+          add(root, seqs, first, Math.min(last, MIN_HIGH_SURROGATE-1),
+              byteState(child, charToByte, work));
+        }
+        if( last>MAX_LOW_SURROGATE ) {
+          add(root, seqs, Math.max(first, MAX_LOW_SURROGATE+1), last,
+              byteState(child, charToByte, work));
+        }
+        int hiFirst = Math.max(first, MIN_HIGH_SURROGATE);
+        int hiLast = Math.min(last, MAX_HIGH_SURROGATE);
+        if( hiFirst<=hiLast ) {
+          addSurrogatePairs(root, seqs, hiFirst, hiLast, child,
+                            charToByte, work);
+        }
+      }
+      toStates(root, charToByte.get(current), ivals,
+               memoryForSpeedTradeFactor);
+    }
+    haveSubinfos = subinfos;
+  }
+  /**********************************************************************/
+  /**
+   * returns the <code>Dfa</code> this automaton was created from.
+   */
+  public Dfa getDfa() { return dfa; }
+
+  /**
+   * <p>returns <code>true</code> if this automaton can match the
+   * empty string.</p>
+   *
+   * @see Dfa#matchesEmpty
+   */
+  public boolean matchesEmpty() {
+    return null!=startState.getAction();
+  }
+
+  DfaState getStart() { return startState; }
+
+  boolean haveSubinfos() { return haveSubinfos; }
+  /**********************************************************************/
+  /**
+   * <p>writes the byte level states the same way as {@link Dfa}
+   * does, one after another and numbered in the order in which they
+   * are found from the start state.</p>
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    Dfa.writeStates(out, startState);
+  }
+  /**********************************************************************/
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    startState = Dfa.readStates(in);
+  }
+  /**********************************************************************/
+  /**
+   * <p>finds the longest match starting at position <code>pos</code>
+   * of <code>in</code>, not looking at bytes at or behind
+   * <code>limit</code>. The position of <code>in</code> is not
+   * changed.</p>
+   *
+   * @return the position just behind the match or -1 if there is no
+   * match. The action of the match is stored in
+   * <code>action[0]</code>.
+   */
+  int match(ByteBuffer in, int pos, int limit, FaAction[] action) {
+    DfaState current = startState;
+    int end = -1;
+    FaAction a = null;
+    while( true ) {
+      FaAction stop = current.getAction();
+      if( stop!=null ) {
+        a = stop;
+        end = pos;
+      }
+      if( pos>=limit ) break;
+      current = current.follow((char)(in.get(pos++)&0xff));
+      if( current==null ) break;
+    }
+    action[0] = a;
+    return end;
+  }
+  /**********************************************************************/
+  private static DfaState byteState(DfaState charState,
+                                    Map<DfaState, DfaState> charToByte,
+                                    LinkedList<DfaState> work) {
+    DfaState result = charToByte.get(charState);
+    if( result==null ) {
+      result = new DfaState(charState.getAction());
+      charToByte.put(charState, result);
+      work.add(charState);
+    }
+    return result;
+  }
+  /**********************************************************************/
+  // Translates a high surrogate range leading to state hiChild into
+  // code point ranges by combining it with all low surrogate
+  // transitions of hiChild.
+  private static void addSurrogatePairs(Node root, List<int[]> seqs,
+                                        int hiFirst, int hiLast,
+                                        DfaState hiChild,
+                                        Map<DfaState, DfaState> charToByte,
+                                        LinkedList<DfaState> work) {
+    CharTrans<DfaState> tr = hiChild.getTrans();
+    for(int j=0; j<tr.size(); j++) {
+      int loFirst = Math.max(tr.getFirstAt(j), MIN_LOW_SURROGATE);
+      int loLast = Math.min(tr.getLastAt(j), MAX_LOW_SURROGATE);
+      if( loFirst>loLast ) continue;
+      DfaState dst = byteState(tr.getAt(j), charToByte, work);
+      if( loFirst==MIN_LOW_SURROGATE && loLast==MAX_LOW_SURROGATE ) {
+        // all low surrogates, so the code points are contiguous
+        add(root, seqs, Character.toCodePoint((char)hiFirst, (char)loFirst),
+            Character.toCodePoint((char)hiLast, (char)loLast), dst);
+        continue;
+      }
+      for(int hi=hiFirst; hi<=hiLast; hi++) {
+        add(root, seqs, Character.toCodePoint((char)hi, (char)loFirst),
+            Character.toCodePoint((char)hi, (char)loLast), dst);
+      }
+    }
+  }
+  /**********************************************************************/
+  private static void add(Node root, List<int[]> seqs,
+                          int first, int last, DfaState dst) {
+    seqs.clear();
+    utf8Ranges(first, last, seqs);
+    for(int[] seq : seqs) root.add(seq, dst);
+  }
+  /**********************************************************************/
+  /**
+   * <p>splits the code point range <code>[first,last]</code> into
+   * sequences of byte ranges such that the UTF-8 encodings of the
+   * code points are exactly the byte strings matched by the
+   * sequences. Each sequence is stored as an array of pairs, the first
+   * and last byte of each range.</p>
+   *
+   * <p>The range is split until all code points have the same encoded
+   * length and, for every byte position, the range is either a single
+   * byte or all bytes following it cover their full range. Only then
+   * can the encodings of <code>first</code> and <code>last</code> be
+   * paired up byte by byte. Two sequences created this way for
+   * disjoint code point ranges either start with the same byte or
+   * with non-overlapping byte ranges, which allows to store them in a
+   * simple trie.</p>
+   */
+  static void utf8Ranges(int first, int last, List<int[]> out) {
+    int[] maxForLength = {0x7F, 0x7FF, 0xFFFF};
+    for(int max : maxForLength) {
+      if( first<=max && last>max ) {
+        utf8Ranges(first, max, out);
+        utf8Ranges(max+1, last, out);
+        return;
+      }
+    }
+    int n = utf8Length(first);
+    for(int i=1; i<n; i++) {
+      int m = (1<<(6*i))-1;
+      if( (first&~m)!=(last&~m) ) {
+        if( (first&m)!=0 ) {
+          utf8Ranges(first, first|m, out);
+          utf8Ranges((first|m)+1, last, out);
+          return;
+        }
+        if( (last&m)!=m ) {
+          utf8Ranges(first, (last&~m)-1, out);
+          utf8Ranges(last&~m, last, out);
+          return;
+        }
+      }
+    }
+    byte[] a = new byte[4];
+    byte[] b = new byte[4];
+    encode(first, a, 0);
+    encode(last, b, 0);
+    int[] seq = new int[2*n];
+    for(int i=0; i<n; i++) {
+      seq[2*i] = a[i]&0xff;
+      seq[2*i+1] = b[i]&0xff;
+    }
+    out.add(seq);
+  }
+  /**********************************************************************/
+  static int utf8Length(int cp) {
+    if( cp<0x80 ) return 1;
+    if( cp<0x800 ) return 2;
+    if( cp<0x10000 ) return 3;
+    return 4;
+  }
+  /**********************************************************************/
+  /**
+   * stores the UTF-8 encoding of code point <code>cp</code> into
+   * <code>dst</code> starting at <code>off</code> and returns its
+   * length.
+   */
+  static int encode(int cp, byte[] dst, int off) {
+    if( cp<0x80 ) {
+      dst[off] = (byte)cp;
+      return 1;
+    }
+    if( cp<0x800 ) {
+      dst[off] = (byte)(0xC0|(cp>>6));
+      dst[off+1] = (byte)(0x80|(cp&0x3F));
+      return 2;
+    }
+    if( cp<0x10000 ) {
+      dst[off] = (byte)(0xE0|(cp>>12));
+      dst[off+1] = (byte)(0x80|((cp>>6)&0x3F));
+      dst[off+2] = (byte)(0x80|(cp&0x3F));
+      return 3;
+    }
+    dst[off] = (byte)(0xF0|(cp>>18));
+    dst[off+1] = (byte)(0x80|((cp>>12)&0x3F));
+    dst[off+2] = (byte)(0x80|((cp>>6)&0x3F));
+    dst[off+3] = (byte)(0x80|(cp&0x3F));
+    return 4;
+  }
+  /**********************************************************************/
+  // Creates the transitions of state for the trie rooted at
+  // node. Intermediate nodes become new states without action. The
+  // trie is at most 4 levels deep, so recursion is fine.
+  private static void toStates(Node node, DfaState state,
+                               Intervals<DfaState> ivals,
+                               double memoryForSpeedTradeFactor) {
+    int l = node.dst.size();
+    DfaState[] children = new DfaState[l];
+    for(int i=0; i<l; i++) {
+      Object o = node.dst.get(i);
+      if( o instanceof Node ) {
+        DfaState child = new DfaState();
+        toStates((Node)o, child, ivals, memoryForSpeedTradeFactor);
+        children[i] = child;
+      } else {
+        children[i] = (DfaState)o;
+      }
+    }
+    ivals.reset();
+    for(int i=0; i<l; i++) {
+      ivals.overwrite(node.first.charAt(i), node.last.charAt(i),
+                      children[i]);
+    }
+    state.setTrans(ivals.toCharTrans(memoryForSpeedTradeFactor));
+  }
+  /**********************************************************************/
+  // a trie node of byte ranges used while expanding the transitions of
+  // one character state
+  private static final class Node {
+    private final StringBuilder first = new StringBuilder();
+    private final StringBuilder last = new StringBuilder();
+    // either a Node or the DfaState reached after the last byte
+    private final List<Object> dst = new ArrayList<>();
+
+    void add(int[] seq, DfaState target) {
+      Node node = this;
+      int n = seq.length/2;
+      for(int k=0; k<n-1; k++) {
+        node = node.child((char)seq[2*k], (char)seq[2*k+1]);
+      }
+      node.first.append((char)seq[2*n-2]);
+      node.last.append((char)seq[2*n-1]);
+      node.dst.add(target);
+    }
+
+    private Node child(char lo, char hi) {
+      for(int i=0; i<first.length(); i++) {
+        if( first.charAt(i)==lo && last.charAt(i)==hi ) {
+          return (Node)dst.get(i);
+        }
+      }
+      Node result = new Node();
+      first.append(lo);
+      last.append(hi);
+      dst.add(result);
+      return result;
+    }
+  }
+  /**********************************************************************/
+}
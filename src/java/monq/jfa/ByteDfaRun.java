@@ -0,0 +1,353 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>operates a {@link ByteDfa} on UTF-8 encoded bytes held in a
+ * <code>ByteBuffer</code>. Matching works on the raw bytes, only the
+ * matches are decoded into characters to be handed to the {@link
+ * FaAction} callbacks. Unmatched input is copied byte by byte, if at
+ * all. Positions reported by {@link #matchStart} and {@link
+ * #matchEnd} are byte offsets.</p>
+ *
+ * <p>The callbacks receive a {@link DfaRun} which operates the
+ * original {@link Dfa} of the <code>ByteDfa</code>. Its {@link
+ * DfaRun#clientData} is available via {@link #setClientData} and the
+ * callbacks may use {@link DfaRun#submatches submatches()}, {@link
+ * DfaRun#setOnFailedMatch setOnFailedMatch()} and push back the tail
+ * of the match with {@link DfaRun#unskip(StringBuilder,int)
+ * unskip()}. Pushing back text that was not part of the match is not
+ * supported and results in a {@link CallbackException}. Neither
+ * {@link DfaRun#collect} nor a change of the <code>Dfa</code> or the
+ * input of that <code>DfaRun</code> have any effect.</p>
+ *
+ * <p>Bytes that do not form valid UTF-8 are never matched. With
+ * {@link DfaRun#UNMATCHED_COPY} they are copied unchanged to the
+ * output.</p>
+ *
+ * <p><b>Note:</b> This class is not synchronized. Like the
+ * <code>Dfa</code>, a <code>ByteDfa</code> may be shared between
+ * threads, each using its own <code>ByteDfaRun</code>.</p>
+ */
+public class ByteDfaRun {
+
+  private final ByteDfa bdfa;
+
+  // the DfaRun handed to callbacks. Text pushed back by callbacks
+  // ends up in pushedBack.
+  private final EmptyCharSource pushedBack = new EmptyCharSource();
+  private final DfaRun callbackRun;
+
+  private ByteBuffer in;
+  private int pos;
+  private int limit;
+  // byte offset reported for buffer index 0
+  private long base;
+  private boolean eofArmed;
+
+  private int unmatchedStart;
+  private int matchStart;
+  private int matchEnd;
+
+  private final FaAction[] action = new FaAction[1];
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder scratch = new StringBuilder();
+  private byte[] outBuf = new byte[4096];
+  /**********************************************************************/
+  /**
+   * <p>creates a <code>ByteDfaRun</code> with empty input.</p>
+   *
+   * @throws IllegalArgumentException if <code>bdfa</code> matches the
+   * empty string.
+   */
+  public ByteDfaRun(ByteDfa bdfa) {
+    if( bdfa.matchesEmpty() ) {
+      throw new IllegalArgumentException(DfaRun.EEPSMATCHER);
+    }
+    this.bdfa = bdfa;
+    this.callbackRun = new DfaRun(bdfa.getDfa(), pushedBack);
+    setIn(ByteBuffer.allocate(0));
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates a <code>ByteDfaRun</code> to read from the given
+   * buffer.</p>
+   *
+   * @see #setIn(ByteBuffer)
+   */
+  public ByteDfaRun(ByteDfa bdfa, ByteBuffer in) {
+    this(bdfa);
+    setIn(in);
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the input to the bytes between the position and the limit
+   * of <code>in</code>. Byte offsets are counted from the position of
+   * <code>in</code>. The buffer itself is not changed, in particular
+   * its position is not advanced.</p>
+   */
+  public void setIn(ByteBuffer in) {
+    setIn(in, 0);
+  }
+  /**********************************************************************/
+  /**
+   * <p>like {@link #setIn(ByteBuffer)}, but byte offsets are counted
+   * from <code>offset</code>. This is handy if a large file is mapped
+   * window by window. Note that a window should end on a boundary
+   * between two matches, for example after a newline character.</p>
+   */
+  public void setIn(ByteBuffer in, long offset) {
+    this.in = in;
+    this.pos = in.position();
+    this.limit = in.limit();
+    this.base = offset-pos;
+    unmatchedStart = matchStart = matchEnd = pos;
+    eofArmed = true;
+    pushedBack.clear();
+    callbackRun.setIn(pushedBack);
+  }
+  /**********************************************************************/
+  /**
+   * <p>maps the given file read-only into memory.</p>
+   *
+   * @throws IOException if the file cannot be read or if it is larger
+   * than 2GB. For larger files, map windows of the file yourself and
+   * use {@link #setIn(ByteBuffer,long)}.
+   */
+  public static MappedByteBuffer map(String fileName) throws IOException {
+    try (FileChannel ch = FileChannel.open(Paths.get(fileName),
+                                           StandardOpenOption.READ)) {
+      long size = ch.size();
+      if( size>Integer.MAX_VALUE ) {
+        throw new IOException("file `"+fileName+"' with "+size+
+                              " bytes is too large to be mapped at once");
+      }
+      return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the {@link DfaRun#clientData} of the <code>DfaRun</code>
+   * handed to the callbacks.</p>
+   */
+  public void setClientData(Object clientData) {
+    callbackRun.clientData = clientData;
+  }
+  public Object getClientData() { return callbackRun.clientData; }
+
+  public ByteDfa getByteDfa() { return bdfa; }
+  /**********************************************************************/
+  /**
+   * returns the byte offset of the start of the most recent match.
+   */
+  public long matchStart() { return base+matchStart; }
+
+  /**
+   * returns the byte offset just behind the most recent match.
+   */
+  public long matchEnd() { return base+matchEnd; }
+  /**********************************************************************/
+  /**
+   * <p>finds the next match and returns its action. The byte offsets
+   * of the match are available from {@link #matchStart} and {@link
+   * #matchEnd}. Unmatched input in front of the match is skipped, or
+   * results in a {@link NomatchException} if {@link
+   * DfaRun#UNMATCHED_THROW} is in effect. Contrary to {@link
+   * DfaRun#next DfaRun.next()}, there is no limit on the number of
+   * unmatched bytes skipped.</p>
+   *
+   * @return the action of the match, the end of file action of the
+   * {@link Dfa} when EOF is hit the first time or {@link DfaRun#EOF}.
+   */
+  public FaAction next() throws NomatchException {
+    unmatchedStart = pos;
+    while( pos<limit ) {
+      int end = bdfa.match(in, pos, limit, action);
+      if( end>=0 ) {
+        matchStart = pos;
+        matchEnd = pos = end;
+        return action[0];
+      }
+      if( callbackRun.getFailedMatchBehaviour()==DfaRun.UNMATCHED_THROW ) {
+        matchStart = matchEnd = pos;
+        throw new NomatchException("no matching regular expression "+
+                                   "when looking at `"+lookahead()+"'");
+      }
+      // skip a whole character, otherwise we might find a match
+      // starting with a continuation byte
+      pos += 1;
+      while( pos<limit && (in.get(pos)&0xC0)==0x80 ) pos += 1;
+    }
+    matchStart = matchEnd = pos;
+    FaAction eofAction = bdfa.getDfa().eofAction;
+    if( eofArmed && eofAction!=null ) {
+      eofArmed = false;
+      return eofAction;
+    }
+    return DfaRun.EOF;
+  }
+  /**********************************************************************/
+  /**
+   * <p>runs the whole input through the automaton, calling the actions
+   * of all matches, and writes the result to <code>out</code> in
+   * UTF-8. Unmatched bytes are copied unchanged or dropped according
+   * to the current {@link DfaRun#setOnFailedMatch failed match
+   * behaviour}.</p>
+   */
+  public void filter(OutputStream out) throws IOException {
+    while( true ) {
+      FaAction a = next();
+      if( callbackRun.getFailedMatchBehaviour()==DfaRun.UNMATCHED_COPY ) {
+        copy(unmatchedStart, matchStart, out);
+      }
+      if( a==DfaRun.EOF ) break;
+      text.setLength(0);
+      crunch(a);
+      write(text, out);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>like {@link #filter(OutputStream)}, but the output is
+   * discarded. This is useful if the callbacks collect their results
+   * in the {@link #setClientData client data}.</p>
+   */
+  public void filter() throws IOException {
+    while( true ) {
+      FaAction a = next();
+      if( a==DfaRun.EOF ) break;
+      text.setLength(0);
+      crunch(a);
+    }
+  }
+  /**********************************************************************/
+  // decodes the match and calls the action on it
+  private void crunch(FaAction a) throws IOException {
+    decode(matchStart, matchEnd, text);
+    if( bdfa.haveSubinfos() ) callbackRun.replay(text, a);
+    try {
+      a.invoke(text, 0, callbackRun);
+    } catch( CallbackException e ) {
+      throw new CallbackException(e.getMessage()+
+                                  ". The match starts at byte offset "+
+                                  matchStart(), e);
+    }
+    if( pushedBack.pop(scratch)==0 ) return;
+
+    // text pushed back must be the tail of the match. We move the
+    // input position back accordingly.
+    int l = 0;
+    for(int i=0; i<scratch.length(); i++) {
+      char ch = scratch.charAt(i);
+      if( Character.isHighSurrogate(ch) ) {
+        l += 4;
+        i += 1;
+      } else {
+        l += ByteDfa.utf8Length(ch);
+      }
+    }
+    int newPos = matchEnd-l;
+    StringBuilder tail = new StringBuilder(scratch.length());
+    if( newPos>=matchStart ) decode(newPos, matchEnd, tail);
+    if( !tail.toString().contentEquals(scratch) ) {
+      throw new CallbackException("a callback pushed back text which "+
+                                  "is not the tail of the match "+
+                                  "starting at byte offset "+matchStart());
+    }
+    scratch.setLength(0);
+    pos = newPos;
+  }
+  /**********************************************************************/
+  /**
+   * decodes the valid UTF-8 between <code>from</code> and
+   * <code>to</code>. Since only matches are decoded this way, there is
+   * no need to check the input.
+   */
+  private void decode(int from, int to, StringBuilder out) {
+    int i = from;
+    while( i<to ) {
+      int b = in.get(i++)&0xff;
+      if( b<0x80 ) {
+        out.append((char)b);
+      } else if( b<0xE0 ) {
+        out.append((char)(((b&0x1F)<<6) | (in.get(i++)&0x3F)));
+      } else if( b<0xF0 ) {
+        int cp = ((b&0x0F)<<12) | ((in.get(i++)&0x3F)<<6);
+        out.append((char)(cp | (in.get(i++)&0x3F)));
+      } else {
+        int cp = ((b&0x07)<<18) | ((in.get(i++)&0x3F)<<12);
+        cp |= (in.get(i++)&0x3F)<<6;
+        out.appendCodePoint(cp | (in.get(i++)&0x3F));
+      }
+    }
+  }
+  /**********************************************************************/
+  private String lookahead() {
+    int end = Math.min(limit, pos+30);
+    byte[] b = new byte[end-pos];
+    for(int i=0; i<b.length; i++) b[i] = in.get(pos+i);
+    String s = new String(b, StandardCharsets.UTF_8);
+    if( end<limit ) return s+"...";
+    return s+"[EOF]";
+  }
+  /**********************************************************************/
+  private void copy(int from, int to, OutputStream out) throws IOException {
+    if( from>=to ) return;
+    if( in.hasArray() ) {
+      out.write(in.array(), in.arrayOffset()+from, to-from);
+      return;
+    }
+    while( from<to ) {
+      int l = Math.min(outBuf.length, to-from);
+      for(int i=0; i<l; i++) outBuf[i] = in.get(from+i);
+      out.write(outBuf, 0, l);
+      from += l;
+    }
+  }
+  /**********************************************************************/
+  private void write(CharSequence s, OutputStream out) throws IOException {
+    int l = s.length();
+    if( outBuf.length<4*l ) outBuf = new byte[4*l];
+    int j = 0;
+    for(int i=0; i<l; i++) {
+      char ch = s.charAt(i);
+      if( ch<0x80 ) {
+        outBuf[j++] = (byte)ch;
+        continue;
+      }
+      int cp = ch;
+      if( Character.isHighSurrogate(ch) && i+1<l
+          && Character.isLowSurrogate(s.charAt(i+1)) ) {
+        cp = Character.toCodePoint(ch, s.charAt(++i));
+      } else if( Character.isSurrogate(ch) ) {
+        cp = '?';
+      }
+      j += ByteDfa.encode(cp, outBuf, j);
+    }
+    out.write(outBuf, 0, j);
+  }
+  /**********************************************************************/
+}
@@ -18,13 +18,24 @@ package monq.jfa;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import java.io.PrintStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
 
 /**
  * implements a deterministic finite automaton. In contrast to class
@@ -36,11 +47,17 @@ import java.io.IOException;
  *
  * <p>A <code>Dfa</code> can only be created by calling one of the
  * {@link Nfa#compile(DfaRun.FailedMatchBehaviour,FaAction)
- * Nfa.compile()} methods. It can only be used for matching by
+ * Nfa.compile()} methods or by combining compiled automata with
+ * {@link #union union()}. It can only be used for matching by
  * operating it in a {@link DfaRun} object. To apply
  * automata-operations again, it is necessary to copy it into a
  * <code>Nfa</code> again with {@link #toNfa()}.</p>
  *
+ * <p>A <code>Dfa</code> can be serialized if all its actions are
+ * serializable. The states are written iteratively, so even very
+ * large automata can be stored and read back without compiling them
+ * again.</p>
+ *
  * <p><b style="color:red">Warning:</b> The intention of separating
  * the data structure encapsulated in a <code>Dfa</code> from the
  * machinery to run it, i.e. <code>DfaRun</code>, is that
@@ -66,7 +83,8 @@ public class Dfa implements Serializable {
   public long matchMax = -1;
   /**********************************************************************/
 
-  private DfaState startState;
+  // written and read by writeObject() and readObject()
+  private transient DfaState startState;
 
   // The action to be used by DfaRun when eof is hit
   final FaAction eofAction;
@@ -161,6 +179,734 @@ public class Dfa implements Serializable {
     return new Nfa(newStart, newLast);
   }
   /**********************************************************************/
+  /**
+   * <p>returns the number of states, the transition tables by type
+   * and the estimated memory used by this automaton.</p>
+   */
+  public Footprint footprint() {
+    return Footprint.of(startState);
+  }
+  /**********************************************************************/
+  /**
+   * <p>combines the given automata into one which behaves as if all
+   * their regular expressions had been compiled together into one
+   * <code>Dfa</code>. Where several of the automata match the same
+   * string, their actions are merged with {@link FaAction#mergeWith
+   * mergeWith()}. The given automata are not changed, but the result
+   * shares all states which are reached by only one of them.</p>
+   *
+   * <p>This is much cheaper than recompiling the automata with {@link
+   * #toNfa} and {@link Nfa#or(Nfa)}, in particular if the automata
+   * mostly match different prefixes, like the parts of a large
+   * dictionary.</p>
+   *
+   * <p>A new state gets the fastest kind of transition table found
+   * among the states it combines, so automata compiled with a high
+   * {@link Nfa#setMemoryForSpeedTradeFactor memory for speed trade
+   * factor} keep their tables. The same holds for the other
+   * combinations of automata below.</p>
+   *
+   * @throws CompileDfaException if actions of the automata cannot be
+   * merged
+   */
+  public static Dfa union(List<Dfa> dfas, DfaRun.FailedMatchBehaviour fmb,
+			  FaAction eofAction)
+    throws CompileDfaException
+  {
+    if( dfas.size()==1 ) {
+      return new Dfa(dfas.get(0).startState, fmb, eofAction);
+    }
+    return product(starts(dfas), UNION, fmb, eofAction);
+  }
+  /**********************************************************************/
+  /**
+   * <p>combines the given automata into one which matches only those
+   * strings matched by all of them. The actions of the automata are
+   * merged with {@link FaAction#mergeWith mergeWith()}. Only those
+   * combinations of states are created which are reachable from the
+   * start, and states from which no match can be reached any more
+   * are removed. The given automata are not changed.</p>
+   *
+   * @throws CompileDfaException if actions of the automata cannot be
+   * merged
+   */
+  public static Dfa intersect(List<Dfa> dfas,
+			      DfaRun.FailedMatchBehaviour fmb,
+			      FaAction eofAction)
+    throws CompileDfaException
+  {
+    return product(starts(dfas), INTERSECT, fmb, eofAction);
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates an automaton which matches the strings matched by
+   * <code>a</code> but not by <code>b</code>, calling the actions of
+   * <code>a</code>. The result shares the states of <code>a</code>
+   * which are reached only by strings that are no prefix of a string
+   * matched by <code>b</code>. The given automata are not
+   * changed.</p>
+   */
+  public static Dfa minus(Dfa a, Dfa b, DfaRun.FailedMatchBehaviour fmb,
+			  FaAction eofAction) {
+    DfaState[] starts = {a.startState, b.startState};
+    try {
+      return product(starts, MINUS, fmb, eofAction);
+    } catch( CompileDfaException e ) {
+      // only the actions of a are used, they do not clash
+      throw new Error("impossible", e);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates an automaton which matches exactly the strings not
+   * matched by this one, calling <code>action</code> for them. The
+   * failed match behaviour and the EOF action are copied from
+   * <code>this</code>.</p>
+   *
+   * <p><b>Note:</b> The result is the exact complement. It matches
+   * the empty string, if this automaton does not, and every string
+   * not matched by this automaton, even if a prefix of it is. If this
+   * automaton matches <code>ab</code>, the result matches
+   * <code>abc</code>, and for input <code>ab</code> it finds only
+   * the shorter match <code>a</code>. In a <code>DfaRun</code> it
+   * will normally match the whole input, so it is rather meant as an
+   * operand of {@link #intersect intersect()}. To remove strings from
+   * an automaton, {@link #minus minus()} is cheaper.</p>
+   */
+  public Dfa complement(final FaAction action) {
+    Product rule = new Product(true, false) {
+	@Override
+	boolean alive(DfaState[] tuple, int count) { return true; }
+	@Override
+	boolean accepts(DfaState[] tuple) {
+	  return tuple[0]==null || tuple[0].getAction()==null;
+	}
+	@Override
+	boolean contributes(int i) { return false; }
+	@Override
+	FaAction fixedAction() { return action; }
+      };
+    try {
+      return product(new DfaState[]{startState}, rule, fmb, eofAction);
+    } catch( CompileDfaException e ) {
+      throw new Error("impossible", e);
+    }
+  }
+  /**********************************************************************/
+  private static DfaState[] starts(List<Dfa> dfas) {
+    int k = dfas.size();
+    DfaState[] starts = new DfaState[k];
+    for(int i=0; i<k; i++) starts[i] = dfas.get(i).startState;
+    return starts;
+  }
+  /**********************************************************************/
+  // decides how the states of the operands of a product
+  // construction are combined. The tuple passed to the methods
+  // contains one state, or null, for each operand.
+  private static abstract class Product {
+    // whether transitions must cover all characters, such that
+    // tuples of only null are considered
+    final boolean complete;
+    // whether states may be created from which no stop state can be
+    // reached, which must then be removed
+    final boolean prune;
+    Product(boolean complete, boolean prune) {
+      this.complete = complete;
+      this.prune = prune;
+    }
+    // false if no state is needed for the tuple, count is the number
+    // of states which are not null
+    abstract boolean alive(DfaState[] tuple, int count);
+    // a state of one operand which behaves exactly like the tuple, or
+    // null
+    DfaState single(DfaState[] tuple, int count) { return null; }
+    // whether the state of the tuple shall have an action
+    abstract boolean accepts(DfaState[] tuple);
+    // whether operand i contributes actions and subinfos
+    abstract boolean contributes(int i);
+    // the action used, if accepts() but no operand has an action
+    FaAction fixedAction() { return null; }
+  }
+
+  private static final Product UNION = new Product(false, false) {
+      @Override
+      boolean alive(DfaState[] tuple, int count) { return count>0; }
+      @Override
+      DfaState single(DfaState[] tuple, int count) {
+	// only one automaton gets here, so we continue in its states
+	if( count!=1 ) return null;
+	for(DfaState s : tuple) if( s!=null ) return s;
+	return null;
+      }
+      @Override
+      boolean accepts(DfaState[] tuple) { return true; }
+      @Override
+      boolean contributes(int i) { return true; }
+    };
+
+  private static final Product INTERSECT = new Product(false, true) {
+      @Override
+      boolean alive(DfaState[] tuple, int count) {
+	return count==tuple.length;
+      }
+      @Override
+      boolean accepts(DfaState[] tuple) {
+	for(DfaState s : tuple) if( s.getAction()==null ) return false;
+	return true;
+      }
+      @Override
+      boolean contributes(int i) { return true; }
+    };
+
+  private static final Product MINUS = new Product(false, true) {
+      @Override
+      boolean alive(DfaState[] tuple, int count) { return tuple[0]!=null; }
+      @Override
+      DfaState single(DfaState[] tuple, int count) {
+	return tuple[1]==null ? tuple[0] : null;
+      }
+      @Override
+      boolean accepts(DfaState[] tuple) {
+	return tuple[1].getAction()==null;
+      }
+      @Override
+      boolean contributes(int i) { return i==0; }
+    };
+  /**********************************************************************/
+  private static Dfa product(DfaState[] starts, Product rule,
+			     DfaRun.FailedMatchBehaviour fmb,
+			     FaAction eofAction)
+    throws CompileDfaException
+  {
+    int k = starts.length;
+
+    // maps tuples of states of the given automata to their state in
+    // the product
+    Map<List<DfaState>,DfaState> known = new HashMap<>();
+    LinkedList<ProductTask> stack = new LinkedList<>();
+    StringBuilder clashes = new StringBuilder();
+    Set<FaAction> actions = new PlainSet<>(3);
+
+    ProductTask startTask = new ProductTask(null, '1', '0', starts);
+    DfaState start = productState(rule, startTask, actions, clashes);
+    startTask.state = start;
+    known.put(Arrays.asList(starts), start);
+    stack.add(startTask);
+
+    Intervals<DfaState> ivals = new Intervals<>();
+    Map<List<Object>,CharTrans<DfaState>> pool = new HashMap<>();
+    int[] cuts = new int[16];
+    while( !stack.isEmpty() ) {
+      ProductTask task = stack.removeLast();
+      DfaState[] tuple = task.tuple;
+
+      // all borders of the transitions of the states in the tuple cut
+      // the character range into intervals, each of which has one
+      // tuple of successor states
+      int n = 0;
+      if( rule.complete ) {
+	cuts[n++] = Character.MIN_VALUE;
+	cuts[n++] = Character.MAX_VALUE+1;
+      }
+      for(DfaState s : tuple) {
+	if( s==null ) continue;
+	CharTrans<DfaState> t = s.getTrans();
+	for(int j=0; j<t.size(); j++) {
+	  if( n+2>cuts.length ) cuts = Arrays.copyOf(cuts, 2*cuts.length);
+	  cuts[n++] = t.getFirstAt(j);
+	  cuts[n++] = t.getLastAt(j)+1;
+	}
+      }
+      Arrays.sort(cuts, 0, n);
+
+      ivals.reset();
+      for(int i=0; i+1<n; i++) {
+	if( cuts[i]==cuts[i+1] ) continue;
+	char first = (char)cuts[i];
+	char last = (char)(cuts[i+1]-1);
+	DfaState[] next = new DfaState[k];
+	int count = 0;
+	for(int j=0; j<k; j++) {
+	  if( tuple[j]==null ) continue;
+	  next[j] = tuple[j].follow(first);
+	  if( next[j]!=null ) count += 1;
+	}
+	if( !rule.alive(next, count) ) continue;
+
+	DfaState dst = rule.single(next, count);
+	if( dst==null ) {
+	  List<DfaState> key = Arrays.asList(next);
+	  dst = known.get(key);
+	  if( dst==null ) {
+	    ProductTask t = new ProductTask(task, first, last, next);
+	    dst = productState(rule, t, actions, clashes);
+	    t.state = dst;
+	    known.put(key, dst);
+	    stack.add(t);
+	  }
+	}
+	ivals.overwrite(first, last, dst);
+      }
+      CharTrans<?> model = tableModel(tuple);
+      if( model==null ) {
+	task.state.setTrans(ivals.toCharTrans(1.0, pool));
+      } else {
+	task.state.setTrans(ivals.toCharTrans(model, pool));
+      }
+    }
+    if( clashes.length()>0 ) {
+      throw new CompileDfaException(clashes.toString());
+    }
+    if( rule.prune ) start = prune(start, known.values());
+    return new Dfa(start, fmb, eofAction);
+  }
+  // the transition table of the tuple whose kind trades the most
+  // memory for speed, to be used as the model for the table of the
+  // product state, or null if no state of the tuple has more than
+  // one range
+  private static CharTrans<?> tableModel(DfaState[] tuple) {
+    CharTrans<?> model = null;
+    int best = 0;
+    for(DfaState s : tuple) {
+      if( s==null ) continue;
+      CharTrans<?> t = s.getTrans();
+      int rank = 0;
+      if( t instanceof TableCharTrans ) rank = 3;
+      else if( t instanceof HybridCharTrans ) rank = 2;
+      else if( t instanceof ArrayCharTrans ) rank = 1;
+      if( rank>best ) {
+	best = rank;
+	model = t;
+      }
+    }
+    return model;
+  }
+  private static DfaState productState(Product rule, ProductTask task,
+				       Set<FaAction> actions,
+				       StringBuilder clashes) {
+    actions.clear();
+    FaAction a = null;
+    boolean accepts = rule.accepts(task.tuple);
+    Set<DfaState> states = new PlainSet<>(task.tuple.length);
+    for(int i=0; i<task.tuple.length; i++) {
+      DfaState s = task.tuple[i];
+      if( s==null || !rule.contributes(i) ) continue;
+      states.add(s);
+      if( accepts && s.getAction()!=null ) {
+	a = Nfa.mergeInto(actions, s.getAction());
+      }
+    }
+    if( accepts && a==null ) a = rule.fixedAction();
+    if( actions.size()>1 ) {
+      clashes.append("clashing actions ").append(actions)
+	.append(" for path `").append(task.path()).append("'\n");
+    }
+    DfaState result = new DfaState(a);
+    result.mergeSubinfos(states);
+    return result;
+  }
+  /**********************************************************************/
+  // removes the transitions to those of the created states from which
+  // no stop state can be reached. States of the operands, which the
+  // product shares, are known to reach a stop state.
+  private static DfaState prune(DfaState start, Collection<DfaState> created) {
+    Map<DfaState,List<DfaState>> parents =
+      new IdentityHashMap<DfaState,List<DfaState>>();
+    for(DfaState s : created) parents.put(s, new ArrayList<DfaState>(2));
+
+    LinkedList<DfaState> work = new LinkedList<DfaState>();
+    Set<DfaState> live = 
+      Collections.newSetFromMap(new IdentityHashMap<DfaState,Boolean>());
+    for(DfaState s : created) {
+      boolean isLive = s.getAction()!=null;
+      CharTrans<DfaState> t = s.getTrans();
+      for(int i=0; i<t.size(); i++) {
+	List<DfaState> p = parents.get(t.getAt(i));
+	if( p==null ) isLive = true;
+	else p.add(s);
+      }
+      if( isLive && live.add(s) ) work.add(s);
+    }
+    while( !work.isEmpty() ) {
+      for(DfaState p : parents.get(work.removeFirst())) {
+	if( live.add(p) ) work.add(p);
+      }
+    }
+    if( !live.contains(start) ) return new DfaState(null);
+
+    Intervals<DfaState> ivals = new Intervals<>();
+    Map<List<Object>,CharTrans<DfaState>> pool = new HashMap<>();
+    for(DfaState s : live) {
+      CharTrans<DfaState> t = s.getTrans();
+      boolean dead = false;
+      for(int i=0; i<t.size() && !dead; i++) {
+	DfaState child = t.getAt(i);
+	dead = parents.containsKey(child) && !live.contains(child);
+      }
+      if( !dead ) continue;
+      ivals.reset();
+      for(int i=0; i<t.size(); i++) {
+	DfaState child = t.getAt(i);
+	if( parents.containsKey(child) && !live.contains(child) ) continue;
+	ivals.overwrite(t.getFirstAt(i), t.getLastAt(i), child);
+      }
+      s.setTrans(ivals.toCharTrans(t, pool));
+    }
+    return start;
+  }
+  // a state of the product, created from a tuple of states of the
+  // given automata
+  private static final class ProductTask {
+    final ProductTask parent;
+    final char first;
+    final char last;
+    final DfaState[] tuple;
+    DfaState state;
+    ProductTask(ProductTask parent, char first, char last,
+		DfaState[] tuple) {
+      this.parent = parent;
+      this.first = first;
+      this.last = last;
+      this.tuple = tuple;
+    }
+    // the character ranges leading from the start to this state
+    String path() {
+      if( parent==null ) return "";
+      StringBuilder sb = new StringBuilder(parent.path());
+      Misc.printable(sb, first);
+      if( first!=last ) {
+	sb.append('-');
+	Misc.printable(sb, last);
+      }
+      return sb.toString();
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns a copy of this automaton with transition tables chosen
+   * according to how often each state was visited in the
+   * <code>profile</code>. A state with several transitions is either
+   * stored as a binary searched array of character ranges or as a
+   * table indexed directly by the character. The table is faster, but
+   * may need much more memory. {@link
+   * Nfa#setMemoryForSpeedTradeFactor
+   * Nfa.setMemoryForSpeedTradeFactor()} makes this choice for all
+   * states alike, while this method spends memory only on states
+   * which are hot in the profile.</p>
+   *
+   * <p>States are considered by the number of visits per additional
+   * byte needed for their table, best first, until the
+   * <code>memoryBudgetBytes</code> are used up. States not visited at
+   * all and states not fitting into the budget keep the kind of
+   * transition table they have, like in {@link #compact}. The
+   * estimates are those of {@link monq.stuff.Sizeof}.</p>
+   *
+   * @param profile must have been created for this automaton
+   *
+   * @param memoryBudgetBytes is the additional memory, beyond that of
+   * the compact arrays, which may be spent on tables
+   *
+   * @throws IllegalArgumentException if the profile was created for
+   * another automaton
+   */
+  public Dfa optimize(DfaProfile profile, long memoryBudgetBytes) {
+    if( profile.getDfa()!=this ) {
+      throw new IllegalArgumentException("profile was created for "
+					 +"another automaton");
+    }
+    Map<DfaState,Integer> number = new IdentityHashMap<DfaState,Integer>();
+    List<DfaState> states = numberStates(startState, number);
+    int n = states.size();
+
+    // only states with a table larger than the array are candidates
+    final long[] visits = new long[n];
+    final long[] extra = new long[n];
+    List<Integer> candidates = new ArrayList<Integer>();
+    for(int i=0; i<n; i++) {
+      visits[i] = profile.getVisits(states.get(i));
+      CharTrans<DfaState> trans = states.get(i).getTrans();
+      int L = trans.size();
+      if( L<2 ) continue;
+      extra[i] = TableCharTrans.estimateSize(trans.getLastAt(L-1)
+					     -trans.getFirstAt(0)+1)
+	- ArrayCharTrans.estimateSize(L);
+      if( visits[i]>0 && extra[i]>0 ) candidates.add(i);
+    }
+    Collections.sort(candidates, new Comparator<Integer>() {
+	@Override
+	public int compare(Integer a, Integer b) {
+	  // visits[a]/extra[a] > visits[b]/extra[b] comes first
+	  double va = (double)visits[a]/extra[a];
+	  double vb = (double)visits[b]/extra[b];
+	  return Double.compare(vb, va);
+	}
+      });
+    double[] factor = new double[n];
+    Arrays.fill(factor, Double.NaN);
+    long budget = memoryBudgetBytes;
+    for(int i : candidates) {
+      if( extra[i]>budget ) continue;
+      factor[i] = Double.POSITIVE_INFINITY;
+      budget -= extra[i];
+    }
+
+    // hot states first, the sort is stable and keeps the others in
+    // breadth first order
+    List<Integer> order = new ArrayList<Integer>(n);
+    for(int i=0; i<n; i++) order.add(i);
+    Collections.sort(order, new Comparator<Integer>() {
+	@Override
+	public int compare(Integer a, Integer b) {
+	  return Long.compare(visits[b], visits[a]);
+	}
+      });
+    return copy(states, order, factor);
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns a copy of this automaton with all states allocated
+   * anew in breadth first order from the start state, keeping the
+   * kind of each transition table. A <code>Dfa</code> fresh from
+   * {@link Nfa#compile(DfaRun.FailedMatchBehaviour,FaAction)
+   * Nfa.compile()} has its states spread over the heap in the order
+   * of the subset construction, intermixed with the garbage of the
+   * compilation. In the copy, the states near the start state, which
+   * are used for every match attempt, are allocated next to each
+   * other, and so are their transition tables, which puts them into
+   * fewer cache lines and pages.</p>
+   *
+   * <p>Whether the layout survives garbage collection depends on the
+   * collector. Compacting old generation collections keep the
+   * relative order of objects, so it is best to compact an automaton
+   * which is used for a long time once after it was built. {@link
+   * #optimize optimize()} lays out the states in the same way, but
+   * with the most frequently visited states first.</p>
+   */
+  public Dfa compact() {
+    Map<DfaState,Integer> number = new IdentityHashMap<DfaState,Integer>();
+    List<DfaState> states = numberStates(startState, number);
+    int n = states.size();
+    List<Integer> order = new ArrayList<Integer>(n);
+    for(int i=0; i<n; i++) order.add(i);
+    return copy(states, order, null);
+  }
+  /**********************************************************************/
+  // copies the states, numbered as by numberStates(), allocating them
+  // in the given order first and then their transition tables in the
+  // same order. Transition tables are created with the given factor
+  // for each state or, if factor is null or the state's factor is
+  // NaN, of the same kind as before.
+  private Dfa copy(List<DfaState> states, List<Integer> order,
+		   double[] factor) {
+    Map<DfaState,DfaState> copies = new IdentityHashMap<DfaState,DfaState>();
+    for(int i : order) {
+      DfaState s = states.get(i);
+      copies.put(s, new DfaState(s.getAction(), s.getSubinfos()));
+    }
+    Intervals<DfaState> ivals = new Intervals<DfaState>();
+    Map<List<Object>,CharTrans<DfaState>> pool =
+      new HashMap<List<Object>,CharTrans<DfaState>>();
+    for(int i : order) {
+      CharTrans<DfaState> trans = states.get(i).getTrans();
+      int L = trans.size();
+      if( L==0 ) continue;
+      ivals.reset();
+      for(int j=0; j<L; j++) {
+	ivals.overwrite(trans.getFirstAt(j), trans.getLastAt(j),
+			copies.get(trans.getAt(j)));
+      }
+      CharTrans<DfaState> t = factor==null || Double.isNaN(factor[i])
+	? ivals.toCharTrans(trans, pool) : ivals.toCharTrans(factor[i], pool);
+      copies.get(states.get(i)).setTrans(t);
+    }
+    Dfa result = new Dfa(copies.get(startState), fmb, eofAction);
+    result.matchMax = matchMax;
+    return result;
+  }
+  /**********************************************************************/
+  /**
+   * <p>merges equivalent states of a freshly compiled automaton,
+   * working from the leaves towards the start. The transitions of a
+   * state are first redirected to the merged children. Then the
+   * transition table is replaced by an identical one seen before, if
+   * any. Finally the state is replaced by one seen before with the
+   * same action, subinfos and transition table. This shares the
+   * tails of dictionary entries, which the subset construction
+   * creates separately for each entry. States within loops are only
+   * merged where their children were merged before.</p>
+   *
+   * <p>The states reachable from <code>start</code> are changed, so
+   * they must not yet be used by anyone else.</p>
+   *
+   * @return the state which replaces <code>start</code>
+   */
+  static DfaState intern(DfaState start) {
+    Map<DfaState,DfaState> merged = new IdentityHashMap<DfaState,DfaState>();
+    Map<List<Object>,DfaState> register = new HashMap<List<Object>,DfaState>();
+    Map<List<Object>,CharTrans<DfaState>> pool =
+      new HashMap<List<Object>,CharTrans<DfaState>>();
+    Intervals<DfaState> ivals = new Intervals<DfaState>();
+
+    // depth first, keeping the path and the next child to visit of
+    // each state on the path
+    Set<DfaState> seen = 
+      Collections.newSetFromMap(new IdentityHashMap<DfaState,Boolean>());
+    List<DfaState> path = new ArrayList<DfaState>();
+    int[] next = new int[16];
+    seen.add(start);
+    path.add(start);
+    while( !path.isEmpty() ) {
+      int top = path.size()-1;
+      DfaState s = path.get(top);
+      CharTrans<DfaState> trans = s.getTrans();
+      if( next[top]<trans.size() ) {
+	DfaState child = trans.getAt(next[top]++);
+	if( seen.add(child) ) {
+	  if( top+1==next.length ) next = Arrays.copyOf(next, 2*next.length);
+	  next[top+1] = 0;
+	  path.add(child);
+	}
+	continue;
+      }
+      path.remove(top);
+
+      int L = trans.size();
+      if( L>0 ) {
+	ivals.reset();
+	for(int j=0; j<L; j++) {
+	  DfaState child = trans.getAt(j);
+	  // a child still on the path is in a loop with s
+	  DfaState m = merged.get(child);
+	  ivals.overwrite(trans.getFirstAt(j), trans.getLastAt(j),
+			  m==null ? child : m);
+	}
+	s.setTrans(ivals.toCharTrans(trans, pool));
+      }
+
+      FaAction a = s.getAction();
+      List<Object> key = Arrays.<Object>asList(s.getTrans(), s.getSubinfos(),
+					       System.identityHashCode(a));
+      DfaState other = register.get(key);
+      if( other==null ) {
+	register.put(key, s);
+	other = s;
+      } else if( other.getAction()!=a ) {
+	other = s;
+      }
+      merged.put(s, other);
+    }
+    return merged.get(start);
+  }
+  /**********************************************************************/
+  // lists all states in the order in which they are found from the
+  // start state and records their position in number
+  private static List<DfaState> numberStates(DfaState start,
+					     Map<DfaState,Integer> number) {
+    List<DfaState> states = new ArrayList<DfaState>();
+    number.put(start, 0);
+    states.add(start);
+    for(int i=0; i<states.size(); i++) {
+      CharTrans<DfaState> trans = states.get(i).getTrans();
+      for(int j=0, L=trans.size(); j<L; j++) {
+	DfaState child = trans.getAt(j);
+	if( number.containsKey(child) ) continue;
+	number.put(child, states.size());
+	states.add(child);
+      }
+    }
+    return states;
+  }
+  /**********************************************************************/
+  // tags for the kind of transition table in the serialized form
+  private static final byte ARRAY = 0;
+  private static final byte HYBRID = 1;
+  private static final byte TABLE = 2;
+
+  /**
+   * <p>writes the states one after another, numbered in the order in
+   * which they are found from the start state. Transitions refer to
+   * the number of their target, and the kind of each transition
+   * table is recorded, so that it is restored as it was. The default
+   * serialization would follow the transitions recursively and run
+   * out of stack for large automata.</p>
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    writeStates(out, startState);
+  }
+  /**********************************************************************/
+  private void readObject(ObjectInputStream in) 
+    throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    startState = readStates(in);
+  }
+  /**********************************************************************/
+  // writes the states reachable from start as described for
+  // writeObject(), also used by ByteDfa
+  static void writeStates(ObjectOutputStream out, DfaState start)
+    throws IOException
+  {
+    Map<DfaState,Integer> number = new IdentityHashMap<DfaState,Integer>();
+    List<DfaState> states = numberStates(start, number);
+
+    out.writeInt(states.size());
+    for(DfaState s : states) {
+      out.writeObject(s.getAction());
+      out.writeObject(s.getSubinfos());
+    }
+    for(DfaState s : states) {
+      CharTrans<DfaState> trans = s.getTrans();
+      int L = trans.size();
+      out.writeInt(L);
+      if( L==0 ) continue;
+      out.writeByte(trans instanceof TableCharTrans ? TABLE
+		    : trans instanceof HybridCharTrans ? HYBRID : ARRAY);
+      for(int j=0; j<L; j++) {
+	out.writeChar(trans.getFirstAt(j));
+	out.writeChar(trans.getLastAt(j));
+	out.writeInt(number.get(trans.getAt(j)));
+      }
+    }
+  }
+  // reads the states written by writeStates() and returns the start
+  // state
+  static DfaState readStates(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    int n = in.readInt();
+    DfaState[] states = new DfaState[n];
+    for(int i=0; i<n; i++) {
+      FaAction a = (FaAction)in.readObject();
+      @SuppressWarnings("unchecked")
+      Map<FaAction,FaSubinfo[]> subinfos = 
+	(Map<FaAction,FaSubinfo[]>)in.readObject();
+      states[i] = new DfaState(a, subinfos);
+    }
+    Intervals<DfaState> ivals = new Intervals<DfaState>();
+    Map<List<Object>,CharTrans<DfaState>> pool =
+      new HashMap<List<Object>,CharTrans<DfaState>>();
+    for(int i=0; i<n; i++) {
+      int L = in.readInt();
+      if( L==0 ) continue;
+      Class<?> kind;
+      switch( in.readByte() ) {
+      case TABLE: kind = TableCharTrans.class; break;
+      case HYBRID: kind = HybridCharTrans.class; break;
+      case ARRAY: kind = ArrayCharTrans.class; break;
+      default: throw new StreamCorruptedException("unknown table kind");
+      }
+      ivals.reset();
+      for(int j=0; j<L; j++) {
+	char first = in.readChar();
+	char last = in.readChar();
+	ivals.overwrite(first, last, states[in.readInt()]);
+      }
+      states[i].setTrans(ivals.toCharTrans(kind, pool));
+    }
+    return states[0];
+  }
+  /**********************************************************************/
   /**
    * prints a graph representation of the Dfa in the
    * <code>graphviz</code> format.
@@ -0,0 +1,108 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>counts how often each state of a {@link Dfa} is visited while
+ * matching sample input. The counts are used by {@link Dfa#optimize
+ * Dfa.optimize()} to spend memory on fast transition tables only
+ * where the input actually goes.</p>
+ *
+ * <p>The sample is scanned like a {@link DfaRun} would do, but no
+ * actions are called. Where no match is found, one character is
+ * skipped. Use one object per thread, it is not synchronized.</p>
+ *
+ * <pre>
+ * DfaProfile profile = new DfaProfile(dfa).sample(typicalText);
+ * dfa = dfa.optimize(profile, 1&lt;&lt;20);
+ * </pre>
+ */
+public class DfaProfile {
+  private final Dfa dfa;
+  private final Map<DfaState,long[]> visits =
+    new IdentityHashMap<DfaState,long[]>();
+  private long total = 0;
+
+  private final SubmatchData counter = new SubmatchData() {
+      @Override
+      void add(DfaState s) {
+	long[] count = visits.get(s);
+	if( count==null ) visits.put(s, count = new long[1]);
+	count[0] += 1;
+	total += 1;
+      }
+    };
+  /**********************************************************************/
+  /**
+   * <p>creates an empty profile for the given automaton.</p>
+   */
+  public DfaProfile(Dfa dfa) {
+    this.dfa = dfa;
+  }
+  /**********************************************************************/
+  /**
+   * <p>scans <code>in</code> up to its end and adds the state visits
+   * to the profile.</p>
+   *
+   * @return <code>this</code>
+   */
+  public DfaProfile sample(CharSource in) throws IOException {
+    StringBuilder out = new StringBuilder();
+    while( true ) {
+      out.setLength(0);
+      FaAction a = dfa.match(in, out, counter);
+      if( a==DfaRun.EOF ) break;
+      if( a==null || out.length()==0 ) {
+	if( in.read()<0 ) break;
+      }
+    }
+    return this;
+  }
+  /**********************************************************************/
+  /**
+   * <p>convenience wrapper around {@link #sample(CharSource)}.</p>
+   */
+  public DfaProfile sample(CharSequence s) {
+    try {
+      return sample(new CharSequenceCharSource(s));
+    } catch( IOException e ) {
+      throw new Error("impossible", e);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns the number of state visits recorded so far.</p>
+   */
+  public long getVisits() { return total; }
+  /**********************************************************************/
+  /**
+   * <p>returns the number of distinct states visited so far.</p>
+   */
+  public int getStatesVisited() { return visits.size(); }
+  /**********************************************************************/
+  Dfa getDfa() { return dfa; }
+
+  long getVisits(DfaState s) {
+    long[] count = visits.get(s);
+    return count==null ? 0 : count[0];
+  }
+  /**********************************************************************/
+}
@@ -49,6 +49,10 @@ import java.io.PrintStream;
  * <code>false</code> again to allow the <code>read()</code> method to
  * finally ship the filtered data.</p>
  *
+ * <p>Instead of pulling input from a {@link CharSource}, input may
+ * also be pushed piecewise into a <code>DfaRun</code> with {@link
+ * #feed feed()} and {@link #finish finish()}.</p>
+ *
  * <p>A <code>Dfa</code> that matches the empty string should not be
  * used in a <code>DfaRun</code>, because this is usually a bug in the
  * regular expressions used. As soon as only the empty string
@@ -87,16 +91,16 @@ public class DfaRun extends EmptyCharSource implements Serializable {
    * no match can be found.
    */
   public static final class FailedMatchBehaviour implements Serializable {
-    static FailedMatchBehaviour[] all = new FailedMatchBehaviour[3];
-    static {
-      all[0] = new FailedMatchBehaviour(0);
-      all[1] = new FailedMatchBehaviour(1);
-      all[2] = new FailedMatchBehaviour(2);
-    }
     int i;
     FailedMatchBehaviour(int i) {this.i = i;}
+    // DfaRun compares with ==, so deserialization must deliver the
+    // constants of DfaRun
     private Object readResolve() {
-      return all[i];
+      switch( i ) {
+      case 0: return UNMATCHED_COPY;
+      case 1: return UNMATCHED_DROP;
+      default: return UNMATCHED_THROW;
+      }
     }
   }
 
@@ -124,7 +128,7 @@ public class DfaRun extends EmptyCharSource implements Serializable {
    * @see #setOnFailedMatch
    */
   public static final FailedMatchBehaviour UNMATCHED_THROW =
-    new FailedMatchBehaviour(1);
+    new FailedMatchBehaviour(2);
 
   /**
    * returned by {@link #next next()} on EOF.
@@ -211,6 +215,35 @@ public class DfaRun extends EmptyCharSource implements Serializable {
   // should a callback call submatches().
   private SubmatchData smd = new SubmatchData();
   private FaAction action;
+
+  // informed about the work done, if not null. The counting source
+  // wraps the input while the automaton runs to find out how many
+  // characters it reads.
+  private DfaRunMonitor monitor = null;
+  private CountingSource counting = null;
+
+  // State of push mode, see feed(). The match under way when the
+  // input fed so far ran dry is described by pushCur, pushStart,
+  // pushLast, pushLastPos and pushRest, which correspond to the local
+  // variables of Dfa.match(). Filtered data not yet shipped is kept
+  // in pushOut.
+  private PushSource pushIn = null;
+  private StringBuilder pushOut;
+  private boolean scanning = false;
+  private boolean resumed;
+  private DfaState pushCur;
+  private DfaState pushLast;
+  private int pushStart;
+  private int pushLastPos;
+  private long pushRest;
+  // number of unmatched characters skipped since the last match or
+  // -1 if we are not searching for the next match
+  private int skipped = -1;
+
+  // returned by pushNext() if the input fed so far is exhausted
+  private static final FaAction STARVED = new AbstractFaAction() {
+      public void invoke(StringBuilder sb, int start, DfaRun r) {}
+    };
   /**********************************************************************/
   /**
    * <p>creates a <code>DfaRun</code> object to operate the given {@link
@@ -300,6 +333,23 @@ public class DfaRun extends EmptyCharSource implements Serializable {
     this.dfa = dfa; 
     this.onFailedMatch = dfa.fmb;
   }
+  /**********************************************************************/
+  /**
+   * <p>sets a monitor to be informed about characters scanned and
+   * pushed back, unmatched characters and actions invoked, or removes
+   * it if <code>monitor</code> is <code>null</code>. Without a
+   * monitor, which is the default, none of this is measured.</p>
+   *
+   * @see DfaRunStatistics
+   */
+  public void setMonitor(DfaRunMonitor monitor) {
+    this.monitor = monitor;
+    if( monitor!=null && counting==null ) counting = new CountingSource();
+  }
+  /**
+   * returns the monitor set with {@link #setMonitor setMonitor()}.
+   */
+  public DfaRunMonitor getMonitor() { return monitor; }
 
   /**
    * returns the {@link Dfa} operated by <code>this</code>.
@@ -320,6 +370,13 @@ public class DfaRun extends EmptyCharSource implements Serializable {
   public void setOnFailedMatch(FailedMatchBehaviour b) {
     onFailedMatch = b;
   }
+  /**
+   * <p>returns the current way to handle unmatched input, see {@link
+   * #setOnFailedMatch setOnFailedMatch()}.</p>
+   */
+  public FailedMatchBehaviour getOnFailedMatch() {
+    return onFailedMatch;
+  }
 
   /**
    * <p>returns the currently active behaviour for unmatched
@@ -428,6 +485,18 @@ public class DfaRun extends EmptyCharSource implements Serializable {
     return readTs;
   }
   /**********************************************************************/
+  /**
+   * <p>runs the given match, which was found by other means, once
+   * more through the <code>Dfa</code> such that a subsequent call to
+   * {@link #submatches submatches()} works. Used by {@link
+   * ByteDfaRun} which finds matches on the byte level.</p>
+   */
+  void replay(CharSequence match, FaAction a) throws java.io.IOException {
+    dfa.match(new CharSequenceCharSource(match),
+	      new StringBuilder(match.length()), smd);
+    action = a;
+  }
+  /**********************************************************************/
   /**
    * <p>finds the next match in the current input, appends it to
    * <code>out</code> and returns the {@link FaAction} associated with
@@ -490,7 +559,7 @@ public class DfaRun extends EmptyCharSource implements Serializable {
     throws java.io.IOException 
   {
     matchStart = out.length();
-    FaAction a = dfa.match(in, out, smd);
+    FaAction a = match(out);
 
     if( a==null ) {
       // There was no match, so we have to search for the first
@@ -501,15 +570,19 @@ public class DfaRun extends EmptyCharSource implements Serializable {
 	do {
 	  out.append((char)(in.read()));
 	  unmatched += 1;
-	  a = dfa.match(in, out, smd);
+	  a = match(out);
 	} while( a==null && unmatched<maxCopy );
 	matchStart += unmatched;
+	if( monitor!=null ) monitor.unmatched(unmatched, true);
 
       } else if( onFailedMatch==UNMATCHED_DROP ) {
+	int unmatched = 0;
 	do {
 	  in.read();
-	  a = dfa.match(in, out, smd);
+	  unmatched += 1;
+	  a = match(out);
 	} while( a==null );
+	if( monitor!=null ) monitor.unmatched(unmatched, false);
 
       } else {
 	// everything else is a failure
@@ -528,6 +601,20 @@ public class DfaRun extends EmptyCharSource implements Serializable {
     return a;
   }
   /**********************************************************************/
+  // runs the automaton once on the input, counting what it reads if
+  // a monitor is set
+  private FaAction match(StringBuilder out) throws java.io.IOException {
+    if( monitor==null ) return dfa.match(in, out, smd);
+    counting.in = in;
+    counting.read = counting.pushedBack = 0;
+    try {
+      return dfa.match(counting, out, smd);
+    } finally {
+      counting.in = null;
+      monitor.scanned(counting.read, counting.pushedBack);
+    }
+  }
+  /**********************************************************************/
   /**
    * fetch a bit of lookahead for use in messages for
    * exceptions. The lookahead is pushed back into the input
@@ -577,6 +664,16 @@ public class DfaRun extends EmptyCharSource implements Serializable {
   private boolean crunch(StringBuilder out) throws java.io.IOException {
     int l = out.length();
     action = next(out);
+    return apply(out, l);
+  }
+  /**
+   * applies the {@link #action} just found by {@link #next} or
+   * {@link #pushNext}. Parameter <code>l</code> is the length of
+   * <code>out</code> before the action was searched.
+   */
+  private boolean apply(StringBuilder out, int l) 
+    throws java.io.IOException 
+  {
     if( action==null ) return true;
 
     if( action==EOF ) {
@@ -585,7 +682,15 @@ public class DfaRun extends EmptyCharSource implements Serializable {
       return l<out.length();
     }
     try {
-      action.invoke(out, matchStart, this);
+      if( monitor==null ) {
+	action.invoke(out, matchStart, this);
+      } else {
+	FaAction a = action;
+	int length = out.length()-matchStart;
+	long start = System.nanoTime();
+	a.invoke(out, matchStart, this);
+	monitor.invoked(a, length, System.nanoTime()-start);
+      }
     } catch( CallbackException e ) {
       String msg;
       if( matchStart<=out.length() ) {
@@ -769,5 +874,239 @@ public class DfaRun extends EmptyCharSource implements Serializable {
       if( !collect ) readBuf.setLength(0);
     }
   }
+  /**********************************************************************/
+  /**
+   * <p>filters <code>len</code> characters of <code>cbuf</code>
+   * starting at <code>off</code> as the next piece of input and
+   * appends the filtered data to <code>out</code>. This is push mode
+   * operation, meant for input that arrives piecewise, for example
+   * from non-blocking I/O, without dedicating a thread to wait for
+   * it. Call {@link #finish finish()} after the last piece.</p>
+   *
+   * <p>The method never blocks. Whenever a match runs into the end of
+   * the input fed so far, the state of the automaton is kept and the
+   * match is continued with the next piece of input. Characters
+   * already read are not read again, except those read beyond the
+   * end of the longest match, which are read again for the next
+   * match just like in pull mode. All filtered data is shipped to
+   * <code>out</code> except the text of the match under way and
+   * data held back by {@link #collect}.</p>
+   *
+   * <p>The first call to this method replaces the input source with
+   * an internal one, as if {@link #setIn setIn()} were called. Until
+   * <code>finish()</code> is called, the <code>read()</code> and
+   * <code>filter()</code> methods must not be used and callbacks
+   * must not read input themselves or call <code>setIn()</code>. They
+   * may, however, push back text as usual.</p>
+   *
+   * @throws NomatchException if <code>UNMATCHED_THROW</code> is
+   * active and non-matching input is found.
+   * @throws CallbackException if a callback throws this exception.
+   */
+  public void feed(char[] cbuf, int off, int len, Appendable out) 
+    throws java.io.IOException
+  {
+    if( pushIn==null || in!=pushIn ) {
+      pushIn = new PushSource();
+      pushOut = new StringBuilder(len+len/4+16);
+      scanning = false;
+      skipped = -1;
+      pushStart = 0;
+      setIn(pushIn);
+    }
+    pushIn.data.append(cbuf, off, len);
+    push(out);
+    pushIn.compact();
+  }
+  /**
+   * <p>signals the end of input after a series of calls to {@link
+   * #feed feed()}, finishes filtering, including the action for EOF,
+   * and appends the rest of the filtered data to <code>out</code>.
+   * Afterwards the next call to <code>feed()</code> starts a fresh
+   * input.</p>
+   *
+   * @throws java.io.EOFException if {@link #collect} is still
+   * <code>true</code> after EOF.
+   */
+  public void finish(Appendable out) throws java.io.IOException {
+    if( pushIn==null || in!=pushIn ) {
+      feed(new char[0], 0, 0, out);
+    }
+    pushIn.eof = true;
+    push(out);
+    pushIn = null;
+    if( collect ) throw new java.io.EOFException(ECOLLECT);
+    out.append(pushOut);
+    pushOut = null;
+  }
+  /**********************************************************************/
+  private void push(Appendable out) throws java.io.IOException {
+    while( true ) {
+      int l = pushOut.length();
+      action = pushNext(pushOut);
+      if( action==STARVED ) break;
+      FaAction a = action;
+      apply(pushOut, l);
+      if( a==EOF ) return;
+    }
+
+    // ship everything in front of the match under way
+    if( collect || pushStart==0 ) return;
+    out.append(pushOut, 0, pushStart);
+    pushOut.delete(0, pushStart);
+    pushLastPos -= pushStart;
+    pushStart = 0;
+  }
+  /**********************************************************************/
+  /**
+   * <p>does the same as {@link #next next()}, but returns {@link
+   * #STARVED} if the input fed so far is not sufficient to decide
+   * about the match. In this case the next call continues where the
+   * previous one stopped.</p>
+   */
+  private FaAction pushNext(StringBuilder out) throws java.io.IOException {
+    while( true ) {
+      FaAction a = resume(out);
+      if( a==STARVED ) return a;
+      if( a!=null ) {
+	skipped = -1;
+	matchStart = pushStart;
+	if( a==EOF && dfa.eofAction!=null && eofArmed ) {
+	  eofArmed = false;
+	  return dfa.eofAction;
+	}
+	return a;
+      }
+
+      // No match. As in next(), there is at least one character
+      // available.
+      if( skipped<0 ) {
+	if( onFailedMatch!=UNMATCHED_COPY && onFailedMatch!=UNMATCHED_DROP ) {
+	  String emsg = lookahead();
+	  throw new NomatchException("no matching regular expression "+
+				     "when looking at `"+emsg+"'");
+	}
+	skipped = 0;
+      } else if( onFailedMatch==UNMATCHED_COPY && skipped>=maxCopy ) {
+	skipped = -1;
+	return null;
+      }
+      int ch = in.read();
+      if( onFailedMatch==UNMATCHED_COPY ) {
+	out.append((char)ch);
+	skipped += 1;
+      } else {
+	skipped = 1;
+      }
+      if( monitor!=null ) {
+	monitor.unmatched(1, onFailedMatch==UNMATCHED_COPY);
+      }
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>does the same as {@link Dfa#match(CharSource, StringBuilder,
+   * SubmatchData) Dfa.match()}, except that it can stop when the
+   * input fed so far runs dry and continue later.</p>
+   */
+  private FaAction resume(StringBuilder out) throws java.io.IOException {
+    DfaState current;
+    if( scanning ) {
+      current = pushCur;
+    } else {
+      scanning = true;
+      resumed = false;
+      current = dfa.getStart();
+      pushStart = pushLastPos = out.length();
+      pushLast = null;
+      pushRest = dfa.matchMax;
+      smd.reset();
+    }
+
+    while( current!=null && pushRest!=0 ) {
+      if( !resumed ) {
+	smd.add(current);
+	if( null!=current.getAction() ) {
+	  pushLast = current;
+	  pushLastPos = out.length();
+	}
+	pushRest -= 1;
+      }
+      resumed = false;
+      int ch = in.read();
+      if( ch<0 ) {
+	if( !pushIn.eof ) {
+	  pushCur = current;
+	  resumed = true;
+	  return STARVED;
+	}
+	if( out.length()==pushStart ) {
+	  scanning = false;
+	  return EOF;
+	}
+	break;
+      }
+      out.append((char)ch);
+      current = current.follow((char)ch);
+    }
+    scanning = false;
+    pushCur = null;
+
+    if( monitor!=null ) {
+      monitor.scanned(out.length()-pushStart, out.length()-pushLastPos);
+    }
+    in.pushBack(out, pushLastPos);
+    if( pushLast==null ) return null;
+    smd.size = pushLastPos-pushStart+1;
+    return pushLast.getAction();
+  }
+  /**********************************************************************/
+  // counts the characters read and pushed back by the automaton
+  private static final class CountingSource implements CharSource {
+    private CharSource in;
+    private int read;
+    private int pushedBack;
+
+    public int read() throws java.io.IOException {
+      int ch = in.read();
+      if( ch>=0 ) read += 1;
+      return ch;
+    }
+
+    public void pushBack(StringBuilder from, int startAt) {
+      pushedBack += from.length()-startAt;
+      in.pushBack(from, startAt);
+    }
+  }
+  /**********************************************************************/
+  // holds the input fed in push mode which is not yet read
+  private static final class PushSource implements CharSource {
+    private final StringBuilder data = new StringBuilder();
+    private int pos = 0;
+    private boolean eof = false;
+
+    public int read() {
+      if( pos<data.length() ) return data.charAt(pos++);
+      return -1;
+    }
+
+    public void pushBack(StringBuilder from, int startAt) {
+      int l = from.length()-startAt;
+      // normally, the characters pushed back were just read
+      boolean same = pos>=l;
+      for(int i=0; same && i<l; i++) {
+	same = data.charAt(pos-l+i)==from.charAt(startAt+i);
+      }
+      if( same ) pos -= l;
+      else data.insert(pos, from, startAt, from.length());
+      from.setLength(startAt);
+    }
+
+    void compact() {
+      if( pos==0 ) return;
+      data.delete(0, pos);
+      pos = 0;
+    }
+  }
 }
  
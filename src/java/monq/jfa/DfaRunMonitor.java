@@ -0,0 +1,57 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+/**
+ * <p>is informed by a {@link DfaRun} about the work it does, if set
+ * with {@link DfaRun#setMonitor DfaRun.setMonitor()}. Without a
+ * monitor, a <code>DfaRun</code> does not collect any of this
+ * information. {@link DfaRunStatistics} is an implementation which
+ * sums up the reports.</p>
+ *
+ * <p>The methods are called by the thread operating the
+ * <code>DfaRun</code> and should be fast, because some of them are
+ * called for every match.</p>
+ */
+public interface DfaRunMonitor {
+  /**
+   * <p>called after each attempt of the automaton to find a match.</p>
+   *
+   * @param read is the number of characters read by the automaton,
+   * which is the look ahead needed to decide about the match
+   * @param pushedBack is the number of characters read behind the
+   * longest match and pushed back into the input
+   */
+  void scanned(int read, int pushedBack);
+
+  /**
+   * <p>called for unmatched characters copied to the output or
+   * dropped, depending on {@link DfaRun#setOnFailedMatch the failed
+   * match behaviour}.</p>
+   */
+  void unmatched(int count, boolean copied);
+
+  /**
+   * <p>called after an action was invoked for a match. The action for
+   * EOF is reported too with a match of length zero.</p>
+   *
+   * @param length is the length of the match
+   * @param nanos is the time spent in {@link FaAction#invoke
+   * FaAction.invoke()}
+   */
+  void invoked(FaAction action, int length, long nanos);
+}
@@ -0,0 +1,137 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>is a {@link DfaRunMonitor} which sums up what a {@link DfaRun}
+ * reports. Use one object per <code>DfaRun</code>, it is not
+ * synchronized.</p>
+ *
+ * <pre>
+ * DfaRunStatistics stats = new DfaRunStatistics();
+ * r.setMonitor(stats);
+ * r.filter(out);
+ * System.err.println(stats);
+ * </pre>
+ */
+public class DfaRunStatistics implements DfaRunMonitor {
+  private long charsScanned;
+  private long pushedBack;
+  private long unmatchedCopied;
+  private long unmatchedDropped;
+  private int longestLookahead;
+  private long matches;
+  private long invokeNanos;
+  private final Map<FaAction,long[]> byAction = 
+    new HashMap<FaAction,long[]>();
+  /**********************************************************************/
+  public void scanned(int read, int pushedBack) {
+    charsScanned += read;
+    this.pushedBack += pushedBack;
+    if( read>longestLookahead ) longestLookahead = read;
+  }
+  /**********************************************************************/
+  public void unmatched(int count, boolean copied) {
+    if( copied ) unmatchedCopied += count;
+    else unmatchedDropped += count;
+  }
+  /**********************************************************************/
+  public void invoked(FaAction action, int length, long nanos) {
+    matches += 1;
+    invokeNanos += nanos;
+    long[] counts = byAction.get(action);
+    if( counts==null ) byAction.put(action, counts = new long[2]);
+    counts[0] += 1;
+    counts[1] += nanos;
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns the number of characters read by the automaton. A
+   * character read again after being pushed back is counted
+   * again.</p>
+   */
+  public long getCharsScanned() { return charsScanned; }
+
+  /** returns the number of characters pushed back after a match */
+  public long getPushedBack() { return pushedBack; }
+
+  /** returns the number of unmatched characters copied to the output */
+  public long getUnmatchedCopied() { return unmatchedCopied; }
+
+  /** returns the number of unmatched characters dropped */
+  public long getUnmatchedDropped() { return unmatchedDropped; }
+
+  /**
+   * <p>returns the largest number of characters the automaton had to
+   * read to decide about one match.</p>
+   */
+  public int getLongestLookahead() { return longestLookahead; }
+
+  /** returns the number of actions invoked */
+  public long getMatches() { return matches; }
+
+  /** returns the nanoseconds spent in all actions invoked */
+  public long getInvokeNanos() { return invokeNanos; }
+
+  /**
+   * <p>returns how often the given action was invoked.</p>
+   */
+  public long getMatches(FaAction action) {
+    long[] counts = byAction.get(action);
+    return counts==null ? 0 : counts[0];
+  }
+  /**
+   * <p>returns the nanoseconds spent in the given action.</p>
+   */
+  public long getInvokeNanos(FaAction action) {
+    long[] counts = byAction.get(action);
+    return counts==null ? 0 : counts[1];
+  }
+  /**
+   * <p>returns the number of invocations for each action invoked at
+   * least once.</p>
+   */
+  public Map<FaAction,Long> getMatchesByAction() {
+    Map<FaAction,Long> result = new HashMap<FaAction,Long>();
+    for(Map.Entry<FaAction,long[]> e : byAction.entrySet()) {
+      result.put(e.getKey(), e.getValue()[0]);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+  /**********************************************************************/
+  /** sets all counts back to zero */
+  public void reset() {
+    charsScanned = pushedBack = unmatchedCopied = unmatchedDropped = 0;
+    longestLookahead = 0;
+    matches = invokeNanos = 0;
+    byAction.clear();
+  }
+  /**********************************************************************/
+  public String toString() {
+    return String.format("scanned %d chars, pushed back %d, "
+			 +"unmatched copied %d, dropped %d, "
+			 +"longest lookahead %d, %d matches "
+			 +"by %d actions in %dms",
+			 charsScanned, pushedBack, unmatchedCopied,
+			 unmatchedDropped, longestLookahead, matches,
+			 byAction.size(), invokeNanos/1000000);
+  }
+}
@@ -16,6 +16,10 @@ public class DfaState implements FaState<DfaState> {
   public DfaState(FaAction a) {
     this.action = a;
   }
+  DfaState(FaAction a, Map<FaAction,FaSubinfo[]> subinfos) {
+    this.action = a;
+    this.subinfos = subinfos;
+  }
   @Override
   public boolean isImportant() {
     return getTrans().size()==0 || getAction()!=null || subinfos!=null;
@@ -0,0 +1,237 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import monq.stuff.Sizeof;
+
+/**
+ * <p>describes the size of an automaton, as returned by {@link
+ * Dfa#footprint} and {@link Nfa#footprint}. The numbers are collected
+ * in one pass over the states, without reflection. The byte counts
+ * are estimates based on the object layout of the running JVM, as
+ * reported by {@link Sizeof#instanceSize Sizeof.instanceSize()}, so
+ * they reflect compressed pointers and field packing. Actions are not
+ * counted, since they are typically shared with other automata and
+ * with the application.</p>
+ *
+ * <p>A typical use is to reject an automaton before it is put into
+ * service:</p>
+ * <pre>
+ * if( dfa.footprint().getBytes()&gt;limit ) {
+ *   throw new IllegalArgumentException("dictionary too large");
+ * }
+ * </pre>
+ */
+public class Footprint {
+  private int states = 0;
+  private int stopStates = 0;
+  private int epsStates = 0;
+  private long transitions = 0;
+  private long stateBytes = 0;
+  private long tableBytes = 0;
+  private long subinfoBytes = 0;
+  private final Map<Class<?>,long[]> tables = 
+    new LinkedHashMap<Class<?>,long[]>();
+
+  // size of an entry of the HashMap used for subinfos
+  private static final int NODE_SIZE = nodeSize();
+
+  /**********************************************************************/
+  private Footprint() {}
+  /**********************************************************************/
+  private static int nodeSize() {
+    try {
+      return Sizeof.instanceSize(Class.forName("java.util.HashMap$Node"));
+    } catch( ClassNotFoundException e ) {
+      return Sizeof.roundUp(Sizeof.MEM_OBJ_OVERHEAD+4
+			    +3*Sizeof.MEM_PTR_SIZE);
+    }
+  }
+  /**********************************************************************/
+  static <STATE extends FaState<STATE>> Footprint of(STATE start) {
+    Footprint fp = new Footprint();
+    Set<Object> seen =
+      Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+    List<STATE> work = new ArrayList<STATE>();
+    seen.add(start);
+    work.add(start);
+    while( !work.isEmpty() ) {
+      STATE s = work.remove(work.size()-1);
+      fp.addState(s);
+
+      STATE[] eps = s.getEps();
+      if( eps!=null ) {
+	for(STATE child : eps) {
+	  if( seen.add(child) ) work.add(child);
+	}
+      }
+      CharTrans<STATE> trans = s.getTrans();
+      if( trans==null ) continue;
+      int L = trans.size();
+      fp.transitions += L;
+      if( L>0 && seen.add(trans) ) fp.addTable(trans);
+      for(int i=0; i<L; i++) {
+	STATE child = trans.getAt(i);
+	if( seen.add(child) ) work.add(child);
+      }
+    }
+    return fp;
+  }
+  /**********************************************************************/
+  private void addState(FaState<?> s) {
+    states += 1;
+    if( s.getAction()!=null ) stopStates += 1;
+    stateBytes += Sizeof.instanceSize(s.getClass());
+    Object[] eps = s.getEps();
+    if( eps!=null ) {
+      epsStates += 1;
+      stateBytes += Sizeof.objectArrayMemEstimate(eps.length);
+    }
+    if( s instanceof AbstractFaState ) {
+      // the array kept for addEps()
+      stateBytes += Sizeof.objectArrayMemEstimate(1);
+    }
+
+    Map<FaAction,FaSubinfo[]> subinfos = s.getSubinfos();
+    if( subinfos==null ) return;
+    // a HashMap with its table and nodes
+    int n = subinfos.size();
+    int capacity = 16;
+    while( capacity*3/4<n ) capacity *= 2;
+    subinfoBytes += Sizeof.instanceSize(subinfos.getClass())
+      + Sizeof.objectArrayMemEstimate(capacity)
+      + n*NODE_SIZE;
+    for(FaSubinfo[] ary : subinfos.values()) {
+      subinfoBytes += Sizeof.objectArrayMemEstimate(ary.length)
+	+ ary.length*Sizeof.instanceSize(FaSubinfo.class);
+    }
+  }
+  /**********************************************************************/
+  private void addTable(CharTrans<?> t) {
+    Class<?> c = t.getClass();
+    int n = t.size();
+    long bytes = Sizeof.instanceSize(c);
+    if( t instanceof ArrayCharTrans ) {
+      bytes += Sizeof.charArrayMemEstimate(2*n)
+	+ Sizeof.objectArrayMemEstimate(n);
+      if( t instanceof HybridCharTrans ) {
+	bytes += Sizeof.objectArrayMemEstimate(HybridCharTrans.LOW);
+      }
+    } else if( t instanceof TableCharTrans ) {
+      int span = t.getLastAt(n-1)-t.getFirstAt(0)+1;
+      bytes += Sizeof.objectArrayMemEstimate(span);
+    }
+    long[] entry = tables.get(c);
+    if( entry==null ) tables.put(c, entry = new long[2]);
+    entry[0] += 1;
+    entry[1] += bytes;
+    tableBytes += bytes;
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns the number of states.</p>
+   */
+  public int getStates() { return states; }
+
+  /**
+   * <p>returns the number of states with an action.</p>
+   */
+  public int getStopStates() { return stopStates; }
+
+  /**
+   * <p>returns the number of states with epsilon transitions, which is
+   * always zero for a <code>Dfa</code>.</p>
+   */
+  public int getEpsStates() { return epsStates; }
+
+  /**
+   * <p>returns the number of character ranges over all states. A
+   * transition table shared by several states counts for each of
+   * them.</p>
+   */
+  public long getTransitions() { return transitions; }
+
+  /**
+   * <p>returns the estimated number of bytes of the whole
+   * automaton.</p>
+   */
+  public long getBytes() { return stateBytes+tableBytes+subinfoBytes; }
+
+  /**
+   * <p>returns the estimated number of bytes of the state objects,
+   * including their arrays of epsilon transitions.</p>
+   */
+  public long getStateBytes() { return stateBytes; }
+
+  /**
+   * <p>returns the estimated number of bytes of all transition
+   * tables.</p>
+   */
+  public long getTableBytes() { return tableBytes; }
+
+  /**
+   * <p>returns the estimated number of bytes of the data needed for
+   * submatches.</p>
+   */
+  public long getSubinfoBytes() { return subinfoBytes; }
+
+  /**
+   * <p>returns the number of non-empty transition tables by their
+   * implementation class. Tables shared by several states are
+   * counted once.</p>
+   */
+  public Map<Class<?>,Integer> getTables() {
+    Map<Class<?>,Integer> result = new LinkedHashMap<Class<?>,Integer>();
+    for(Map.Entry<Class<?>,long[]> e : tables.entrySet()) {
+      result.put(e.getKey(), (int)e.getValue()[0]);
+    }
+    return result;
+  }
+
+  /**
+   * <p>returns the estimated number of bytes of the transition tables
+   * implemented by class <code>c</code>.</p>
+   */
+  public long getTableBytes(Class<?> c) {
+    long[] entry = tables.get(c);
+    return entry==null ? 0 : entry[1];
+  }
+  /**********************************************************************/
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(states).append(" states (").append(stopStates)
+      .append(" stop, ").append(epsStates).append(" eps), ")
+      .append(transitions).append(" transitions, ")
+      .append(getBytes()).append(" bytes");
+    for(Map.Entry<Class<?>,long[]> e : tables.entrySet()) {
+      sb.append(", ").append(e.getKey().getSimpleName()).append(": ")
+	.append(e.getValue()[0]).append('/').append(e.getValue()[1])
+	.append(" bytes");
+    }
+    return sb.toString();
+  }
+  /**********************************************************************/
+}
@@ -0,0 +1,74 @@
+/*+********************************************************************* 
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.util.List;
+
+import monq.stuff.Sizeof;
+
+/**
+ * <p>an <code>ArrayCharTrans</code> with an additional direct lookup
+ * table for the ASCII characters. It is meant for states with many
+ * transitions, some of which are far above ASCII, like those created
+ * for <code>Xml.NameChar</code>. A <code>TableCharTrans</code> would
+ * need a huge table for them, while the plain binary search is slow
+ * on ASCII input, which is the most frequent.</p>
+ */
+class HybridCharTrans<T> extends ArrayCharTrans<T> {
+  // size of the direct lookup table
+  static final int LOW = 128;
+
+  private final T[] low;
+
+  // first range which contains characters of LOW or above
+  private final int firstHigh;
+
+  /**********************************************************************/
+  /**
+   * return estimated size of a <code>HybridCharTrans</code> with
+   * <code>n</code> ranges.
+   */
+  public static int estimateSize(int n) {
+    return ArrayCharTrans.estimateSize(n) + Sizeof.MEM_PTR_SIZE
+      + Sizeof.objectArrayMemEstimate(LOW);
+  }
+  /**********************************************************************/
+  public HybridCharTrans(StringBuilder ranges, List<T> values) {
+    super(ranges, values);
+    @SuppressWarnings("unchecked")
+    T[] tmp = (T[])new Object[LOW];
+    low = tmp;
+    int pos = 0;
+    int L = size();
+    for(/**/; pos<L && getFirstAt(pos)<LOW; pos++) {
+      int last = Math.min(getLastAt(pos), LOW-1);
+      for(int ch=getFirstAt(pos); ch<=last; ch++) low[ch] = getAt(pos);
+    }
+    // the last range starting below LOW may reach above
+    if( pos>0 && getLastAt(pos-1)>=LOW ) pos -= 1;
+    firstHigh = pos;
+  }
+  /**********************************************************************/
+  @Override
+  public T get(char ch) {
+    if( ch<LOW ) return low[ch];
+    int pos = getPos(ch, firstHigh);
+    if( pos==size() || ch<getFirstAt(pos) ) return null;
+    return getAt(pos);
+  }
+  /**********************************************************************/
+}
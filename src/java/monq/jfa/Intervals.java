@@ -18,6 +18,7 @@ package monq.jfa;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -41,27 +42,11 @@ public class Intervals<D> {
   private StringBuilder ranges = new StringBuilder();
   private List<D> vtmp = new ArrayList<D>();
  
-  public static final long[] stats = new long[4];
   /**********************************************************************/
   public Intervals() {
     init();
   }
   /**********************************************************************/
-  public static String logStats() {
-    StringBuilder sb = new StringBuilder(200);
-    sb.append(Intervals.class.getName()).append(" stats:");
-    for (int i=0; i<stats.length; i++) {
-      sb.append(' ').append(stats[i]);
-    }
-    return sb.toString();
-  }
-  /**********************************************************************/
-  public static void resetStats() {
-    for (int i=0; i<stats.length; i++) {
-      stats[i] = 0;
-    }
-  }
-  /**********************************************************************/
   /**
    * <p>all intervals which are currently mapped to <code>null</code>
    * will be mapped to the given object.</p>
@@ -199,7 +184,117 @@ public class Intervals<D> {
     }
   }
   /**********************************************************************/
+  /**
+   * <p>converts the intervals into a <code>CharTrans</code>. If there
+   * are several ranges, a direct lookup table is used if it is not
+   * larger than <code>memoryForSpeedTradeFactor</code> times the
+   * binary searched array. Otherwise, if the ranges reach beyond
+   * ASCII, direct lookup of only the ASCII characters is used, if it
+   * costs not more than <code>memoryForSpeedTradeFactor</code> times
+   * the array in addition.</p>
+   */
   public CharTrans<D> toCharTrans(double memoryForSpeedTradeFactor) {
+    if( !collectRanges() ) return null;
+    CharTrans<D> t = create(memoryForSpeedTradeFactor);
+    reset();
+    return t;
+  }
+  /**********************************************************************/
+  /**
+   * <p>like {@link #toCharTrans(double)}, but if the
+   * <code>pool</code> has a <code>CharTrans</code> created before
+   * with the same factor, the same ranges and the identical targets,
+   * it is returned instead of a new one. A <code>CharTrans</code> is
+   * immutable, so any number of states can share it.</p>
+   */
+  CharTrans<D> toCharTrans(double memoryForSpeedTradeFactor,
+			   Map<List<Object>,CharTrans<D>> pool) {
+    if( !collectRanges() ) return null;
+    List<Object> key = poolKey(memoryForSpeedTradeFactor);
+    CharTrans<D> t = pool.get(key);
+    if( t==null ) {
+      t = create(memoryForSpeedTradeFactor);
+      pool.put(key, t);
+    }
+    reset();
+    return t;
+  }
+  /**********************************************************************/
+  /**
+   * <p>like {@link #toCharTrans(double,Map)}, but creates the same
+   * kind of <code>CharTrans</code> as <code>model</code>, as far as
+   * the number of ranges permits.</p>
+   */
+  CharTrans<D> toCharTrans(CharTrans<?> model,
+			   Map<List<Object>,CharTrans<D>> pool) {
+    return toCharTrans(model.getClass(), pool);
+  }
+  /**
+   * <p>like {@link #toCharTrans(CharTrans,Map)}, but with the class of
+   * the model given directly.</p>
+   */
+  CharTrans<D> toCharTrans(Class<?> kind,
+			   Map<List<Object>,CharTrans<D>> pool) {
+    if( !collectRanges() ) return null;
+    List<Object> key = poolKey(kind);
+    CharTrans<D> t = pool.get(key);
+    if( t==null ) {
+      if( vtmp.size()==1 ) {
+	t = singleRange();
+      } else if( TableCharTrans.class.isAssignableFrom(kind) ) {
+	t = new TableCharTrans<D>(ranges, vtmp);
+      } else if( HybridCharTrans.class.isAssignableFrom(kind) ) {
+	t = new HybridCharTrans<D>(ranges, vtmp);
+      } else {
+	t = new ArrayCharTrans<D>(ranges, vtmp);
+      }
+      pool.put(key, t);
+    }
+    reset();
+    return t;
+  }
+  /**********************************************************************/
+  // the targets are compared by their equals(), which is identity
+  // for automaton states
+  private List<Object> poolKey(Object kind) {
+    List<Object> key = new ArrayList<Object>(vtmp.size()+2);
+    key.add(kind);
+    key.add(ranges.toString());
+    key.addAll(vtmp);
+    return key;
+  }
+  /**********************************************************************/
+  // creates a CharTrans from ranges and vtmp as filled by
+  // collectRanges()
+  private CharTrans<D> create(double memoryForSpeedTradeFactor) {
+    int n = vtmp.size();
+    if( n==1 ) return singleRange();
+
+    char first = ranges.charAt(0);
+    char last = ranges.charAt(2*n-1);
+    // estimate the size of an ArrayCharTrans
+    int arrayTransSize = ArrayCharTrans.estimateSize(n);
+    int tableTransSize = TableCharTrans.estimateSize(last-first+1);
+
+    //System.out.println("array: "+arrayTransSize);
+    //System.out.println("table: "+tableTransSize);
+
+    if( arrayTransSize*memoryForSpeedTradeFactor>=tableTransSize ) {
+      return new TableCharTrans<D>(ranges, vtmp);
+    }
+    if( first<HybridCharTrans.LOW && last>=HybridCharTrans.LOW
+	&& HybridCharTrans.estimateSize(n)
+	   <= arrayTransSize*(1+memoryForSpeedTradeFactor) ) {
+      // the table would be too large, but we can still afford
+      // direct lookup for ASCII
+      return new HybridCharTrans<D>(ranges, vtmp);
+    }
+    return new ArrayCharTrans<D>(ranges, vtmp);
+  }
+  /**********************************************************************/
+  // fills ranges and vtmp and returns true, unless there is nothing
+  // to put into a CharTrans at all
+  private boolean collectRanges() {
     // We have to do the following:
     // 1) convert right open intervals to ranges [a,b]
     // 2) drop intervals which map to null
@@ -230,41 +325,19 @@ public class Intervals<D> {
     //if( combined>0 ) System.err.println("combined "+combined+" intervals");
     if( vtmp.size()==0 ) {
       reset();
-      return null;
+      return false;
     }
     assert vtmp.size()*2 == ranges.length();
-
-    CharTrans<D> t;
-    if( vtmp.size()==1 ) {
-      char first = ranges.charAt(0);
-      char last = ranges.charAt(1);
-      if( first==last ) {
-	t = new SingletonCharTrans<D>(first, vtmp.get(0));
-	stats[0] += 1;
-      } else {
-	t = new RangeCharTrans<D>(first, last, vtmp.get(0));
-	stats[1] += 1;
-      }
-    } else {
-      // estimate the size of an ArrayCharTrans
-      int arrayTransSize = ArrayCharTrans.estimateSize(vtmp.size());
-      int tableTransSize = TableCharTrans.estimateSize
-	(ranges.charAt(2*vtmp.size()-1)-ranges.charAt(0)+1);
-
-      //System.out.println("array: "+arrayTransSize);
-      //System.out.println("table: "+tableTransSize);
-
-      if( arrayTransSize*memoryForSpeedTradeFactor<tableTransSize ) {
-	t = new ArrayCharTrans<D>(ranges, vtmp);
-	stats[2] += 1;
-      } else {
-	t = new TableCharTrans<D>(ranges, vtmp);
-	stats[3] += 1;
-      }
-
+    return true;
+  }
+  /**********************************************************************/
+  private CharTrans<D> singleRange() {
+    char first = ranges.charAt(0);
+    char last = ranges.charAt(1);
+    if( first==last ) {
+      return new SingletonCharTrans<D>(first, vtmp.get(0));
     }
-    reset();
-    return t;
+    return new RangeCharTrans<D>(first, last, vtmp.get(0));
   }
   /*+******************************************************************/
   public String toString() {
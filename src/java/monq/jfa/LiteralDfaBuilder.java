@@ -0,0 +1,218 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>builds the minimal {@link Dfa} for a list of literal strings
+ * directly, without creating an {@link Nfa} first. The strings must
+ * be added in sorted order, as defined by {@link String#compareTo
+ * String.compareTo()}. Each string is added to the automaton as soon
+ * as it is known, and the states which no later string can change
+ * any more are merged with equivalent states found before, following
+ * the incremental algorithm of Daciuk, Mihov, Watson and Watson. The
+ * time needed is therefore linear in the total length of the
+ * strings, while {@link Nfa#compile Nfa.compile()} of the same
+ * strings tends to grow faster.</p>
+ *
+ * <p>The resulting <code>Dfa</code> can be combined with automata
+ * compiled from regular expressions by {@link Dfa#union
+ * Dfa.union()}. A dictionary of words, each with its own action,
+ * could be set up like</p>
+ * <pre>
+ *   LiteralDfaBuilder b = new LiteralDfaBuilder();
+ *   for(String word : sortedWords) b.add(word, actionFor(word));
+ *   Dfa words = b.compile(DfaRun.UNMATCHED_COPY);
+ *   Dfa other = new Nfa("[0-9]+", Copy.COPY).compile(DfaRun.UNMATCHED_COPY);
+ *   Dfa dict = Dfa.union(Arrays.asList(words, other),
+ *                        DfaRun.UNMATCHED_COPY, null);</pre>
+ *
+ * <p>A <code>LiteralDfaBuilder</code> can be used to create only one
+ * <code>Dfa</code>.</p>
+ */
+public class LiteralDfaBuilder {
+  // the states of the path spelling the most recently added string,
+  // which may still get transitions. The first is the start state.
+  private final List<Node> path = new ArrayList<Node>();
+  private String recent = null;
+
+  // maps transitions and action of states to the state which was
+  // registered first with them
+  private final Map<List<Object>,DfaState> register =
+    new HashMap<List<Object>,DfaState>();
+  private final Map<List<Object>,CharTrans<DfaState>> pool =
+    new HashMap<List<Object>,CharTrans<DfaState>>();
+  private final Intervals<DfaState> ivals = new Intervals<DfaState>();
+  private final StringBuilder clashes = new StringBuilder();
+  private boolean compiled = false;
+
+  /**********************************************************************/
+  public LiteralDfaBuilder() {
+    path.add(new Node());
+  }
+  /**********************************************************************/
+  /**
+   * <p>adds a string which shall be matched with the given
+   * action. If the string is the same as the one added before, the
+   * actions are merged with {@link FaAction#mergeWith
+   * mergeWith()}.</p>
+   *
+   * @throws IllegalArgumentException if <code>s</code> is sorted
+   * before the string added before, or if <code>action</code> is
+   * <code>null</code>
+   * @throws IllegalStateException if {@link #compile compile()} was
+   * already called
+   */
+  public LiteralDfaBuilder add(String s, FaAction action) {
+    if( compiled ) {
+      throw new IllegalStateException("compile() was already called");
+    }
+    if( action==null ) {
+      throw new IllegalArgumentException("action must not be null");
+    }
+    int common = 0;
+    if( recent!=null ) {
+      if( recent.compareTo(s)>0 ) {
+	throw new IllegalArgumentException
+	  ("`"+s+"' is sorted before `"+recent+"'");
+      }
+      int L = Math.min(s.length(), recent.length());
+      while( common<L && s.charAt(common)==recent.charAt(common) ) {
+	common += 1;
+      }
+    }
+    freeze(common);
+
+    for(int i=common; i<s.length(); i++) {
+      Node child = new Node();
+      path.get(i).append(s.charAt(i));
+      path.add(child);
+    }
+
+    Node last = path.get(s.length());
+    if( last.action==null ) {
+      last.action = action;
+    } else {
+      FaAction merged = action.mergeWith(last.action);
+      if( merged==null ) merged = last.action.mergeWith(action);
+      if( merged==null ) {
+	clashes.append("clashing actions [").append(last.action)
+	  .append(", ").append(action).append("] for path `")
+	  .append(s).append("'\n");
+      } else {
+	last.action = merged;
+      }
+    }
+    recent = s;
+    return this;
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates the <code>Dfa</code> which matches the strings added
+   * so far. The builder cannot be used any further afterwards.</p>
+   *
+   * @param fmb describes the initial behaviour of a {@link DfaRun}
+   * which operates the <code>Dfa</code> created here
+   * @param eofAction describes the action to run at the end of input
+   * when the resulting Dfa is used with a <code>DfaRun</code>.
+   *
+   * @throws CompileDfaException if the same string was added with
+   * actions which cannot be merged
+   */
+  public Dfa compile(DfaRun.FailedMatchBehaviour fmb, FaAction eofAction)
+    throws CompileDfaException
+  {
+    if( compiled ) {
+      throw new IllegalStateException("compile() was already called");
+    }
+    compiled = true;
+    if( clashes.length()>0 ) {
+      throw new CompileDfaException(clashes.toString());
+    }
+    freeze(0);
+    DfaState start = path.get(0).toState(ivals, pool);
+    path.clear();
+    register.clear();
+    return new Dfa(start, fmb, eofAction);
+  }
+  /**
+   * <p>creates the <code>Dfa</code> with no action at the end of
+   * input.</p>
+   * @see #compile(DfaRun.FailedMatchBehaviour,FaAction)
+   */
+  public Dfa compile(DfaRun.FailedMatchBehaviour fmb)
+    throws CompileDfaException
+  {
+    return compile(fmb, null);
+  }
+  /**********************************************************************/
+  // replaces the states of the path beyond the given length by their
+  // registered equivalent. Their children were replaced before, so
+  // equivalent states have identical transitions.
+  private void freeze(int length) {
+    for(int i=path.size()-1; i>length; i--) {
+      DfaState s = path.remove(i).toState(ivals, pool);
+      List<Object> key =
+	Arrays.<Object>asList(s.getTrans(),
+			      System.identityHashCode(s.getAction()));
+      DfaState other = register.get(key);
+      if( other==null ) {
+	register.put(key, s);
+      } else if( other.getAction()==s.getAction() ) {
+	s = other;
+      }
+      path.get(i-1).setLast(s);
+    }
+  }
+  /**********************************************************************/
+  // a state on the path. Its transitions are sorted by character and
+  // only the last one may still lead to a state on the path, which is
+  // filled in when that one is frozen.
+  private static final class Node {
+    private char[] chars = new char[2];
+    private DfaState[] children = new DfaState[2];
+    private int size = 0;
+    private FaAction action = null;
+
+    void append(char ch) {
+      if( size==chars.length ) {
+	chars = Arrays.copyOf(chars, 2*size);
+	children = Arrays.copyOf(children, 2*size);
+      }
+      chars[size++] = ch;
+    }
+    void setLast(DfaState child) {
+      children[size-1] = child;
+    }
+    DfaState toState(Intervals<DfaState> ivals,
+		     Map<List<Object>,CharTrans<DfaState>> pool) {
+      DfaState s = new DfaState(action);
+      if( size==0 ) return s;
+      ivals.reset();
+      for(int i=0; i<size; i++) {
+	ivals.overwrite(chars[i], chars[i], children[i]);
+      }
+      s.setTrans(ivals.toCharTrans(1.0, pool));
+      return s;
+    }
+  }
+}
@@ -1049,6 +1049,16 @@ public class Nfa  {
     return this;
   }
   /*+******************************************************************/
+  /**
+   * <p>returns the number of states, the transition tables by type
+   * and the estimated memory used by this automaton. Compiling it may
+   * need several times as much, but a large footprint here is a good
+   * reason not to try.</p>
+   */
+  public Footprint footprint() {
+    return Footprint.of(start);
+  }
+  /*+******************************************************************/
   /**
    * creates a copy of this Nfa where all the states are duplicated, but the
    * actions are kept such that both Nfas reference the same actions.
@@ -1430,7 +1440,7 @@ public class Nfa  {
   public Dfa compile(DfaRun.FailedMatchBehaviour fmb, FaAction eofAction)
     throws CompileDfaException
   {
-    DfaState tmpStart = compile_p(FaStateFactory.forDfa);
+    DfaState tmpStart = Dfa.intern(compile_p(FaStateFactory.forDfa));
     return new Dfa(tmpStart, fmb, eofAction);
   }
 
@@ -1445,6 +1455,20 @@ public class Nfa  {
     return compile(fmb, null);
   }
 
+  /**
+   * <p>compiles <code>this</code> into a {@link ByteDfa} which
+   * matches the UTF-8 encoding of the input directly on bytes. Use a
+   * {@link ByteDfaRun} to operate it.</p>
+   *
+   * @see #compile(DfaRun.FailedMatchBehaviour,FaAction)
+   */
+  public ByteDfa compileUtf8(DfaRun.FailedMatchBehaviour fmb,
+			     FaAction eofAction)
+    throws CompileDfaException
+  {
+    return new ByteDfa(compile(fmb, eofAction), memoryForSpeedTradeFactor);
+  }
+
   /**
    * compile into an automaton without epsilon transitions. The result can be
    * different implementations of automata states, either optimized for
@@ -0,0 +1,248 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>filters large input on several threads by splitting it into
+ * chunks which are filtered independently by separate {@link DfaRun}
+ * objects sharing one {@link Dfa}. The output of the chunks is
+ * stitched together in input order.</p>
+ *
+ * <p>Chunks are cut only behind a match of a record separator, like
+ * <code>"\n"</code> or <code>"&lt;/doc&gt;"</code>, and only after
+ * at least {@link #setChunkSize chunkSize} characters. The result is
+ * the same as that of a single <code>DfaRun</code> only if no match of
+ * the <code>Dfa</code> spans a record separator and if the callbacks
+ * do not depend on each other across records. In particular, {@link
+ * DfaRun#collect} and {@link DfaRun#setDfa DfaRun.setDfa()} only have
+ * an effect within a chunk. The end of file action of the
+ * <code>Dfa</code> is run only for the last chunk.</p>
+ *
+ * <p>Each chunk gets its own {@link DfaRun#clientData}, created and
+ * later merged by a {@link ClientDataHandler}, if one is set.</p>
+ *
+ * <p>Only a bounded number of chunks is held in memory, so input of
+ * any size can be filtered, as long as the record separator appears
+ * from time to time.</p>
+ */
+public class ParallelDfaRun {
+
+  /**
+   * <p>creates and merges the {@link DfaRun#clientData} of the
+   * chunks filtered by a {@link ParallelDfaRun}.</p>
+   */
+  public interface ClientDataHandler {
+    /**
+     * <p>is called, possibly concurrently, to create the
+     * <code>clientData</code> for the <code>DfaRun</code> filtering
+     * chunk number <code>chunk</code>, counting from 0.</p>
+     */
+    Object create(int chunk);
+
+    /**
+     * <p>is called with the <code>clientData</code> of each chunk
+     * after the chunk was filtered. The calls are made by one thread
+     * in the order of the chunks.</p>
+     */
+    void merge(Object clientData, int chunk) throws IOException;
+  }
+
+  private final Dfa dfa;
+  // same as dfa but without eof action, used for all but the last chunk
+  private final Dfa innerDfa;
+  private final Dfa separator;
+
+  private int chunkSize = 1<<20;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private ExecutorService executor = null;
+  private ClientDataHandler clientDataHandler = null;
+
+  private static final FaAction SEPARATOR = new AbstractFaAction() {
+      public void invoke(StringBuilder out, int start, DfaRun r) {}
+      public String toString() { return "ParallelDfaRun.SEPARATOR"; }
+    };
+  /**********************************************************************/
+  /**
+   * <p>creates a <code>ParallelDfaRun</code> to operate
+   * <code>dfa</code> on chunks which end in a match of the regular
+   * expression <code>separatorRe</code>.</p>
+   *
+   * @throws IllegalArgumentException if the <code>dfa</code> or
+   * <code>separatorRe</code> match the empty string.
+   */
+  public ParallelDfaRun(Dfa dfa, String separatorRe)
+    throws ReSyntaxException, CompileDfaException
+  {
+    if( dfa.matchesEmpty() ) {
+      throw new IllegalArgumentException(DfaRun.EEPSMATCHER);
+    }
+    this.dfa = dfa;
+    this.innerDfa = new Dfa(dfa.getStart(), dfa.fmb, null);
+    this.innerDfa.matchMax = dfa.matchMax;
+    this.separator = new Nfa(separatorRe, SEPARATOR)
+      .compile(DfaRun.UNMATCHED_COPY);
+    if( separator.matchesEmpty() ) {
+      throw new IllegalArgumentException("separator "+
+                                         DfaRun.EEPSMATCHER);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the minimum number of characters per chunk. The default
+   * is 1M characters.</p>
+   */
+  public ParallelDfaRun setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+    return this;
+  }
+  /**
+   * <p>sets the number of threads to use if no executor is set. The
+   * default is the number of available processors.</p>
+   */
+  public ParallelDfaRun setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+  /**
+   * <p>sets an executor to run the chunks on. If <code>null</code>,
+   * which is the default, a thread pool is created for each call to
+   * <code>filter()</code> and shut down afterwards.</p>
+   */
+  public ParallelDfaRun setExecutor(ExecutorService executor) {
+    this.executor = executor;
+    return this;
+  }
+  public ParallelDfaRun setClientDataHandler(ClientDataHandler h) {
+    this.clientDataHandler = h;
+    return this;
+  }
+  /**********************************************************************/
+  /**
+   * <p>filters all of <code>in</code> and appends the result to
+   * <code>out</code>.</p>
+   *
+   * @throws IOException if reading or writing fails or if a callback
+   * throws a {@link CallbackException}. Chunks not yet filtered are
+   * abandoned in this case.
+   */
+  public void filter(CharSource in, Appendable out) throws IOException {
+    ExecutorService ex = executor;
+    if( ex==null ) ex = Executors.newFixedThreadPool(threads);
+    LinkedList<Future<Chunk>> pending = new LinkedList<>();
+    int maxPending = 2*threads;
+
+    DfaRun splitter = new DfaRun(separator, in);
+    int chunkNo = 0;
+    StringBuilder previous = null;
+    StringBuilder current = new StringBuilder(chunkSize+chunkSize/8);
+    try {
+      while( true ) {
+        FaAction a = splitter.next(current);
+        if( a==DfaRun.EOF ) break;
+        if( a==null || current.length()<chunkSize ) continue;
+
+        // we can only tell whether a chunk is the last one when the
+        // next one is available
+        if( previous!=null ) {
+          pending.add(ex.submit(new Chunk(previous, chunkNo++, false)));
+          while( pending.size()>=maxPending ) {
+            ship(pending.removeFirst(), out);
+          }
+        }
+        previous = current;
+        current = new StringBuilder(chunkSize+chunkSize/8);
+      }
+      if( previous!=null ) {
+        boolean last = current.length()==0;
+        pending.add(ex.submit(new Chunk(previous, chunkNo++, last)));
+      }
+      if( current.length()>0 || previous==null ) {
+        pending.add(ex.submit(new Chunk(current, chunkNo++, true)));
+      }
+      while( !pending.isEmpty() ) ship(pending.removeFirst(), out);
+    } finally {
+      for(Future<Chunk> f : pending) f.cancel(true);
+      if( executor==null ) ex.shutdownNow();
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>filters <code>in</code> and returns the result.</p>
+   */
+  public String filter(CharSequence in) throws IOException {
+    StringBuilder out = new StringBuilder(in.length());
+    filter(new CharSequenceCharSource(in), out);
+    return out.toString();
+  }
+  /**********************************************************************/
+  private void ship(Future<Chunk> f, Appendable out) throws IOException {
+    Chunk c;
+    try {
+      c = f.get();
+    } catch( InterruptedException e ) {
+      InterruptedIOException ee = new InterruptedIOException();
+      ee.initCause(e);
+      throw ee;
+    } catch( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if( cause instanceof IOException ) throw (IOException)cause;
+      if( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+      if( cause instanceof Error ) throw (Error)cause;
+      throw new IOException(cause);
+    }
+    out.append(c.text);
+    if( clientDataHandler!=null ) {
+      clientDataHandler.merge(c.clientData, c.chunkNo);
+    }
+  }
+  /**********************************************************************/
+  private final class Chunk implements Callable<Chunk> {
+    private StringBuilder text;
+    private final int chunkNo;
+    private final boolean last;
+    private Object clientData;
+
+    Chunk(StringBuilder text, int chunkNo, boolean last) {
+      this.text = text;
+      this.chunkNo = chunkNo;
+      this.last = last;
+    }
+
+    public Chunk call() throws IOException {
+      DfaRun r = new DfaRun(last ? dfa : innerDfa,
+                            new CharSequenceCharSource(text));
+      if( clientDataHandler!=null ) {
+        r.clientData = clientDataHandler.create(chunkNo);
+      }
+      StringBuilder out = new StringBuilder(text.length());
+      r.filter(out);
+      text = out;
+      clientData = r.clientData;
+      return this;
+    }
+  }
+  /**********************************************************************/
+}
@@ -29,8 +29,6 @@ class RangeCharTrans<T> implements java.io.Serializable, CharTrans<T> {
   private char last;
   private T o;
 
-  public static long stats = 0;
-
   public RangeCharTrans(char first, char last, T o) {
     this.first = first;
     this.last = last;
@@ -39,7 +37,6 @@ class RangeCharTrans<T> implements java.io.Serializable, CharTrans<T> {
 
   @Override
   public T get(char ch) {
-    stats += 1;
     if( ch>=first && ch<=last ) return o;
     return null;
   }
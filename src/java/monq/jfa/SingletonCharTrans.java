@@ -28,8 +28,6 @@ class SingletonCharTrans<T> implements java.io.Serializable, CharTrans<T> {
   private char ch;
   private T o;
 
-  public static long stats = 0;
-
   public SingletonCharTrans(char ch, T o) {
     this.ch = ch;
     this.o = o;
@@ -37,7 +35,6 @@ class SingletonCharTrans<T> implements java.io.Serializable, CharTrans<T> {
 
   @Override
   public T get(char queryChar) {
-    stats += 1;
     if( this.ch==queryChar ) return o;
     return null;
   }
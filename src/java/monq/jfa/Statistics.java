@@ -41,6 +41,15 @@ public class Statistics {
   /** type and number of CharTrans implementations used */
   public Map<Class<?>,Int> charTransTypes = new HashMap<Class<?>,Int>();
 
+  /**
+   * number of states which use a non-empty transition table already
+   * seen at another state
+   */
+  public int sharedCharTrans = 0;
+
+  private Set<Object> seenTrans = 
+    Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+
   private int currentDepth = 0;
   private StringBuilder sb = new StringBuilder();
 
@@ -65,14 +74,11 @@ public class Statistics {
     pw.println("               number of stop states: "+stopStates);
     pw.println("         shortest path to stop state: "+shortestPathlen);
     pw.println("longest loop free path to stop state: "+longestPathlen);
+    pw.println("   states sharing a transition table: "+sharedCharTrans);
     pw.println("the following transition table types are used:");
     for(Class<?> c: charTransTypes.keySet()) {
-      long stats = 0;
-      try {
-        stats = c.getField("stats").getLong(c);
-      } catch( Exception e) { e.printStackTrace(); }
       Int count = charTransTypes.get(c);
-      pw.printf("%33s: %4d, used: %8d\n", c.getName(), count.i, stats);
+      pw.printf("%33s: %4d\n", c.getName(), count.i);
     }
   }
   /********************************************************************/
@@ -146,6 +152,7 @@ public class Statistics {
       Int count = charTransTypes.get(c);
       if( count==null ) charTransTypes.put(c, count=new Int());
       count.i += 1;
+      if( t.size()>0 && !seenTrans.add(t) ) sharedCharTrans += 1;
 
       int l = t.size();
       for(int i=0; i<l; i++) {
@@ -33,7 +33,6 @@ class TableCharTrans<T> implements java.io.Serializable, CharTrans<T> {
   // may contain null entries.
   private int size;
 
-  public static long stats = 0;
   /**********************************************************************/
   /**
    * return estimated size of a <code>TableCharTrans</code> for
@@ -80,7 +79,6 @@ class TableCharTrans<T> implements java.io.Serializable, CharTrans<T> {
   /**********************************************************************/
   @Override
   public T get(char ch) {
-    stats += 1;
     if( ch>=first && ch<=last ) {
       T result = targets[ch-first];
       return result;
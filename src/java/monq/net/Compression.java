@@ -0,0 +1,152 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>implements the compression of the data sent between the servers
+ * of a distributed pipe. A server finding the parameter {@link #KEY}
+ * in its request sends {@link #MAGIC} followed by its output
+ * compressed with a <code>Deflater</code> in sync flush mode, such
+ * that every flush of the service gets through immediately.</p>
+ *
+ * <p>The receiving side, which asked for compression, checks for
+ * <code>MAGIC</code>. If it is missing, for example because the
+ * sender is an older server which ignored the request, the data is
+ * taken as is.</p>
+ */
+final class Compression {
+  /**
+   * <p>is the key of the parameter asking a server to compress its
+   * output.</p>
+   */
+  static final String KEY = ".deflate";
+
+  static final byte[] MAGIC = {0, 'D', 'F', 'L'};
+
+  private Compression() {}
+
+  /**********************************************************************/
+  /**
+   * <p>writes {@link #MAGIC} to <code>out</code> and returns a stream
+   * which compresses into <code>out</code>. It must be passed to
+   * {@link #finish finish()} when done.</p>
+   */
+  static OutputStream compress(OutputStream out) throws IOException {
+    out.write(MAGIC);
+    return new Compressor(out);
+  }
+  /**
+   * <p>writes the rest of the compressed data and releases the
+   * <code>Deflater</code>, without closing the underlying stream.</p>
+   */
+  static void finish(OutputStream out) throws IOException {
+    Compressor cout = (Compressor)out;
+    try {
+      cout.finish();
+      cout.flush();
+    } finally {
+      cout.end();
+    }
+  }
+  /**********************************************************************/
+  // keeps its own Deflater, which DeflaterOutputStream.close() would
+  // not end, to free its native memory in finish()
+  private static final class Compressor extends DeflaterOutputStream {
+    Compressor(OutputStream out) {
+      super(out, new Deflater(Deflater.BEST_SPEED), 8192, true);
+    }
+    void end() {
+      def.end();
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns a stream which decompresses <code>in</code> if the data
+   * starts with {@link #MAGIC} and otherwise delivers it unchanged. The
+   * check is delayed until the first read, so that it does not block
+   * when the connection is set up. Closing the stream releases the
+   * <code>Inflater</code> used, if any.</p>
+   */
+  static InputStream decompress(InputStream in) {
+    return new Detector(in);
+  }
+  /**********************************************************************/
+  // keeps its own Inflater, which InflaterInputStream.close() would
+  // not end, to free its native memory in close()
+  private static final class Detector extends FilterInputStream {
+    private boolean checked = false;
+    private Inflater inf = null;
+
+    Detector(InputStream in) {
+      super(in);
+    }
+    private void check() throws IOException {
+      if( checked ) return;
+      checked = true;
+      PushbackInputStream pin = new PushbackInputStream(in, MAGIC.length);
+      byte[] head = new byte[MAGIC.length];
+      int l = 0;
+      int n;
+      while( l<head.length && -1!=(n=pin.read(head, l, head.length-l)) ) {
+	l += n;
+      }
+      if( l==head.length && Arrays.equals(head, MAGIC) ) {
+	inf = new Inflater();
+	in = new InflaterInputStream(pin, inf);
+      } else {
+	pin.unread(head, 0, l);
+	in = pin;
+      }
+    }
+    public int read() throws IOException {
+      check();
+      return in.read();
+    }
+    public int read(byte[] b, int off, int len) throws IOException {
+      check();
+      return in.read(b, off, len);
+    }
+    public long skip(long n) throws IOException {
+      check();
+      return in.skip(n);
+    }
+    public int available() throws IOException {
+      return checked ? in.available() : 0;
+    }
+    public boolean markSupported() {
+      return false;
+    }
+    public void close() throws IOException {
+      try {
+	in.close();
+      } finally {
+	if( inf!=null ) inf.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.util.Map;
+
+import monq.jfa.DfaRun;
+
+/**
+ * <p>an implementation of this interface is used by a {@link
+ * NioFilterServer} to fetch a fresh {@link DfaRun} for each filter
+ * job. Contrary to a {@link ServiceFactory}, the factory does not get
+ * to see the streams, because the server feeds the
+ * <code>DfaRun</code> itself as data arrives from the network.</p>
+ */
+public interface DfaRunFactory {
+  /**
+   * <p>creates a <code>DfaRun</code> for one filter job. The input of
+   * the <code>DfaRun</code> will be replaced.</p>
+   *
+   * @param params are the key/value pairs sent along with the
+   * request, as set up with {@link PipelineRequest#put
+   * PipelineRequest.put()}.
+   *
+   * @throws ServiceCreateException if the service is permanently
+   * unavailable. To indicate that the service may be created the next
+   * time this method is called, use {@link ServiceUnavailException}.
+   */
+  DfaRun createRun(Map<String,String> params) throws ServiceCreateException;
+}
@@ -39,11 +39,52 @@ public class DfaRunService implements Service {
     this.out = out;
   }
   public Exception getException() {return e;}
+  /**
+   * <p>runs the <code>DfaRun</code> with {@link DfaRun#filter(PrintStream)
+   * filter()}. If run by a {@link TcpServer}, the characters filtered
+   * and the time taken are added to the server's {@link
+   * ServerMetrics}. The time includes waiting for input and writing
+   * the output, so it is the time the service took rather than the
+   * time of the automaton alone.</p>
+   */
   public void run() {
+    ServerMetrics metrics = ServerMetrics.current();
+    Counter counter = null;
+    if( metrics!=null ) {
+      // setIn() resets the failed match behaviour, which we keep
+      DfaRun.FailedMatchBehaviour fmb = r.getOnFailedMatch();
+      counter = new Counter(r.getIn());
+      r.setIn(counter);
+      r.setOnFailedMatch(fmb);
+    }
+    long start = System.nanoTime();
     try {
       r.filter(out);
     } catch( java.io.IOException ex ) {
       this.e = ex;
+    } finally {
+      if( metrics!=null ) {
+	metrics.addDfaChars(counter.chars, System.nanoTime()-start);
+      }
+    }
+  }
+  /**********************************************************************/
+  // counts the characters taken from the input, not counting those
+  // pushed back
+  private static final class Counter implements CharSource {
+    private final CharSource in;
+    private long chars = 0;
+    Counter(CharSource in) {
+      this.in = in;
+    }
+    public int read() throws java.io.IOException {
+      int ch = in.read();
+      if( ch>=0 ) chars += 1;
+      return ch;
+    }
+    public void pushBack(StringBuilder from, int startAt) {
+      chars -= from.length()-startAt;
+      in.pushBack(from, startAt);
     }
   }
   /**********************************************************************/
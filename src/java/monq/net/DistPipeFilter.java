@@ -53,7 +53,8 @@ import java.util.*;
  * internal server,</li>
  *
  * <li>call pairs of {@link #open open()} and {@link #close close()} to
- * filter data,</li>
+ * filter data, or open a {@link #openSession session} to filter
+ * many documents over the same connections,</li>
  *
  * <li>eventually call {@link #shutdown} to stop the internal
  * server.</li> 
@@ -75,6 +76,9 @@ public class DistPipeFilter {
   private Feeder[] pending;
   private TcpServer serv = null;
   private boolean running = false;
+  private boolean compression = false;
+  private ReplicaBalancer balancer = 
+    new ReplicaBalancer(ReplicaBalancer.Policy.LEAST_OUTSTANDING);
   private Map<InputStream,Job> connections = new HashMap<InputStream,Job>();
   
   /**********************************************************************/
@@ -150,6 +154,8 @@ public class DistPipeFilter {
   private static class CatchAllFeeder implements Feeder {
     private Exception e;
     private Feeder client;
+    // the compressing stream to finish after the client, if any
+    private OutputStream compressed = null;
     public CatchAllFeeder(Feeder client) { this.client = client; }
     public Exception getException() { 
       Exception ee = client.getException();
@@ -165,6 +171,12 @@ public class DistPipeFilter {
       } catch( Exception ex ) {
 	this.e = ex;
       }
+      if( compressed==null ) return;
+      try {
+	Compression.finish(compressed);
+      } catch( IOException ex ) {
+	if( e==null ) e = ex;
+      }
     }
   }
   /**********************************************************************/
@@ -211,9 +223,18 @@ public class DistPipeFilter {
       // we replace the Feeder with a CatchAllFeeder in the slot. The
       // CatchAllFeeder catches all exceptions and by checking the
       // class of the slot we know if we ever came here.
-      Feeder r = new CatchAllFeeder(pending[slot]);
+      CatchAllFeeder r = new CatchAllFeeder(pending[slot]);
       pending[slot] = r;
-      r.setOut(filterOut, false);
+      if( conn.isCompressed() ) {
+	try {
+	  r.compressed = Compression.compress(filterOut);
+	} catch( java.io.IOException e ) {
+	  throw new ServiceUnavailException("cannot send data", e);
+	}
+	r.setOut(r.compressed, false);
+      } else {
+	r.setOut(filterOut, false);
+      }
       return r;
     }
   }
@@ -245,15 +266,44 @@ public class DistPipeFilter {
 //     close(is);
 //   }
   /**********************************************************************/
-  private static final class Job {
+  static final class Job {
     public int slot;
     public FilterConnection connection;
+    public InputStream filterIn;
+    // the replica picked for each stage, null if there was no choice
+    public String[] chosen;
     public Job(int slot, FilterConnection connection) {
       this.slot = slot;
       this.connection = connection;
     }
   }
   /**********************************************************************/
+  /**
+   * <p>sets the {@link ReplicaBalancer} used to pick among the replicas
+   * of a request. By default, every <code>DistPipeFilter</code> has
+   * its own balancer which picks the replica with the least
+   * outstanding jobs. Share one balancer between several
+   * <code>DistPipeFilter</code>s to balance their jobs together.</p>
+   */
+  public void setBalancer(ReplicaBalancer balancer) {
+    this.balancer = balancer;
+  }
+  /**
+   * <p>requests that all data sent between the servers of a pipeline,
+   * including the data sent to and received from this
+   * <code>DistPipeFilter</code>, is compressed. This pays off for
+   * large, well compressible documents like XML, in particular if the
+   * servers run on different hosts. The default is
+   * <code>false</code>.</p>
+   *
+   * <p>A {@link FilterServiceFactory} handles the compression
+   * transparently for its services. A {@link NioFilterServer} does
+   * not support compression and refuses such requests.</p>
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+  /**********************************************************************/
   /**
    * <p>sets up the pipeline as determined by <code>request</code> to be
    * fed by the given <code>Feeder</code>. The filtered data can be
@@ -262,6 +312,16 @@ public class DistPipeFilter {
    * {@link #close close()} to properly terminate the connection to
    * the pipeline.</p>
    *
+   * <p>For requests with several {@link PipelineRequest#addReplica
+   * replicas}, the {@link #setBalancer balancer} picks one. If the
+   * server contacted directly, the last one of the pipeline, is
+   * unavailable or too busy to serve the job, the job is transparently
+   * retried on another replica of the last request. To tell busy, the
+   * server is asked to confirm that it starts serving the job, which
+   * servers of older versions do not do. A {@link TcpServer} in
+   * {@link TcpServer#setVirtualThreads virtual thread mode} is busy,
+   * if it does not admit the job in time.</p>
+   *
    * <p><b>Hint:</b> A <code>Feeder</code> can be easily implemented by
    * subclassing {@link monq.stuff.AbstractPipe}.</p>
    */
@@ -276,27 +336,114 @@ public class DistPipeFilter {
     int slot = sem.acquire();
     pending[slot] = in;
 
+    Job job;
+    try {
+      job = connect(request, slot, false);
+    } catch( IOException e ) {
+      pending[slot] = null;
+      sem.release(slot);
+      throw e;
+    }
+    synchronized(connections) {
+      connections.put(job.filterIn, job);
+    }
+    return job.filterIn;
+  }
+  /**********************************************************************/
+  /**
+   * <p>picks the replicas, connects to the last server of the pipeline
+   * and retries with other replicas of the last request as long as
+   * the server is unavailable or busy.</p>
+   */
+  private Job connect(PipelineRequest[] request, int slot, boolean framed)
+    throws IOException
+  {
+    int last = request.length-1;
+    // only with replicas to retry on, the server has to confirm that
+    // it serves the job
+    boolean retry = request[last].getReplicas().size()>1;
+    Set<String> refused = new HashSet<String>();
+    Set<String> none = Collections.emptySet();
+    while( true ) {
+      PipelineRequest[] reqs = new PipelineRequest[request.length];
+      String[] chosen = new String[request.length];
+      for(int i=0; i<request.length; i++) {
+	List<String> replicas = request[i].getReplicas();
+	if( replicas.size()==1 ) {
+	  reqs[i] = request[i];
+	  continue;
+	}
+	chosen[i] = balancer.acquire(replicas, i==last ? refused : none);
+	reqs[i] = request[i].forReplica(chosen[i]);
+      }
 
-    // get the FilterConnection and append ourselves to the request
-    // string
-    PipelineRequest myAddress = 
-      new PipelineRequest(host, serverSocket.getLocalPort());
-    myAddress.put("slot", Integer.toString(slot));
-    FilterConnection connection = new FilterConnection(request);
-    connection.append(myAddress);
+      // get the FilterConnection and append ourselves to the request
+      // string
+      PipelineRequest myAddress = 
+	new PipelineRequest(host, serverSocket.getLocalPort());
+      myAddress.put("slot", Integer.toString(slot));
+      FilterConnection connection = 
+	new FilterConnection(reqs, framed, compression, retry);
+      connection.append(myAddress);
 
-    InputStream filterIn;
+      Job job = new Job(slot, connection);
+      job.chosen = chosen;
+      try {
+	// This will eventually contact back to ourselves, starting the
+	// Feeder put in pending[slot]
+	job.filterIn = connection.connect();
+	return job;
+      } catch( ServiceUnavailException e ) {
+	String bad = chosen[last];
+	chosen[last] = null;
+	releaseReplicas(job);
+	if( bad==null ) throw e;
+	balancer.refused(bad);
+	refused.add(bad);
+	if( refused.size()==request[last].getReplicas().size() ) throw e;
+      }
+    }
+  }
+  private void releaseReplicas(Job job) {
+    for(String r : job.chosen) {
+      if( r!=null ) balancer.release(r);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets up the pipeline as determined by <code>request</code> for
+   * a {@link PipelineSession} through which any number of documents
+   * can be filtered. The session occupies one slot until it is
+   * {@link PipelineSession#close closed}.</p>
+   */
+  public PipelineSession openSession(PipelineRequest[] request) 
+    throws IOException
+  {
+    if( !running ) throw new IllegalStateException("server not running");
+
+    int slot = sem.acquire();
+    PipelineSession.SessionFeeder feeder = 
+      new PipelineSession.SessionFeeder();
+    pending[slot] = feeder;
+
+    Job job;
     try {
-      // This will eventually contact back to ourselves, starting the
-      // Feeder put in pending[slot]
-      filterIn = connection.connect();
+      job = connect(request, slot, true);
     } catch( IOException e ) {
       pending[slot] = null;
       sem.release(slot);
       throw e;
     }
-    connections.put(filterIn, new Job(slot, connection));
-    return filterIn;
+    return new PipelineSession(this, job, feeder);
+  }
+  /**
+   * <p>releases the slot and the replicas used by a
+   * <code>PipelineSession</code>.</p>
+   */
+  void release(Job job) {
+    releaseReplicas(job);
+    pending[job.slot] = null;
+    sem.release(job.slot);
   }
   /**********************************************************************/
   /**
@@ -327,8 +474,7 @@ public class DistPipeFilter {
     }
 
     Feeder f = pending[job.slot];
-    pending[job.slot] = null;
-    sem.release(job.slot);
+    release(job);
 
     // now do the things that might throw an exception
     job.connection.close();
@@ -42,9 +42,27 @@ class FilterConnection {
   private String host;
   private int port = -1;
   private StringBuilder tail = new StringBuilder();
+  // documents are exchanged as frames, see Frames
+  private boolean framed = false;
+  // data is sent compressed, see Compression
+  private boolean compressed = false;
+  // the downstream client asked us to confirm that we serve it
+  private boolean ackRequested = false;
+  // we ask the upstream server to confirm that it serves us
+  private boolean awaitAck = false;
 
-  // the upstream connection
+  /**
+   * <p>is the key of the parameter asking the server contacted
+   * directly to send {@link #ACK} as soon as it starts serving the
+   * connection. A server which is too busy closes the connection
+   * without sending it, so that the client can try elsewhere.</p>
+   */
+  static final String ACK_KEY = ".ack";
+  static final byte ACK = 6;
+
+  // the upstream connection and the stream returned for it
   private Socket socket = null;
+  private InputStream in = null;
 
   /**********************************************************************/
   // we create one instance of a Dfa to parse connection request read
@@ -118,7 +136,16 @@ class FilterConnection {
   public Map<String,String> getParameters() { return m; }
   /**********************************************************************/
   public FilterConnection(InputStream ctrlIn) throws IOException {
-    CharSource source = new ReaderCharSource(ctrlIn, "UTF-8");
+    parse(new ReaderCharSource(ctrlIn, "UTF-8"));
+  }
+  /**
+   * <p>parses a request which was already read completely, as done by
+   * {@link NioFilterServer}.</p>
+   */
+  FilterConnection(CharSequence request) throws IOException {
+    parse(new CharSequenceCharSource(request));
+  }
+  private void parse(CharSource source) throws IOException {
     DfaRun r = new DfaRun(requestParser, source);
     r.clientData = this.m;
     // if parameters cannot be correctly parsed or if the request is
@@ -127,6 +154,9 @@ class FilterConnection {
 
     host = m.remove(".host");
     String portString = m.remove(".port");
+    framed = m.remove(Frames.KEY)!=null;
+    compressed = m.remove(Compression.KEY)!=null;
+    ackRequested = m.remove(ACK_KEY)!=null;
 //     System.err.println("FilterConnection just got [[[host="+host
 // 		       +", port="+portString+", map="+m+"]]]");
     if( host==null ) return;
@@ -147,13 +177,50 @@ class FilterConnection {
    * the order in which data flows through them.</p>
    */
   public FilterConnection(PipelineRequest[] reqs) {
+    this(reqs, false);
+  }
+  /**
+   * <p>creates a <code>FilterConnection</code> as above, which
+   * requests all servers to exchange documents as {@link Frames}, if
+   * <code>framed</code> is <code>true</code>.</p>
+   */
+  FilterConnection(PipelineRequest[] reqs, boolean framed) {
+    this(reqs, framed, false);
+  }
+  /**
+   * <p>creates a <code>FilterConnection</code> as above, which
+   * additionally asks all servers to send their output compressed, if
+   * <code>compressed</code> is <code>true</code>. The input stream
+   * returned by {@link #connect} then decompresses the data.</p>
+   */
+  FilterConnection(PipelineRequest[] reqs, boolean framed,
+		   boolean compressed) {
+    this(reqs, framed, compressed, false);
+  }
+  /**
+   * <p>creates a <code>FilterConnection</code> as above, which asks
+   * the server contacted directly for an {@link #ACK}, if
+   * <code>awaitAck</code> is <code>true</code>. Then {@link #connect}
+   * waits until the server starts serving the connection and throws
+   * a {@link ServiceUnavailException} if it is closed instead.</p>
+   */
+  FilterConnection(PipelineRequest[] reqs, boolean framed,
+		   boolean compressed, boolean awaitAck) {
+    this.framed = framed;
+    this.compressed = compressed;
+    this.awaitAck = awaitAck;
     int last = reqs.length-1;
     this.host = reqs[last].getHost();
     // note: PipelineRequest guarantees a parsable int in the right range
     this.port = Integer.parseInt(reqs[last].getPort());
     reqs[last--].encode(tail, false);
+    markOptions();
+    if( awaitAck ) tail.append(';').append(ACK_KEY).append("=1");
 
-    while(last>=0 ) reqs[last--].encode(tail, true);
+    while(last>=0 ) {
+      reqs[last--].encode(tail, true);
+      markOptions();
+    }
 
 //     System.err.println("FilterConnection construtor: port="+port
 // 		       +", tail="+this.tail);
@@ -165,7 +232,35 @@ class FilterConnection {
    */
   void append(PipelineRequest req) {
     req.encode(tail, true);
+    markOptions();
   }
+  private void markOptions() {
+    if( framed ) tail.append(';').append(Frames.KEY).append("=1");
+    if( compressed ) tail.append(';').append(Compression.KEY).append("=1");
+  }
+  /**********************************************************************/
+  // for connecting without blocking, see NioFilterServer
+  String getHost() { return host; }
+  int getPort() { return port; }
+  CharSequence getTail() { return tail; }
+  /**
+   * <p>tells whether the request asks to exchange a sequence of
+   * documents as {@link Frames} instead of a single document.</p>
+   */
+  boolean isFramed() { return framed; }
+  /**
+   * <p>tells whether the request asks to send the output compressed
+   * as described for {@link Compression}. Because compression is
+   * requested for all servers of a pipeline alike, the upstream server
+   * was asked for it too, and {@link #connect} decompresses its
+   * data.</p>
+   */
+  boolean isCompressed() { return compressed; }
+  /**
+   * <p>tells whether the downstream client asked for an {@link #ACK},
+   * which must then be sent before any other output.</p>
+   */
+  boolean isAckRequested() { return ackRequested; }
   /**********************************************************************/
   /**
    * <p>reads parameters from the given <code>InputStream</code>,
@@ -191,7 +286,9 @@ class FilterConnection {
    * {@link #close} must be called.</p>
    *
    * @throws ServiceUnavailException if host or port for an upstream
-   * server are found in the request but there are problems to connect.
+   * server are found in the request but there are problems to
+   * connect, or if the upstream server was asked for an {@link #ACK}
+   * and closed the connection instead.
    */
   public InputStream connect() throws IOException {
     if( host==null || port==-1 ) {
@@ -216,17 +313,40 @@ class FilterConnection {
       throw new ServiceUnavailException("cannot contact upstream server "
 					+host+":"+port, e);
     }
-    return socket.getInputStream();
+    in = socket.getInputStream();
+    if( awaitAck ) {
+      int ack;
+      try {
+	ack = in.read();
+      } catch( IOException e ) {
+	ack = -1;
+      }
+      if( ack!=ACK ) {
+	try { socket.close(); } catch( Throwable ee ) { /** OOoooompf */ }
+	socket = null;
+	in = null;
+	throw new ServiceUnavailException("upstream server "+host+":"+port
+					  +" is busy");
+      }
+    }
+    if( compressed ) in = Compression.decompress(in);
+    return in;
   }
   /**********************************************************************/
   /**
-   * <p>close the upstream socket, if any.</p>
+   * <p>close the upstream socket, if any, together with the stream
+   * returned by {@link #connect}.</p>
    * @throws IOException if an I/O error occurs when closing this socket.
    */
   public void close() throws IOException {
     if( socket==null ) return;	// be generous
-    socket.close();
-    socket = null;
+    try {
+      if( in!=null ) in.close();
+    } finally {
+      socket.close();
+      socket = null;
+      in = null;
+    }
   }
   /**********************************************************************/
 }
@@ -17,6 +17,8 @@ Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
 package monq.net;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * <p>sets up a filter service as returned by any {@link
@@ -60,6 +62,18 @@ import java.io.*;
  * </li>
  * </ol>
  *
+ * <p>If the request comes from a {@link PipelineSession}, a fresh
+ * service is created for every document of the session, with its
+ * input and output kept in memory.</p>
+ *
+ * <p>If the request asks for compression, see {@link
+ * DistPipeFilter#setCompression}, the service's output is compressed
+ * and the input from upstream is decompressed transparently. The
+ * service sees plain streams either way.</p>
+ *
+ * <p>A client which can retry a busy server elsewhere asks for an
+ * acknowledgement, which is sent as soon as the service starts.</p>
+ *
  * @author &copy; 2004-2016 Harald Kirsch
  */
 public class FilterServiceFactory implements ServiceFactory {
@@ -143,9 +157,19 @@ public class FilterServiceFactory implements ServiceFactory {
       }
 
       Service svc = null;
+      OutputStream out = filterOut;
       try {
+	if( conn.isAckRequested() ) {
+	  filterOut.write(FilterConnection.ACK);
+	  filterOut.flush();
+	}
 	InputStream filterIn = conn.connect();
-	svc = fac.createService(filterIn, filterOut, conn.getParameters());
+	if( conn.isCompressed() ) out = Compression.compress(filterOut);
+	if( conn.isFramed() ) {
+	  runFramed(conn, filterIn, out);
+	} else {
+	  svc = fac.createService(filterIn, out, conn.getParameters());
+	}
       } catch( IOException ex ) {
 	// we cannot just return here, because we have to close the
 	// two streams in any case.
@@ -157,6 +181,14 @@ public class FilterServiceFactory implements ServiceFactory {
 	e = svc.getException();
       }
 
+      if( out!=filterOut ) {
+	try {
+	  Compression.finish(out);
+	} catch( IOException ex ) {
+	  if( e==null ) e = ex;
+	}
+      }
+
       try {
 	conn.close();
       } catch( java.io.IOException ex ) {
@@ -164,6 +196,51 @@ public class FilterServiceFactory implements ServiceFactory {
 	throw new Error("what am I supposed to do with this?", ex);
       }
     }
+    /**
+     * <p>runs a fresh service for every document arriving as a frame
+     * from upstream and sends its output as a frame downstream, until
+     * upstream closes the connection. Error frames and errors of the
+     * service are sent downstream as error frames.</p>
+     */
+    private void runFramed(FilterConnection conn, InputStream filterIn,
+			   OutputStream sink) 
+      throws IOException
+    {
+      DataInputStream in = 
+	new DataInputStream(new BufferedInputStream(filterIn));
+      DataOutputStream out = 
+	new DataOutputStream(new BufferedOutputStream(sink));
+      ByteArrayOutputStream doc = new ByteArrayOutputStream();
+      while( true ) {
+	byte[] b;
+	try {
+	  b = Frames.read(in);
+	} catch( Frames.ErrorFrame ex ) {
+	  Frames.writeError(out, ex.getMessage());
+	  continue;
+	}
+	if( b==null ) break;
+
+	doc.reset();
+	Exception ex;
+	try {
+	  Map<String,String> params = 
+	    new HashMap<String,String>(conn.getParameters());
+	  Service svc = 
+	    fac.createService(new ByteArrayInputStream(b), doc, params);
+	  svc.run();
+	  ex = svc.getException();
+	} catch( ServiceCreateException sce ) {
+	  ex = sce;
+	} catch( RuntimeException re ) {
+	  // only this document failed, the session goes on
+	  ex = re;
+	}
+	if( ex==null ) Frames.write(out, doc);
+	else Frames.writeError(out, ex.toString());
+      }
+      out.flush();
+    }
   }
   /**********************************************************************/
 }
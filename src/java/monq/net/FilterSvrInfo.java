@@ -20,7 +20,10 @@ import java.io.*;
 import java.util.*;
 /**
  * <p>describes a filter server running somewhere on the
- * network.
+ * network. Besides <code>host</code> and <code>port</code>, the
+ * configuration may list identical servers as
+ * <code>replicas=host1:port1,host2:port2</code>, among which a
+ * {@link DistPipeFilter} balances the jobs.</p>
 
  */
 public class FilterSvrInfo {
@@ -40,6 +43,12 @@ public class FilterSvrInfo {
   /** port number on which the server is listening */
   public final int port;
 
+  /**
+   * further servers providing the same service, each in the form
+   * <code>host:port</code>.
+   */
+  public final List<String> replicas;
+
   /**
    * <p>the Request used by a DistPipeFilter to access this server. It
    * is assembled from <code>host</code> and <code>port</code>
@@ -59,10 +68,33 @@ public class FilterSvrInfo {
   }
   /**********************************************************************/
   public FilterSvrInfo(String name, String synopsis, String host, int port) {
+    this(name, synopsis, host, port, Collections.<String>emptyList());
+  }
+  /**
+   * <p>describes a server that is replicated on the given further
+   * servers, each in the form <code>host:port</code>.</p>
+   *
+   * @throws IllegalArgumentException if a replica has no valid port
+   */
+  public FilterSvrInfo(String name, String synopsis, String host, int port,
+		       List<String> replicas) {
     this.name = name;
     this.synopsis = synopsis;
     this.host = host;
     this.port = port;
+    this.replicas = 
+      Collections.unmodifiableList(new ArrayList<String>(replicas));
+    request = new PipelineRequest(name, host, port);
+    for(String r : replicas) {
+      int colon = r.lastIndexOf(':');
+      try {
+	request.addReplica(r.substring(0, colon),
+			   Integer.parseInt(r.substring(colon+1)));
+      } catch( RuntimeException e ) {
+	throw new IllegalArgumentException
+	  ("replica `"+r+"' is not of the form host:port", e);
+      }
+    }
   }
   /**********************************************************************/
   private static String getName(String fName) {
@@ -100,7 +132,15 @@ public class FilterSvrInfo {
     String synopsis = props.getProperty("synopsis", "(no synopsis given");
     String name = props.getProperty("name", "filter on "+host+":"+port);
 
-    return new FilterSvrInfo(name, synopsis, host, port);
+    List<String> replicas = new ArrayList<String>();
+    for(String r : props.getProperty("replicas", "").split("[ ,]+")) {
+      if( r.length()>0 ) replicas.add(r);
+    }
+    try {
+      return new FilterSvrInfo(name, synopsis, host, port, replicas);
+    } catch( IllegalArgumentException e ) {
+      throw new ServiceCreateException(e.getMessage(), e);
+    }
   }
   /**********************************************************************/
   /**
@@ -0,0 +1,121 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * <p>reads and writes the frames used by a {@link PipelineSession} to
+ * pass many documents through one chain of connections. A frame is
+ * the length of the document as a 4 byte integer followed by the
+ * bytes of the document. If a filter fails on a document, it sends
+ * an error frame instead, which has length {@link #ERROR} and is
+ * followed by the error message as written by {@link
+ * DataOutputStream#writeUTF}. The end of a session is signalled by
+ * closing the connection after a complete frame. Documents are
+ * limited to {@link #MAXFRAME} bytes.</p>
+ */
+final class Frames {
+  /**
+   * <p>is the key of the parameter telling a server that documents
+   * arrive as frames.</p>
+   */
+  static final String KEY = ".frames";
+
+  static final int ERROR = -1;
+
+  /**
+   * <p>is the maximum length of a document in a frame. A longer
+   * length read from the connection is not trusted enough to allocate
+   * a buffer for it.</p>
+   */
+  static final int MAXFRAME = 64*1024*1024;
+
+  // longest message fitting into writeUTF
+  private static final int MAXMESSAGE = 16000;
+
+  private Frames() {}
+
+  /**********************************************************************/
+  /**
+   * <p>is thrown by {@link #read read()} for an error frame. The
+   * connection is still intact.</p>
+   */
+  static final class ErrorFrame extends IOException {
+    ErrorFrame(String msg) { super(msg); }
+  }
+  /**********************************************************************/
+  static void write(DataOutputStream out, byte[] b, int len)
+    throws IOException
+  {
+    checkLength(len);
+    out.writeInt(len);
+    out.write(b, 0, len);
+    out.flush();
+  }
+  static void write(DataOutputStream out, ByteArrayOutputStream doc)
+    throws IOException
+  {
+    checkLength(doc.size());
+    out.writeInt(doc.size());
+    doc.writeTo(out);
+    out.flush();
+  }
+  static void writeError(DataOutputStream out, String msg) 
+    throws IOException
+  {
+    if( msg==null ) msg = "unknown error";
+    if( msg.length()>MAXMESSAGE ) msg = msg.substring(0, MAXMESSAGE);
+    out.writeInt(ERROR);
+    out.writeUTF(msg);
+    out.flush();
+  }
+  /**********************************************************************/
+  /**
+   * <p>reads the next frame and returns the document contained.</p>
+   *
+   * @return <code>null</code> if the connection was closed after the
+   * previous frame.
+   *
+   * @throws ErrorFrame if an error frame was read.
+   */
+  static byte[] read(DataInputStream in) throws IOException {
+    int ch = in.read();
+    if( ch<0 ) return null;
+    int len = (ch<<24) | (in.readUnsignedByte()<<16) 
+      | (in.readUnsignedByte()<<8) | in.readUnsignedByte();
+    if( len==ERROR ) throw new ErrorFrame(in.readUTF());
+    if( len<0 ) throw new IOException("invalid frame length "+len);
+    checkLength(len);
+    byte[] b = new byte[len];
+    try {
+      in.readFully(b);
+    } catch( EOFException e ) {
+      throw new EOFException("connection closed within a frame");
+    }
+    return b;
+  }
+  private static void checkLength(int len) throws IOException {
+    if( len<=MAXFRAME ) return;
+    throw new IOException("frame length "+len
+                          +" exceeds the maximum of "+MAXFRAME);
+  }
+}
@@ -0,0 +1,281 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>is a single long lived connection between two nodes over which
+ * many filter jobs run concurrently, each as a {@link MuxStream}. The
+ * client side is created with one of the public constructors and
+ * starts jobs with {@link #open open()}. The other end is a {@link
+ * MuxServer}, which runs a service for each stream.</p>
+ *
+ * <p>Data travels in frames which consist of a one byte frame type,
+ * the four byte id of the stream, the four byte length of the payload
+ * and the payload. The frame types are</p>
+ * <dl>
+ * <dt>OPEN</dt><dd>starts a stream, the payload contains the
+ * parameters for the service,</dd>
+ * <dt>DATA</dt><dd>carries data of a stream,</dd>
+ * <dt>END</dt><dd>signals that the sender will not send more data on
+ * the stream,</dd>
+ * <dt>CREDIT</dt><dd>allows the other side to send the given number
+ * of further bytes on the stream,</dd>
+ * <dt>CANCEL</dt><dd>aborts the stream,</dd>
+ * <dt>ERROR</dt><dd>reports that the service of the stream failed,
+ * the payload is the message.</dd>
+ * </dl>
+ *
+ * <p>Objects of this class may be used by many threads in
+ * parallel. A reader thread started in the constructor distributes
+ * incoming frames to the streams.</p>
+ */
+public class MuxConnection implements java.io.Closeable {
+  static final int OPEN = 1;
+  static final int DATA = 2;
+  static final int END = 3;
+  static final int CREDIT = 4;
+  static final int CANCEL = 5;
+  static final int ERROR = 6;
+
+  // initial number of bytes a stream may send in each direction
+  static final int WINDOW = 64*1024;
+  // maximum payload of a DATA frame
+  static final int MAXDATA = 16*1024;
+  // maximum payload of any frame
+  private static final int MAXFRAME = 1024*1024;
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final Map<Integer,MuxStream> streams = new HashMap<>();
+  // null on the client side
+  private final MuxServer server;
+  private int nextId = 1;
+  private String failure = null;
+
+  /**********************************************************************/
+  /**
+   * <p>connects to the {@link MuxServer} on the given host and
+   * port.</p>
+   */
+  public MuxConnection(String host, int port) throws IOException {
+    this(new Socket(host, port), null);
+  }
+  /**
+   * <p>uses the given socket, which must be connected to a {@link
+   * MuxServer}.</p>
+   */
+  public MuxConnection(Socket socket) throws IOException {
+    this(socket, null);
+  }
+  MuxConnection(Socket socket, MuxServer server) throws IOException {
+    this.socket = socket;
+    this.server = server;
+    socket.setTcpNoDelay(true);
+    this.in = new DataInputStream
+      (new BufferedInputStream(socket.getInputStream()));
+    this.out = new DataOutputStream
+      (new BufferedOutputStream(socket.getOutputStream()));
+    Thread t = new Thread(new Reader(), "MuxConnection-"+socket.getPort());
+    t.setDaemon(true);
+    t.start();
+  }
+  /**********************************************************************/
+  /**
+   * <p>starts a new job on the remote server. The parameters are
+   * passed to the {@link ServiceFactory} of the server.</p>
+   */
+  public MuxStream open(Map<String,String> params) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream dout = new DataOutputStream(bout);
+    dout.writeInt(params.size());
+    for(Map.Entry<String,String> e : params.entrySet()) {
+      dout.writeUTF(e.getKey());
+      dout.writeUTF(e.getValue());
+    }
+    MuxStream s;
+    synchronized(streams) {
+      if( failure!=null ) throw new IOException(failure);
+      s = new MuxStream(this, nextId, false);
+      nextId += 1;
+      streams.put(s.getId(), s);
+    }
+    byte[] b = bout.toByteArray();
+    send(OPEN, s.getId(), b, 0, b.length);
+    return s;
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns the number of streams currently active.</p>
+   */
+  public int getStreamCount() {
+    synchronized(streams) {
+      return streams.size();
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>closes the connection. All streams still active fail.</p>
+   */
+  public void close() throws IOException {
+    shutdown("connection closed");
+    socket.close();
+  }
+  /**********************************************************************/
+  void remove(MuxStream s) {
+    synchronized(streams) {
+      streams.remove(s.getId());
+    }
+  }
+  /**********************************************************************/
+  void send(int type, int id, byte[] b, int off, int len) 
+    throws IOException
+  {
+    synchronized(out) {
+      out.writeByte(type);
+      out.writeInt(id);
+      out.writeInt(len);
+      if( len>0 ) out.write(b, off, len);
+      out.flush();
+    }
+  }
+  void sendInt(int type, int id, int value) throws IOException {
+    synchronized(out) {
+      out.writeByte(type);
+      out.writeInt(id);
+      out.writeInt(4);
+      out.writeInt(value);
+      out.flush();
+    }
+  }
+  /**********************************************************************/
+  private void shutdown(String msg) {
+    List<MuxStream> dead;
+    synchronized(streams) {
+      if( failure==null ) failure = msg;
+      dead = new ArrayList<>(streams.values());
+      streams.clear();
+    }
+    for(MuxStream s : dead) s.fail(msg);
+  }
+  /**********************************************************************/
+  private static Map<String,String> decodeParams(byte[] b) 
+    throws IOException
+  {
+    DataInputStream din = new DataInputStream(new ByteArrayInputStream(b));
+    int n = din.readInt();
+    Map<String,String> m = new HashMap<>();
+    for(int i=0; i<n; i++) m.put(din.readUTF(), din.readUTF());
+    return m;
+  }
+  /**********************************************************************/
+  private void handle(int type, int id, byte[] b) throws IOException {
+    MuxStream s;
+    if( type==OPEN ) {
+      if( server==null ) throw new IOException("OPEN frame sent to client");
+      Map<String,String> params = decodeParams(b);
+      s = new MuxStream(this, id, true);
+      synchronized(streams) {
+	if( streams.containsKey(id) ) {
+	  throw new IOException("stream "+id+" opened twice");
+	}
+	streams.put(id, s);
+      }
+      server.startService(this, s, params);
+      return;
+    }
+
+    synchronized(streams) {
+      s = streams.get(id);
+    }
+    // frames for streams already finished or cancelled are dropped
+    if( s==null ) return;
+
+    switch( type ) {
+    case DATA: 
+      s.received(b);
+      break;
+    case END:
+      if( server==null ) remove(s);
+      s.receivedEnd();
+      break;
+    case CREDIT:
+      s.credit(new DataInputStream(new ByteArrayInputStream(b)).readInt());
+      break;
+    case CANCEL:
+      remove(s);
+      s.fail("stream cancelled by peer");
+      break;
+    case ERROR:
+      remove(s);
+      s.fail(new String(b, "UTF-8"));
+      break;
+    default:
+      throw new IOException("unknown frame type "+type);
+    }
+  }
+  /**********************************************************************/
+  private final class Reader implements Runnable {
+    public void run() {
+      String msg = "connection closed by peer";
+      try {
+	while( true ) {
+	  int type = in.read();
+	  if( type<0 ) break;
+	  int id = in.readInt();
+	  int len = in.readInt();
+	  if( len<0 || len>MAXFRAME ) {
+	    throw new IOException("invalid frame length "+len);
+	  }
+	  byte[] b = new byte[len];
+	  in.readFully(b);
+	  handle(type, id, b);
+	}
+      } catch( EOFException e ) {
+	msg = "connection closed within a frame";
+      } catch( IOException e ) {
+	msg = "connection failed: "+e.getMessage();
+	if( server!=null ) server.connectionFailed(MuxConnection.this, e);
+      }
+      shutdown(msg);
+      try {
+	socket.close();
+      } catch( IOException e ) {
+	// nothing left to do
+      }
+    }
+  }
+  /**********************************************************************/
+  public String toString() {
+    return "MuxConnection("+socket.getInetAddress().getHostAddress()
+      +":"+socket.getPort()+")";
+  }
+}
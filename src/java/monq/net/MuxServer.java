@@ -0,0 +1,222 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Date;
+import java.util.Map;
+
+import monq.stuff.VirtualThreads;
+
+/**
+ * <p>serves filter jobs multiplexed over {@link MuxConnection}s. For
+ * every {@link MuxStream} opened by a client, the
+ * {@link ServiceFactory} is asked for a new service, exactly like a
+ * {@link TcpServer} does for every connection. The service reads
+ * the input of the stream and writes to its output. The parameters
+ * sent with {@link MuxConnection#open MuxConnection.open()} are
+ * passed to the factory as a <code>Map</code>, as done by the {@link
+ * FilterServiceFactory}. Any existing factory, for example {@link
+ * monq.programs.DictFilter} or {@link monq.programs.Grep}, can
+ * therefore be served without change.</p>
+ *
+ * <p>Every service runs on its own thread, which is a virtual thread
+ * if the Java runtime supports them. A client may open up to
+ * {@link #setMaxStreams maxStreams} streams on one connection at a
+ * time. Further streams fail immediately.</p>
+ */
+public class MuxServer implements Runnable {
+  private final ServerSocket socket;
+  private final ServiceFactory fac;
+  private int maxStreams = 1000;
+  private final String myName;
+
+  private PrintStream log = null;
+  private java.text.SimpleDateFormat date;
+  private boolean loggingDebug;
+
+  /**********************************************************************/
+  /**
+   * <p>creates a server to listen on the given socket.</p>
+   */
+  public MuxServer(ServerSocket socket, ServiceFactory fac) {
+    this.socket = socket;
+    this.fac = fac;
+    this.myName = "MuxServer("+fac+")";
+  }
+  /**
+   * <p>creates a server to listen on the given port.</p>
+   */
+  public MuxServer(int port, ServiceFactory fac) throws IOException {
+    this(new ServerSocket(port), fac);
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the maximum number of streams running in parallel on one
+   * connection. The default is 1000.</p>
+   * @return this
+   */
+  public synchronized MuxServer setMaxStreams(int maxStreams) {
+    this.maxStreams = maxStreams;
+    return this;
+  }
+  /**
+   * @return this
+   */
+  public synchronized MuxServer setLogging(PrintStream log) {
+    date = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm.ss");
+    this.log = log;
+    return this;
+  }
+  /**
+   * <p>given that logging was enabled with {@link #setLogging
+   * setLogging()}, switch to really verbose logging.</p>
+   * @return this
+   */
+  public synchronized MuxServer setDebug() {
+    loggingDebug = true;
+    return this;
+  }
+  /**
+   * <p>returns the port the server is listening on.</p>
+   */
+  public int getLocalPort() {
+    return socket.getLocalPort();
+  }
+  /**********************************************************************/
+  private void log(String what, CharSequence s, Throwable e) {
+    if( log==null ) return;
+    synchronized(log) {
+      log.print(date.format(new Date()));
+      log.print("(");
+      log.print(what);
+      log.print("): ");
+      log.print(s);
+      if( e!=null ) {
+	log.println("<stack>");
+	e.printStackTrace(log);
+	log.println("</stack>");
+      }
+    }
+  }
+  private void log(String what, CharSequence s) {
+    if( !loggingDebug ) return;
+    log(what, s, null);
+  }
+  /**********************************************************************/
+  /**
+   * <p>calls {@link #serve} and writes exceptions to the log.</p>
+   */
+  public void run() {
+    try {
+      serve();
+    } catch( IOException e ) {
+      if( log!=null ) {
+	log("fail", "server exited due to exception ", e);
+      } else {
+	e.printStackTrace();
+      }
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>closes the server socket so that {@link #serve} returns.
+   * Connections already established are not affected.</p>
+   */
+  public void shutdown() {
+    log("shutdown", "\n", null);
+    try {
+      if( !socket.isClosed() ) socket.close();
+    } catch( IOException e ) {
+      throw new Error("should not happen", e);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>accepts connections until {@link #shutdown} is called.</p>
+   */
+  public void serve() throws IOException {
+    log("startup", this+" port "+socket.getLocalPort()+"\n", null);
+    while( true ) {
+      Socket io;
+      try {
+	io = socket.accept();
+      } catch( java.net.SocketException e ) {
+	if( socket.isClosed() ) return;
+	throw e;
+      }
+      MuxConnection conn = new MuxConnection(io, this);
+      log("connect", conn+"\n");
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>is called by the reader thread of <code>conn</code> when the
+   * client opens stream <code>s</code>. The service is created on the
+   * thread of the stream, because a factory may already read input,
+   * which only the reader thread can deliver.</p>
+   */
+  void startService(final MuxConnection conn, final MuxStream s, 
+		    final Map<String,String> params) throws IOException 
+  {
+    if( conn.getStreamCount()>maxStreams ) {
+      log("rejected", conn+" stream "+s.getId()
+	  +", too many streams\n", null);
+      s.finish(new ServiceUnavailException("too many streams"));
+      return;
+    }
+    final String name = conn+" stream "+s.getId();
+    Runnable shell = new Runnable() {
+	public void run() {
+	  Exception e = null;
+	  try {
+	    Service svc = fac.createService(s.getInputStream(),
+					    s.getOutputStream(), params);
+	    log("starting", name+", service "+svc+"\n");
+	    svc.run();
+	    e = svc.getException();
+	    if( e!=null ) log("error", name+" threw Exception\n", e);
+	  } catch( ServiceCreateException ex ) {
+	    e = ex;
+	    log("error", name+", could not create service because\n", ex);
+	    if( !(ex instanceof ServiceUnavailException) ) shutdown();
+	  } catch( RuntimeException ex ) {
+	    e = ex;
+	    log("error", name+" threw Exception\n", e);
+	  }
+	  try {
+	    s.finish(e);
+	  } catch( IOException ex ) {
+	    log("error", name+", cannot finish stream\n", ex);
+	  }
+	  log("done", name+" done\n");
+	}
+      };
+    VirtualThreads.newThread(shell, myName+"-"+s.getId(), true).start();
+  }
+  /**********************************************************************/
+  void connectionFailed(MuxConnection conn, IOException e) {
+    log("error", conn+" failed\n", e);
+  }
+  /**********************************************************************/
+  public String toString() {
+    return myName;
+  }
+}
@@ -0,0 +1,256 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * <p>is one filter job multiplexed over a {@link MuxConnection}. Data
+ * written to the {@link #getOutputStream OutputStream} is the input
+ * of the remote service, and its output is read from the {@link
+ * #getInputStream InputStream}. Closing the
+ * <code>OutputStream</code> signals EOF to the remote service.</p>
+ *
+ * <p>Each direction is flow controlled on its own. A writer may only
+ * send as many bytes as the reader on the other side has granted,
+ * which it does as it consumes the data. A slow job therefore blocks
+ * only its own writer, never the connection or other jobs.</p>
+ *
+ * <p>Data written is collected up to 16k and then sent. Call
+ * <code>flush()</code> to send it earlier.</p>
+ *
+ * <p>If the remote service fails, reading throws an
+ * <code>IOException</code> with the message of the remote
+ * exception.</p>
+ */
+public class MuxStream {
+  private final MuxConnection conn;
+  private final int id;
+  // true on the side that runs the service
+  private final boolean serverSide;
+
+  // input received but not yet read
+  private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+  private int chunkPos = 0;
+  private boolean inEnd = false;
+  // bytes read since the last credit was sent
+  private int consumed = 0;
+
+  // bytes we may still send
+  private int window = MuxConnection.WINDOW;
+  private boolean outClosed = false;
+
+  // set if the stream is dead for good, the reason is the message
+  private String failure = null;
+
+  private final In in = new In();
+  private final Out out = new Out();
+
+  /**********************************************************************/
+  MuxStream(MuxConnection conn, int id, boolean serverSide) {
+    this.conn = conn;
+    this.id = id;
+    this.serverSide = serverSide;
+  }
+  /**********************************************************************/
+  /** returns the id of the stream, unique within its connection. */
+  public int getId() { return id; }
+
+  /**
+   * <p>returns the stream from which to read the output of the remote
+   * service.</p>
+   */
+  public InputStream getInputStream() { return in; }
+
+  /**
+   * <p>returns the stream to write the input for the remote service
+   * to. It must be closed to signal EOF to the service.</p>
+   */
+  public OutputStream getOutputStream() { return out; }
+
+  /**********************************************************************/
+  /**
+   * <p>aborts the job. The remote service sees an
+   * <code>IOException</code> on its next read or write, and local
+   * reads and writes fail from now on. Calling this method on a
+   * finished stream has no effect.</p>
+   */
+  public void cancel() throws IOException {
+    synchronized(this) {
+      if( failure!=null ) return;
+      failure = "stream cancelled";
+      chunks.clear();
+      notifyAll();
+    }
+    conn.remove(this);
+    conn.send(MuxConnection.CANCEL, id, null, 0, 0);
+  }
+  /**********************************************************************/
+  // the following are called by the reader thread of the connection
+
+  synchronized void received(byte[] b) {
+    if( failure!=null || inEnd ) return;
+    chunks.add(b);
+    notifyAll();
+  }
+  synchronized void receivedEnd() {
+    inEnd = true;
+    // on the client side, END means the service is done and will not
+    // read anything else
+    if( !serverSide ) fail("stream finished by the service");
+    notifyAll();
+  }
+  synchronized void credit(int n) {
+    window += n;
+    notifyAll();
+  }
+  synchronized void fail(String msg) {
+    if( failure==null ) failure = msg;
+    notifyAll();
+  }
+  /**********************************************************************/
+  /**
+   * <p>is called on the server side when the service is done. Sends
+   * the rest of the output and END, or an ERROR frame, unless the
+   * stream was cancelled.</p>
+   */
+  void finish(Exception e) throws IOException {
+    boolean cancelled;
+    synchronized(this) {
+      cancelled = failure!=null;
+    }
+    if( cancelled ) {
+      conn.remove(this);
+      return;
+    }
+    try {
+      if( e==null ) {
+	out.close();
+	return;
+      }
+      synchronized(this) {
+	outClosed = true;
+      }
+      String msg = e.toString();
+      byte[] b = msg.getBytes("UTF-8");
+      conn.send(MuxConnection.ERROR, id, b, 0, b.length);
+    } finally {
+      conn.remove(this);
+    }
+  }
+  /**********************************************************************/
+  private final class In extends InputStream {
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int l = read(b, 0, 1);
+      return l<0 ? -1 : b[0]&0xff;
+    }
+    public int read(byte[] b, int off, int len) throws IOException {
+      if( len==0 ) return 0;
+      int l;
+      int credit = 0;
+      synchronized(MuxStream.this) {
+	while( chunks.isEmpty() ) {
+	  if( inEnd ) return -1;
+	  if( failure!=null ) throw new IOException(failure);
+	  waitHere();
+	}
+	byte[] chunk = chunks.peek();
+	l = Math.min(len, chunk.length-chunkPos);
+	System.arraycopy(chunk, chunkPos, b, off, l);
+	chunkPos += l;
+	if( chunkPos==chunk.length ) {
+	  chunks.remove();
+	  chunkPos = 0;
+	}
+	consumed += l;
+	if( consumed>=MuxConnection.WINDOW/2 && !inEnd ) {
+	  credit = consumed;
+	  consumed = 0;
+	}
+      }
+      // never send while holding the lock, the socket may block
+      if( credit>0 ) conn.sendInt(MuxConnection.CREDIT, id, credit);
+      return l;
+    }
+    public int available() {
+      synchronized(MuxStream.this) {
+	int n = 0;
+	for(byte[] c : chunks) n += c.length;
+	return n-chunkPos;
+      }
+    }
+  }
+  /**********************************************************************/
+  private final class Out extends OutputStream {
+    private final byte[] buf = new byte[MuxConnection.MAXDATA];
+    private int count = 0;
+
+    public void write(int b) throws IOException {
+      if( count==buf.length ) flush();
+      buf[count++] = (byte)b;
+    }
+    public void write(byte[] b, int off, int len) throws IOException {
+      while( len>0 ) {
+	if( count==buf.length ) flush();
+	int l = Math.min(len, buf.length-count);
+	System.arraycopy(b, off, buf, count, l);
+	count += l;
+	off += l;
+	len -= l;
+      }
+    }
+    public void flush() throws IOException {
+      int start = 0;
+      while( start<count ) {
+	int l;
+	synchronized(MuxStream.this) {
+	  if( outClosed ) throw new IOException("stream closed");
+	  while( window<=0 && failure==null ) waitHere();
+	  if( failure!=null ) throw new IOException(failure);
+	  l = Math.min(window, count-start);
+	  window -= l;
+	}
+	conn.send(MuxConnection.DATA, id, buf, start, l);
+	start += l;
+      }
+      count = 0;
+    }
+    public void close() throws IOException {
+      synchronized(MuxStream.this) {
+	if( outClosed ) return;
+      }
+      flush();
+      synchronized(MuxStream.this) {
+	outClosed = true;
+      }
+      conn.send(MuxConnection.END, id, null, 0, 0);
+    }
+  }
+  /**********************************************************************/
+  private void waitHere() throws InterruptedIOException {
+    try {
+      wait();
+    } catch( InterruptedException e ) {
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -0,0 +1,459 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import monq.jfa.DfaRun;
+
+/**
+ * <p>is a filter server for distributed pipes, like a {@link
+ * TcpServer} running a {@link FilterServiceFactory}, but built on
+ * non-blocking channels. A small number of threads, each running a
+ * <code>java.nio.channels.Selector</code>, serves any number of
+ * concurrent filter jobs. Data is read from the upstream server as
+ * it arrives, fed into a {@link DfaRun} and written downstream as the
+ * socket becomes writable. If the downstream client does not keep
+ * up, reading from upstream is paused.</p>
+ *
+ * <p>The server speaks the same protocol as a
+ * <code>FilterServiceFactory</code>, so it can be used with {@link
+ * DistPipeFilter} and {@link PipelineRequest} as before. The
+ * <code>DfaRun</code> for each job is created by a {@link
+ * DfaRunFactory} which receives the parameters of the request.</p>
+ *
+ * <p>Because everything happens on the selector threads, the
+ * callbacks of the <code>DfaRun</code> must not block.</p>
+ */
+public class NioFilterServer implements Runnable {
+
+  // DOS protection: the request of a job may not be longer than this
+  private static final int MAXREQUEST = 64*1024;
+
+  // reading from upstream is paused if that many bytes are waiting to
+  // be written downstream
+  private static final int HIGHWATER = 256*1024;
+
+  private final ServerSocketChannel server;
+  private final DfaRunFactory fac;
+  private final Loop[] loops;
+  private Charset charset = StandardCharsets.UTF_8;
+
+  private PrintStream log = null;
+  private java.text.SimpleDateFormat date;
+  private boolean loggingDebug;
+  private final String myName;
+
+  /**********************************************************************/
+  /**
+   * <p>creates a server to accept filter jobs on <code>server</code>
+   * and to serve them on <code>threads</code> selector threads.</p>
+   */
+  public NioFilterServer(ServerSocketChannel server, DfaRunFactory fac,
+			 int threads) throws IOException {
+    this.server = server;
+    this.fac = fac;
+    this.myName = "NioFilterServer("+fac+")";
+    this.loops = new Loop[threads];
+    for(int i=0; i<threads; i++) loops[i] = new Loop(i);
+  }
+  /**
+   * <p>creates a server to listen on the given port.</p>
+   */
+  public NioFilterServer(int port, DfaRunFactory fac, int threads)
+    throws IOException
+  {
+    this(openServer(port), fac, threads);
+  }
+  private static ServerSocketChannel openServer(int port) throws IOException {
+    ServerSocketChannel s = ServerSocketChannel.open();
+    s.bind(new InetSocketAddress(port));
+    return s;
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the character set used to decode the input and encode the
+   * output of the filter jobs. The default is UTF-8.</p>
+   *
+   * @return this
+   */
+  public synchronized NioFilterServer setCharset(Charset charset) {
+    this.charset = charset;
+    return this;
+  }
+  /**
+   * @return this
+   */
+  public synchronized NioFilterServer setLogging(PrintStream log) {
+    date = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm.ss");
+    this.log = log;
+    return this;
+  }
+  /**
+   * @return this
+   */
+  public synchronized NioFilterServer setDebug() {
+    loggingDebug = true;
+    return this;
+  }
+  /**
+   * returns the port the server is listening on.
+   */
+  public int getLocalPort() {
+    return server.socket().getLocalPort();
+  }
+  /**********************************************************************/
+  private void log(String what, CharSequence s, Throwable e) {
+    if( log==null ) return;
+    synchronized(log) {
+      log.print(date.format(new Date()));
+      log.print("(");
+      log.print(what);
+      log.print("): ");
+      log.print(s);
+      if( e!=null ) {
+	log.println("<stack>");
+	e.printStackTrace(log);
+	log.println("</stack>");
+      }
+    }
+  }
+  private void log(String what, CharSequence s) {
+    if( !loggingDebug ) return;
+    log(what, s, null);
+  }
+  /**********************************************************************/
+  /**
+   * <p>calls {@link #serve} and writes exceptions to the log.</p>
+   */
+  public void run() {
+    try {
+      serve();
+    } catch( IOException e ) {
+      if( log!=null ) {
+	log("fail", "server exited due to exception ", e);
+      } else {
+	e.printStackTrace();
+      }
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>closes the server channel and stops the selector
+   * threads. Running jobs are aborted.</p>
+   */
+  public void shutdown() {
+    log("shutdown", "\n", null);
+    try {
+      server.close();
+    } catch( IOException e ) {
+      throw new Error("should not happen", e);
+    }
+    for(Loop l : loops) l.close();
+  }
+  /**********************************************************************/
+  /**
+   * <p>starts the selector threads and accepts connections until
+   * {@link #shutdown} is called, handing them to the selector threads
+   * in turn.</p>
+   */
+  public void serve() throws IOException {
+    log("startup", this+" port "+getLocalPort()+" with "
+	+loops.length+" selector threads\n", null);
+    for(Loop l : loops) {
+      Thread t = new Thread(l, myName+"-"+l.id);
+      t.setDaemon(true);
+      t.start();
+    }
+    for(int id=0; true; id++) {
+      SocketChannel client;
+      try {
+	client = server.accept();
+      } catch( java.nio.channels.ClosedChannelException e ) {
+	return;
+      }
+      log("connect", "job "+id+" for "+client.getRemoteAddress()+"\n");
+      loops[id%loops.length].add(new Job(id, client));
+    }
+  }
+  /**********************************************************************/
+  public String toString() {
+    return myName;
+  }
+  /**********************************************************************/
+  // one selector thread
+  private final class Loop implements Runnable {
+    private final int id;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Job> incoming =
+      new ConcurrentLinkedQueue<>();
+
+    Loop(int id) throws IOException {
+      this.id = id;
+      this.selector = Selector.open();
+    }
+
+    void add(Job job) {
+      incoming.add(job);
+      selector.wakeup();
+    }
+
+    void close() {
+      try {
+	selector.close();
+      } catch( IOException e ) {
+	log("error", "closing selector "+id+"\n", e);
+      }
+    }
+
+    public void run() {
+      try {
+	while( true ) {
+	  selector.select();
+	  Job job;
+	  while( null!=(job=incoming.poll()) ) job.register(selector);
+
+	  Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+	  while( it.hasNext() ) {
+	    SelectionKey key = it.next();
+	    it.remove();
+	    job = (Job)key.attachment();
+	    try {
+	      job.handle(key);
+	    } catch( IOException | RuntimeException e ) {
+	      log("error", "job "+job.id+" failed\n", e);
+	      job.close();
+	    }
+	  }
+	}
+      } catch( ClosedSelectorException e ) {
+	// shutdown
+      } catch( IOException e ) {
+	log("fail", "selector "+id+" failed\n", e);
+      }
+    }
+  }
+  /**********************************************************************/
+  // the state of one filter job with its downstream client and its
+  // upstream server
+  private final class Job {
+    private final int id;
+    private final SocketChannel client;
+    private SocketChannel upstream = null;
+    private SelectionKey clientKey;
+    private SelectionKey upstreamKey;
+
+    private ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private ByteBuffer tail;
+
+    private DfaRun filter;
+    private CharsetDecoder dec;
+    private CharsetEncoder enc;
+    private final ByteBuffer inBuf = ByteBuffer.allocate(8192);
+    private final CharBuffer chars = CharBuffer.allocate(8192);
+    private final StringBuilder outChars = new StringBuilder();
+    // bytes waiting to be written downstream, in write mode
+    private ByteBuffer outBuf = ByteBuffer.allocate(8192);
+    private boolean upstreamEof = false;
+
+    Job(int id, SocketChannel client) {
+      this.id = id;
+      this.client = client;
+    }
+
+    void register(Selector selector) throws IOException {
+      client.configureBlocking(false);
+      clientKey = client.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    void handle(SelectionKey key) throws IOException {
+      if( !key.isValid() ) return;
+      if( key==clientKey ) {
+	if( key.isReadable() ) readRequest();
+	if( key.isValid() && key.isWritable() ) writeDownstream();
+	return;
+      }
+      if( key.isConnectable() ) {
+	// stays interested in OP_CONNECT until the connection is there
+	if( !upstream.finishConnect() ) return;
+	upstreamKey.interestOps(SelectionKey.OP_WRITE);
+      } else if( key.isWritable() ) {
+	upstream.write(tail);
+	if( tail.hasRemaining() ) return;
+	upstream.shutdownOutput();
+	upstreamKey.interestOps(SelectionKey.OP_READ);
+      } else if( key.isReadable() ) {
+	readUpstream();
+      }
+    }
+
+    // the downstream client sends the request and then shuts down its
+    // output
+    private void readRequest() throws IOException {
+      ByteBuffer b = ByteBuffer.allocate(4096);
+      int l = client.read(b);
+      if( l>0 ) {
+	request.write(b.array(), 0, l);
+	if( request.size()>MAXREQUEST ) {
+	  throw new IOException("request longer than "+MAXREQUEST+" bytes");
+	}
+	return;
+      }
+      if( l==0 ) return;
+
+      FilterConnection conn =
+	new FilterConnection(request.toString("UTF-8"));
+      request = null;
+      if( conn.getHost()==null ) {
+	throw new ServiceUnavailException("request has no upstream server");
+      }
+      if( conn.isFramed() ) {
+	throw new ServiceUnavailException("pipeline sessions not supported");
+      }
+      if( conn.isCompressed() ) {
+	throw new ServiceUnavailException("compression not supported");
+      }
+      filter = fac.createRun(conn.getParameters());
+      dec = charset.newDecoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+      enc = charset.newEncoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+      tail = StandardCharsets.UTF_8.encode(conn.getTail().toString());
+      if( conn.isAckRequested() ) {
+	ByteBuffer ack = ByteBuffer.wrap(new byte[]{FilterConnection.ACK});
+	client.write(ack);
+	if( ack.hasRemaining() ) outBuf.put(FilterConnection.ACK);
+      }
+
+      log("starting", "job "+id+" connecting to "
+	  +conn.getHost()+":"+conn.getPort()+"\n");
+      clientKey.interestOps(0);
+      upstream = SocketChannel.open();
+      upstream.configureBlocking(false);
+      upstreamKey = upstream.register(clientKey.selector(),
+				      SelectionKey.OP_CONNECT, this);
+      try {
+	upstream.connect(new InetSocketAddress(conn.getHost(),
+					       conn.getPort()));
+      } catch( IOException e ) {
+	throw new ServiceUnavailException("cannot contact upstream server "
+					  +conn.getHost()+":"
+					  +conn.getPort(), e);
+      }
+    }
+
+    private void readUpstream() throws IOException {
+      int l = upstream.read(inBuf);
+      if( l==0 ) return;
+      upstreamEof = l<0;
+      inBuf.flip();
+      while( dec.decode(inBuf, chars, upstreamEof).isOverflow() ) {
+	feedChars();
+      }
+      feedChars();
+      if( upstreamEof ) {
+	while( dec.flush(chars).isOverflow() ) feedChars();
+	feedChars();
+      }
+      inBuf.compact();
+      if( upstreamEof ) {
+	filter.finish(outChars);
+	upstreamKey.cancel();
+	upstream.close();
+      }
+      encode();
+      writeDownstream();
+    }
+
+    private void feedChars() throws IOException {
+      chars.flip();
+      if( chars.hasRemaining() ) {
+	filter.feed(chars.array(), chars.position(), chars.remaining(),
+		    outChars);
+      }
+      chars.clear();
+    }
+
+    private void encode() {
+      int need = (int)(outChars.length()*enc.maxBytesPerChar())+16;
+      if( outBuf.remaining()<need ) {
+	ByteBuffer b = ByteBuffer.allocate(outBuf.position()+need);
+	outBuf.flip();
+	b.put(outBuf);
+	outBuf = b;
+      }
+      CharBuffer cb = CharBuffer.wrap(outChars);
+      enc.encode(cb, outBuf, upstreamEof);
+      if( upstreamEof ) enc.flush(outBuf);
+      outChars.delete(0, cb.position());
+    }
+
+    private void writeDownstream() throws IOException {
+      outBuf.flip();
+      client.write(outBuf);
+      outBuf.compact();
+      int pending = outBuf.position();
+
+      if( pending==0 && upstreamEof ) {
+	log("done", "job "+id+" done\n");
+	close();
+	return;
+      }
+      clientKey.interestOps(pending>0 ? SelectionKey.OP_WRITE : 0);
+      if( upstreamEof ) return;
+      if( upstreamKey.interestOps()==SelectionKey.OP_READ
+	  || upstreamKey.interestOps()==0 ) {
+	upstreamKey.interestOps(pending>HIGHWATER ? 0 : SelectionKey.OP_READ);
+      }
+    }
+
+    void close() {
+      try {
+	client.close();
+      } catch( IOException e ) {
+	log("error", "job "+id+", problems closing client\n", e);
+      }
+      if( upstream==null ) return;
+      try {
+	upstream.close();
+      } catch( IOException e ) {
+	log("error", "job "+id+", problems closing upstream\n", e);
+      }
+    }
+  }
+  /**********************************************************************/
+}
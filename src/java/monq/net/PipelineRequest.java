@@ -47,6 +47,8 @@ public class PipelineRequest {
   private final String host;
   private final String port;
   private final String name;
+  // further servers providing the same service, as "host:port"
+  private List<String> replicas = new ArrayList<String>();
 
   /**********************************************************************/
   // To check the proper name of a key we use the same static object
@@ -84,6 +86,43 @@ public class PipelineRequest {
     this.port = other.port;
     this.name = other.name;
     other.putParams(m);
+    replicas.addAll(other.replicas);
+  }
+  /**********************************************************************/
+  /**
+   * <p>adds a server which provides the same service as the one
+   * given in the constructor. When the request is used with a {@link
+   * DistPipeFilter}, one of the replicas is picked by its {@link
+   * ReplicaBalancer} for every job.</p>
+   */
+  public void addReplica(String host, int port) {
+    if( port<0 || port >0xffff ) 
+      throw new IllegalArgumentException
+	("port must be in the range 0..65535 but is "+port);
+    replicas.add(host+':'+port);
+  }
+  /**
+   * <p>returns all servers to which this request may be sent, in the
+   * form <code>host:port</code>, starting with the one given in the
+   * constructor.</p>
+   */
+  public List<String> getReplicas() {
+    List<String> l = new ArrayList<String>(replicas.size()+1);
+    l.add(host+':'+port);
+    l.addAll(replicas);
+    return l;
+  }
+  /**
+   * <p>returns a copy of this request without replicas which contacts
+   * the given replica, as returned by {@link #getReplicas}.</p>
+   */
+  PipelineRequest forReplica(String replica) {
+    int colon = replica.lastIndexOf(':');
+    PipelineRequest r = 
+      new PipelineRequest(name, replica.substring(0, colon),
+			  Integer.parseInt(replica.substring(colon+1)));
+    putParams(r.m);
+    return r;
   }
   /**********************************************************************/
   /**
@@ -0,0 +1,194 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * <p>is a persistent connection to a <em>distributed pipe</em> of
+ * filters, set up with {@link DistPipeFilter#openSession
+ * DistPipeFilter.openSession()}. The chain of connections between
+ * the servers is set up once and then used for any number of
+ * documents. Each call to {@link #filter(byte[]) filter()} sends one
+ * document through the pipeline and returns the result. For small
+ * documents this avoids that the connection setup dominates the
+ * time needed for filtering.</p>
+ *
+ * <p>Each server of the pipeline must be run with a {@link
+ * FilterServiceFactory}. For every document it creates a fresh
+ * service, which reads the document and writes its result into
+ * memory. The result is then passed on to the next server. While the
+ * session is open, it occupies a slot of the
+ * <code>DistPipeFilter</code> and a connection slot of every server
+ * in the pipeline.</p>
+ *
+ * <p>Documents are sent one at a time, <code>filter()</code> is
+ * synchronized. Use several sessions to filter documents in
+ * parallel. A session <b>must</b> eventually be {@link #close
+ * closed}.</p>
+ */
+public class PipelineSession {
+  private final DistPipeFilter dpf;
+  private final DistPipeFilter.Job job;
+  private final DataInputStream in;
+  private final SessionFeeder feeder;
+  private DataOutputStream out = null;
+  private long timeout = 60000;
+  private boolean closed = false;
+
+  /**********************************************************************/
+  PipelineSession(DistPipeFilter dpf, DistPipeFilter.Job job,
+		  SessionFeeder feeder) 
+  {
+    this.dpf = dpf;
+    this.job = job;
+    this.in = new DataInputStream(new BufferedInputStream(job.filterIn));
+    this.feeder = feeder;
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the number of milliseconds to wait for the first server
+   * of the pipeline to contact back for the input. The default is one
+   * minute.</p>
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+  /**********************************************************************/
+  /**
+   * <p>sends <code>doc</code> through the pipeline and returns the
+   * result.</p>
+   *
+   * @throws IOException if a filter in the pipeline failed on this
+   * document. The message contains the exception reported by the
+   * filter. The session can still be used for further documents. An
+   * <code>IOException</code> is also thrown if the connection to the
+   * pipeline breaks, in which case the session should be closed.
+   */
+  public synchronized byte[] filter(byte[] doc) throws IOException {
+    if( closed ) throw new IllegalStateException("session is closed");
+    if( out==null ) {
+      OutputStream os = feeder.waitForOut(timeout);
+      if( os==null ) {
+	throw new IOException
+	  ("The data was never asked for. This means that the pipeline "
+	   +"collapsed somewhere in the middle. More information can "
+	   +"only be found in the logs of intermediate servers.");
+      }
+      out = new DataOutputStream(new BufferedOutputStream(os));
+    }
+    Frames.write(out, doc, doc.length);
+    byte[] result;
+    try {
+      result = Frames.read(in);
+    } catch( Frames.ErrorFrame e ) {
+      throw new IOException("filter failed: "+e.getMessage());
+    }
+    if( result==null ) {
+      throw new IOException("pipeline closed the session");
+    }
+    return result;
+  }
+  /**
+   * <p>encodes <code>doc</code> with the given character set, sends it
+   * through the pipeline and decodes the result with the same
+   * character set.</p>
+   */
+  public String filter(CharSequence doc, String charset) 
+    throws IOException
+  {
+    Charset cs = Charset.forName(charset);
+    byte[] b = filter(doc.toString().getBytes(cs));
+    return new String(b, cs);
+  }
+  /**********************************************************************/
+  /**
+   * <p>closes the connections of the pipeline and releases the slot
+   * used in the <code>DistPipeFilter</code>. Calling this method more
+   * than once has no effect.</p>
+   *
+   * @throws IOException if closing the connection fails
+   */
+  public synchronized void close() throws IOException {
+    if( closed ) return;
+    closed = true;
+    feeder.finish();
+    try {
+      // wait for the pipeline to shut down from the first server on
+      while( Frames.read(in)!=null ) /**/;
+    } catch( IOException e ) {
+      // we are closing anyway
+    } finally {
+      dpf.release(job);
+      job.connection.close();
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>is contacted by the first server of the pipeline to fetch the
+   * input. It hands the connection over to the session and keeps it
+   * open until the session is closed.</p>
+   */
+  static final class SessionFeeder implements monq.stuff.Feeder {
+    private OutputStream out = null;
+    private boolean done = false;
+    private Exception e = null;
+
+    public synchronized void setOut(OutputStream out, boolean closeOnExit) {
+      this.out = out;
+      notifyAll();
+    }
+    public Exception getException() { return e; }
+
+    public synchronized void run() {
+      try {
+	while( !done ) wait();
+	out.flush();
+      } catch( InterruptedException ex ) {
+	this.e = ex;
+      } catch( IOException ex ) {
+	this.e = ex;
+      }
+    }
+
+    synchronized OutputStream waitForOut(long timeout) throws IOException {
+      long end = System.currentTimeMillis()+timeout;
+      try {
+	while( out==null ) {
+	  long rest = end-System.currentTimeMillis();
+	  if( rest<=0 ) return null;
+	  wait(rest);
+	}
+      } catch( InterruptedException ex ) {
+	throw new java.io.InterruptedIOException();
+      }
+      return out;
+    }
+
+    synchronized void finish() {
+      done = true;
+      notifyAll();
+    }
+  }
+}
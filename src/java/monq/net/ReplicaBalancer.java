@@ -0,0 +1,169 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.net;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>picks one of several replicas of a filter server for a job and
+ * keeps track of the number of jobs outstanding on each replica. It
+ * is used by {@link DistPipeFilter} for requests with {@link
+ * PipelineRequest#addReplica replicas}. The counts only cover the
+ * jobs started by the <code>DistPipeFilter</code>s sharing this
+ * object, since nothing is known about other clients of a
+ * server.</p>
+ *
+ * <p>A replica that refused a connection is treated as if it had
+ * {@link #PENALTY} additional outstanding jobs for {@link
+ * #setCooldown cooldown} milliseconds, so that it is avoided while
+ * other replicas are available.</p>
+ *
+ * <p>Objects of this class are thread safe.</p>
+ */
+public class ReplicaBalancer {
+
+  /** describes how a replica is picked. */
+  public enum Policy {
+    /** picks the replica with the least outstanding jobs */
+    LEAST_OUTSTANDING,
+    /**
+     * picks two replicas at random and takes the one with less
+     * outstanding jobs
+     */
+    POWER_OF_TWO
+  }
+
+  /**
+   * is the number of jobs added to the count of a replica which
+   * refused a connection.
+   */
+  public static final int PENALTY = 1000;
+
+  private final Policy policy;
+  private final Random rand;
+  private long cooldown = 5000;
+  private final Map<String,Load> loads = new HashMap<String,Load>();
+
+  private static final class Load {
+    int outstanding = 0;
+    long refusedUntil = 0;
+    int effective(long now) {
+      return now<refusedUntil ? outstanding+PENALTY : outstanding;
+    }
+  }
+  /**********************************************************************/
+  public ReplicaBalancer(Policy policy) {
+    this(policy, new Random());
+  }
+  /**
+   * <p>creates a balancer which uses the given random generator to
+   * break ties and for {@link Policy#POWER_OF_TWO}.</p>
+   */
+  public ReplicaBalancer(Policy policy, Random rand) {
+    this.policy = policy;
+    this.rand = rand;
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets how many milliseconds a replica which refused a
+   * connection is avoided. The default is 5000.</p>
+   */
+  public synchronized void setCooldown(long cooldown) {
+    this.cooldown = cooldown;
+  }
+  /**********************************************************************/
+  /**
+   * <p>picks one of the <code>replicas</code> not contained in
+   * <code>exclude</code> and counts a job for it, which must be
+   * returned with {@link #release release()}.</p>
+   *
+   * @return <code>null</code> if all replicas are excluded.
+   */
+  public synchronized String acquire(List<String> replicas, 
+				     Collection<String> exclude) 
+  {
+    List<String> candidates = new ArrayList<String>(replicas.size());
+    for(String r : replicas) {
+      if( !exclude.contains(r) ) candidates.add(r);
+    }
+    if( candidates.isEmpty() ) return null;
+
+    long now = System.currentTimeMillis();
+    String best;
+    if( policy==Policy.POWER_OF_TWO && candidates.size()>2 ) {
+      int i = rand.nextInt(candidates.size());
+      int j = rand.nextInt(candidates.size()-1);
+      if( j>=i ) j += 1;
+      String a = candidates.get(i);
+      String b = candidates.get(j);
+      best = load(b).effective(now)<load(a).effective(now) ? b : a;
+    } else {
+      // start at a random position so that ties are broken randomly
+      int n = candidates.size();
+      int start = rand.nextInt(n);
+      best = null;
+      int bestLoad = Integer.MAX_VALUE;
+      for(int k=0; k<n; k++) {
+	String r = candidates.get((start+k)%n);
+	int l = load(r).effective(now);
+	if( l<bestLoad ) {
+	  best = r;
+	  bestLoad = l;
+	}
+      }
+    }
+    load(best).outstanding += 1;
+    return best;
+  }
+  /**
+   * <p>ends a job counted by {@link #acquire acquire()}.</p>
+   */
+  public synchronized void release(String replica) {
+    Load l = loads.get(replica);
+    if( l!=null && l.outstanding>0 ) l.outstanding -= 1;
+  }
+  /**
+   * <p>ends a job counted by {@link #acquire acquire()} because the
+   * replica refused the connection.</p>
+   */
+  public synchronized void refused(String replica) {
+    release(replica);
+    load(replica).refusedUntil = System.currentTimeMillis()+cooldown;
+  }
+  /**
+   * <p>returns the number of jobs currently counted for the
+   * replica.</p>
+   */
+  public synchronized int getOutstanding(String replica) {
+    Load l = loads.get(replica);
+    return l==null ? 0 : l.outstanding;
+  }
+  /**********************************************************************/
+  private Load load(String replica) {
+    Load l = loads.get(replica);
+    if( l==null ) {
+      l = new Load();
+      loads.put(replica, l);
+    }
+    return l;
+  }
+}
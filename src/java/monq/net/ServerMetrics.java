@@ -0,0 +1,324 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+package monq.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>collects runtime metrics of a {@link TcpServer} and the services
+ * it runs. Every <code>TcpServer</code> has one, see {@link
+ * TcpServer#getMetrics}. The values are meant to tell whether a
+ * filter server is slot starved, I/O bound or CPU bound:</p>
+ *
+ * <dl>
+ * <dt>accepted, rejected</dt><dd>connections accepted, and those
+ * closed without service because of admission limits or because the
+ * service could not be created,</dd>
+ * <dt>slots, active, queued</dt><dd>the number of services allowed to
+ * run in parallel, the number currently running and the number of
+ * accepted connections waiting for admission. In the slot based mode
+ * of <code>TcpServer</code>, connections wait in the backlog of the
+ * server socket instead, where they cannot be counted,</dd>
+ * <dt>slotWaits, slotWaitMillis</dt><dd>how often and how long the
+ * server waited for a free slot, or connections waited for
+ * admission in virtual thread mode,</dd>
+ * <dt>services, bytesIn, bytesOut</dt><dd>the number of services
+ * finished and the bytes they read and wrote,</dd>
+ * <dt>dfaChars, dfaMillis</dt><dd>the characters filtered by
+ * {@link DfaRunService}s and the time they took, including their
+ * network I/O,</dd>
+ * <dt>errors</dt><dd>the number of exceptions reported by services or
+ * thrown when creating them, by class name.</dd>
+ * </dl>
+ *
+ * <p>The metrics can be watched with JMX after calling {@link
+ * #register}, or scraped as plain text, see {@link #getText} and
+ * {@link #startEndpoint}.</p>
+ *
+ * <p>Objects of this class are thread safe.</p>
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+  private final String name;
+
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private volatile int slots;
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicLong slotWaits = new AtomicLong();
+  private final AtomicLong slotWaitNanos = new AtomicLong();
+  private final AtomicLong services = new AtomicLong();
+  private final AtomicLong bytesIn = new AtomicLong();
+  private final AtomicLong bytesOut = new AtomicLong();
+  private final AtomicLong dfaChars = new AtomicLong();
+  private final AtomicLong dfaNanos = new AtomicLong();
+  private final Map<String,AtomicLong> errors = 
+    new ConcurrentHashMap<String,AtomicLong>();
+
+  // the metrics of the server running a service on the current thread
+  private static final ThreadLocal<ServerMetrics> current = 
+    new ThreadLocal<ServerMetrics>();
+
+  // limits reading the request sent to the text endpoint
+  private static final int MAXREQUEST = 8192;
+  /**********************************************************************/
+  /**
+   * <p>creates metrics with the given name, which identifies them in
+   * JMX and in the text output.</p>
+   */
+  public ServerMetrics(String name) {
+    this.name = name;
+  }
+  public String getName() { return name; }
+  /**********************************************************************/
+  public long getAccepted() { return accepted.get(); }
+  public long getRejected() { return rejected.get(); }
+  public int getSlots() { return slots; }
+  public int getActive() { return active.get(); }
+  public int getQueued() { return queued.get(); }
+  public long getSlotWaits() { return slotWaits.get(); }
+  public long getSlotWaitMillis() { return slotWaitNanos.get()/1000000; }
+  public long getServices() { return services.get(); }
+  public long getBytesIn() { return bytesIn.get(); }
+  public long getBytesOut() { return bytesOut.get(); }
+  public long getDfaChars() { return dfaChars.get(); }
+  public long getDfaMillis() { return dfaNanos.get()/1000000; }
+  /**
+   * <p>returns the characters per second filtered by {@link
+   * DfaRunService}s while running, including their network I/O.</p>
+   */
+  public double getDfaCharsPerSecond() {
+    long nanos = dfaNanos.get();
+    if( nanos==0 ) return 0.0;
+    return dfaChars.get()*1e9/nanos;
+  }
+  /**
+   * <p>returns the number of errors seen so far by exception class
+   * name.</p>
+   */
+  public Map<String,Long> getErrors() {
+    Map<String,Long> result = new TreeMap<String,Long>();
+    for(Map.Entry<String,AtomicLong> e : errors.entrySet()) {
+      result.put(e.getKey(), e.getValue().get());
+    }
+    return result;
+  }
+  /**********************************************************************/
+  void setSlots(int slots) { this.slots = slots; }
+  void accepted() { accepted.incrementAndGet(); }
+  void rejected() { rejected.incrementAndGet(); }
+  void queued(int delta) { queued.addAndGet(delta); }
+  void slotWait(long nanos) {
+    slotWaits.incrementAndGet();
+    slotWaitNanos.addAndGet(nanos);
+  }
+  void error(Throwable e) {
+    String key = e.getClass().getName();
+    AtomicLong count = errors.get(key);
+    if( count==null ) {
+      synchronized(errors) {
+	count = errors.get(key);
+	if( count==null ) {
+	  count = new AtomicLong();
+	  errors.put(key, count);
+	}
+      }
+    }
+    count.incrementAndGet();
+  }
+  /**
+   * <p>marks the start of a service on the current thread, which
+   * makes these metrics available to the service through {@link
+   * #current}.</p>
+   */
+  void serviceStarted() {
+    active.incrementAndGet();
+    current.set(this);
+  }
+  void serviceDone() {
+    current.remove();
+    active.decrementAndGet();
+    services.incrementAndGet();
+  }
+  /**
+   * <p>returns the metrics of the server running a service on the
+   * current thread, or <code>null</code> if the current thread is not
+   * running a service of a {@link TcpServer}.</p>
+   */
+  public static ServerMetrics current() { return current.get(); }
+
+  /**
+   * <p>adds characters filtered by a {@link monq.jfa.DfaRun} and the
+   * nanoseconds it took to filter them.</p>
+   */
+  public void addDfaChars(long chars, long nanos) {
+    dfaChars.addAndGet(chars);
+    dfaNanos.addAndGet(nanos);
+  }
+  /**********************************************************************/
+  InputStream count(InputStream in) {
+    return new FilterInputStream(in) {
+      public int read() throws IOException {
+	int b = in.read();
+	if( b>=0 ) bytesIn.incrementAndGet();
+	return b;
+      }
+      public int read(byte[] b, int off, int len) throws IOException {
+	int l = in.read(b, off, len);
+	if( l>0 ) bytesIn.addAndGet(l);
+	return l;
+      }
+    };
+  }
+  OutputStream count(OutputStream out) {
+    return new FilterOutputStream(out) {
+      public void write(int b) throws IOException {
+	out.write(b);
+	bytesOut.incrementAndGet();
+      }
+      public void write(byte[] b, int off, int len) throws IOException {
+	out.write(b, off, len);
+	bytesOut.addAndGet(len);
+      }
+    };
+  }
+  /**********************************************************************/
+  /**
+   * <p>registers these metrics with the platform MBean server under
+   * the name <code>monq.net:type=ServerMetrics,name=</code><em>name</em>.</p>
+   *
+   * @return the name under which the metrics were registered.
+   */
+  public ObjectName register() throws JMException {
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    ObjectName on = new ObjectName("monq.net:type=ServerMetrics,name="
+				   +ObjectName.quote(name));
+    mbs.registerMBean(this, on);
+    return on;
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns the metrics as plain text, one value per line in the
+   * text exposition format understood by Prometheus. Each line has
+   * the metric name, a label with the name of these metrics and the
+   * value.</p>
+   */
+  public String getText() {
+    StringBuilder sb = new StringBuilder(1024);
+    String label = "{server=\""+escape(name)+"\"}";
+    line(sb, "monq_connections_accepted_total", label, getAccepted());
+    line(sb, "monq_connections_rejected_total", label, getRejected());
+    line(sb, "monq_slots", label, getSlots());
+    line(sb, "monq_slots_active", label, getActive());
+    line(sb, "monq_slots_queued", label, getQueued());
+    line(sb, "monq_slot_waits_total", label, getSlotWaits());
+    line(sb, "monq_slot_wait_seconds_total", label, 
+	 slotWaitNanos.get()/1e9);
+    line(sb, "monq_services_total", label, getServices());
+    line(sb, "monq_bytes_in_total", label, getBytesIn());
+    line(sb, "monq_bytes_out_total", label, getBytesOut());
+    line(sb, "monq_dfa_chars_total", label, getDfaChars());
+    line(sb, "monq_dfa_seconds_total", label, dfaNanos.get()/1e9);
+    for(Map.Entry<String,Long> e : getErrors().entrySet()) {
+      String l = "{server=\""+escape(name)+"\",type=\""+e.getKey()+"\"}";
+      line(sb, "monq_errors_total", l, e.getValue());
+    }
+    return sb.toString();
+  }
+  private static void line(StringBuilder sb, String metric, String label,
+			   Object value) {
+    sb.append(metric).append(label).append(' ').append(value).append('\n');
+  }
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"")
+      .replace("\n", "\\n");
+  }
+  /**********************************************************************/
+  /**
+   * <p>starts a {@link TcpServer} on the given port which answers
+   * every HTTP request with {@link #getText}. The server runs in a
+   * daemon thread and can be stopped with {@link TcpServer#shutdown}.</p>
+   *
+   * @param port may be 0 to pick an arbitrary port, which can then be
+   * found with {@link TcpServer#getLocalPort}.
+   */
+  public TcpServer startEndpoint(int port) throws IOException {
+    TcpServer server = new TcpServer(new ServerSocket(port), 
+				     new ServiceFactory() {
+	public Service createService(InputStream in, OutputStream out,
+				     Object param) {
+	  return new TextService(in, out);
+	}
+      }, 2);
+    Thread t = new Thread(server, "metrics:"+name);
+    t.setDaemon(true);
+    t.start();
+    return server;
+  }
+  /**********************************************************************/
+  private final class TextService implements Service {
+    private final InputStream in;
+    private final OutputStream out;
+    private Exception e = null;
+
+    TextService(InputStream in, OutputStream out) {
+      this.in = in;
+      this.out = out;
+    }
+    public Exception getException() { return e; }
+    public void run() {
+      try {
+	// read the request up to the empty line, but don't bother
+	// what it says
+	int last = -1;
+	int ch;
+	for(int i=0; i<MAXREQUEST && -1!=(ch=in.read()); i++) {
+	  if( ch=='\r' ) continue;
+	  if( ch=='\n' && last=='\n' ) break;
+	  last = ch;
+	}
+	byte[] body = getText().getBytes("UTF-8");
+	ByteArrayOutputStream head = new ByteArrayOutputStream();
+	head.write(("HTTP/1.0 200 OK\r\n"
+		    +"Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+		    +"Content-Length: "+body.length+"\r\n\r\n")
+		   .getBytes("UTF-8"));
+	head.write(body);
+	head.writeTo(out);
+	out.flush();
+      } catch( IOException e ) {
+	this.e = e;
+      }
+    }
+  }
+  /**********************************************************************/
+}
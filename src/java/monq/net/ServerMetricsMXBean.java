@@ -0,0 +1,41 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+package monq.net;
+
+import java.util.Map;
+
+/**
+ * <p>is the management interface of {@link ServerMetrics} as seen
+ * through JMX. See there for a description of the values.</p>
+ */
+public interface ServerMetricsMXBean {
+  String getName();
+  long getAccepted();
+  long getRejected();
+  int getSlots();
+  int getActive();
+  int getQueued();
+  long getSlotWaits();
+  long getSlotWaitMillis();
+  long getServices();
+  long getBytesIn();
+  long getBytesOut();
+  long getDfaChars();
+  long getDfaMillis();
+  double getDfaCharsPerSecond();
+  Map<String,Long> getErrors();
+  String getText();
+}
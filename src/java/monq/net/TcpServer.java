@@ -21,6 +21,10 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.InetAddress;
 import java.io.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import monq.stuff.VirtualThreads;
 
 /**
  * <p>a simple socket server able to serve multiple client
@@ -61,6 +65,18 @@ import java.io.*;
  * threads can be running in parallel. When a thread finishes,
  * <code>TcpServer</code> takes care to close the streams.</p>
  *
+ * <p>Alternatively, with {@link #setVirtualThreads setVirtualThreads()},
+ * every connection is served on its own virtual thread. Admission is
+ * then controlled by a limit on the number of running services and a
+ * limit on the number of connections waiting for admission, so that
+ * the server can hold many slow clients without tying up as many
+ * operating system threads.</p>
+ *
+ * <p>Runtime metrics like the number of active services, the time
+ * spent waiting for free slots and the bytes transferred are
+ * collected in a {@link ServerMetrics} object, see {@link
+ * #getMetrics}.</p>
+ *
  * @author &copy; 2004 Harald Kirsch
  */
 public class TcpServer implements Runnable {
@@ -71,10 +87,18 @@ public class TcpServer implements Runnable {
   private PrintStream log = null;
   private java.text.SimpleDateFormat date;
   private String myName;
+  private ServerMetrics metrics;
 
   // will be set to true if also debug logging shall be enabled
   private boolean loggingDebug;
 
+  // admission control in virtual thread mode, null otherwise. A
+  // connection first takes a permit from waiting, then one from
+  // running, and releases both when done.
+  private Semaphore running = null;
+  private Semaphore waiting = null;
+  private long admissionTimeout;
+
   /**
    * <p>creates a server to listen on the given socket. Connection
    * request are honoured with whatever service the given {@link
@@ -93,7 +117,8 @@ public class TcpServer implements Runnable {
     this.fac = fac;
     this.services = new Thread[slots];
     this.myName = "TcpServer("+fac+")";
-
+    this.metrics = new ServerMetrics(myName);
+    metrics.setSlots(slots);
   }
   /**
    * <p>creates a server to listen on the given port. Up to 10
@@ -129,42 +154,124 @@ public class TcpServer implements Runnable {
       this.io = io;
     }
     public void run() {
-      Throwable e = null;
+      runService(slot, svc, in, out, io);
+      clearSlot(slot);
+    }
+  }  
+  /**********************************************************************/
+  // runs a connection in virtual thread mode, from admission to
+  // closing the socket
+  private class VirtualShell implements Runnable {
+    private int id;
+    private Socket io;
 
-      // Catch OOME and (mostly) ignore it. Since this thread is about
-      // to finish, we may recover.
+    public VirtualShell(int id, Socket io) {
+      this.id = id;
+      this.io = io;
+    }
+    public void run() {
       try {
-	svc.run();
-	e = svc.getException();
-      } catch( Throwable ugly ) {
-	// this is serious, but in principle we can envisage that the
-	// service factory creates different services. Some may be
-	// completely flawed, throwing java.lang.Errors, while others
-	// work fine. Therefore we try to keep going.
-	// XXX: other idea? Please let me know.
-	if( log!=null ) log("error", "will try to keep going\n", ugly);
-	else {
-	  System.err.println("TcpServer: severe error. Cause is:");
-	  ugly.printStackTrace(System.err);
+	if( !admit() ) {
+	  metrics.rejected();
+	  log("rejected", "connection "+id+" not admitted within "
+	      +admissionTimeout+"ms\n", null);
+	  closeAll(id, io);
+	  return;
 	}
+	try {
+	  serveAdmitted();
+	} finally {
+	  running.release();
+	}
+      } finally {
+	waiting.release();
       }
-      if( e!=null ) {
-	if( e instanceof ServiceCreateException 
-	    && !(e instanceof ServiceUnavailException) ) {
-	  log("error", "service in slot "+slot
-	      +" threw ServiceCreateException indicating an unrecoverable "
-	      +"error; shutting down server.\n", e);
-	  shutdown();
-	} else {
-	  log("error", "service in slot "+slot+" threw Exception\n", e);
+    }
+    private boolean admit() {
+      if( running.tryAcquire() ) return true;
+      long start = System.nanoTime();
+      metrics.queued(1);
+      try {
+	if( admissionTimeout<0 ) {
+	  running.acquire();
+	  return true;
 	}
+	return running.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+      } catch( InterruptedException e ) {
+	return false;
+      } finally {
+	metrics.queued(-1);
+	metrics.slotWait(System.nanoTime()-start);
+      }
+    }
+    private void serveAdmitted() {
+      InputStream in;
+      OutputStream out;
+      Service svc;
+      try {
+	in = metrics.count(io.getInputStream());
+	out = metrics.count(io.getOutputStream());
+      } catch( IOException e ) {
+	log("error", "connection "+id+", cannot get streams\n", e);
+	closeAll(id, io);
+	return;
       }
-      closeAll(slot, in, out, io);
+      try {
+	svc = fac.createService(in, out, null);
+      } catch( ServiceCreateException e ) {
+	metrics.rejected();
+	metrics.error(e);
+	closeAll(id, in, out, io);
+	log("error", "connection "+id+
+	    ", could not create service because\n", e);
+	if( !(e instanceof ServiceUnavailException) ) shutdown();
+	return;
+      }
+      log("starting", "connection "+id+", service "+svc+"\n");
+      runService(id, svc, in, out, io);
+      log("done", "connection "+id+" done\n");
+    }
+  }
+  /**********************************************************************/
+  private void runService(int slot, Service svc,
+			  InputStream in, OutputStream out, Socket io) {
+    Throwable e = null;
 
-      clearSlot(slot);
-      
+    // Catch OOME and (mostly) ignore it. Since this thread is about
+    // to finish, we may recover.
+    metrics.serviceStarted();
+    try {
+      svc.run();
+      e = svc.getException();
+    } catch( Throwable ugly ) {
+      metrics.error(ugly);
+      // this is serious, but in principle we can envisage that the
+      // service factory creates different services. Some may be
+      // completely flawed, throwing java.lang.Errors, while others
+      // work fine. Therefore we try to keep going.
+      // XXX: other idea? Please let me know.
+      if( log!=null ) log("error", "will try to keep going\n", ugly);
+      else {
+	System.err.println("TcpServer: severe error. Cause is:");
+	ugly.printStackTrace(System.err);
+      }
+    } finally {
+      metrics.serviceDone();
     }
-  }  
+    if( e!=null ) {
+      metrics.error(e);
+      if( e instanceof ServiceCreateException 
+	  && !(e instanceof ServiceUnavailException) ) {
+	log("error", "service in slot "+slot
+	    +" threw ServiceCreateException indicating an unrecoverable "
+	    +"error; shutting down server.\n", e);
+	shutdown();
+      } else {
+	log("error", "service in slot "+slot+" threw Exception\n", e);
+      }
+    }
+    closeAll(slot, in, out, io);
+  }
   /**********************************************************************/
   private void closeAll(int slot, 
 			InputStream in, OutputStream out, Socket io) {
@@ -179,6 +286,13 @@ public class TcpServer implements Runnable {
       log("error", "slot "+slot+", problems closing client's i/o in ", e);
     }
   }
+  private void closeAll(int slot, Socket io) {
+    try {
+      io.close();
+    } catch( java.io.IOException e ) {
+      log("error", "slot "+slot+", problems closing client's socket ", e);
+    }
+  }
   /**********************************************************************/
   private void log(String what, CharSequence s, Throwable e) {
     if( log==null ) return;
@@ -229,6 +343,74 @@ public class TcpServer implements Runnable {
     return this;
   }
   /**********************************************************************/
+  /**
+   * <p>returns the metrics collected for this server.</p>
+   */
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+  /**
+   * <p>replaces the metrics of this server, for example to give them a
+   * readable name before {@link ServerMetrics#register registering}
+   * them, or to collect the metrics of several servers together.</p>
+   *
+   * <p>Must be called before {@link #serve}.</p>
+   * @return this
+   */
+  public synchronized TcpServer setMetrics(ServerMetrics metrics) {
+    metrics.setSlots(this.metrics.getSlots());
+    this.metrics = metrics;
+    return this;
+  }
+  /**
+   * <p>returns the port the server is listening on.</p>
+   */
+  public int getLocalPort() {
+    return socket.getLocalPort();
+  }
+  /**********************************************************************/
+  /**
+   * <p>switches the server to run every service on its own virtual
+   * thread, or on a platform thread if the Java runtime has no virtual
+   * threads. The number of slots given to the constructor is ignored
+   * in this mode. Instead, up to <code>maxServices</code> services
+   * run in parallel. Further connections wait for admission for at
+   * most <code>timeoutMillis</code> milliseconds, a negative value
+   * meaning forever, and are closed without service if they are not
+   * admitted in time. If <code>maxWaiting</code> connections are
+   * already waiting, a new connection is closed immediately.</p>
+   *
+   * <p>Contrary to the slot based mode, connections are always
+   * accepted right away and the service is created on the new thread,
+   * so one slow service creation does not hold up other clients.</p>
+   *
+   * <p>Must be called before {@link #serve}.</p>
+   * @return this
+   */
+  public synchronized TcpServer setVirtualThreads(int maxServices,
+						  int maxWaiting,
+						  long timeoutMillis) {
+    if( maxServices<1 || maxWaiting<0 ) {
+      throw new IllegalArgumentException
+	("need maxServices>0 and maxWaiting>=0, but got "
+	 +maxServices+" and "+maxWaiting);
+    }
+    running = new Semaphore(maxServices);
+    waiting = new Semaphore(maxServices+maxWaiting);
+    admissionTimeout = timeoutMillis;
+    metrics.setSlots(maxServices);
+    return this;
+  }
+  /**
+   * <p>returns how many more services may be started right now in
+   * virtual thread mode, or -1 if the server runs in slot based
+   * mode.</p>
+   */
+  public int getAvailableServices() {
+    Semaphore r = running;
+    return r==null ? -1 : r.availablePermits();
+  }
+  /**********************************************************************/
   /**
    * <p>calls {@link #serve} and catches exceptions to write them to the
    * log. This method is only here so that a <code>TcpServer</code>
@@ -272,16 +454,22 @@ public class TcpServer implements Runnable {
    */
   public synchronized void serve() throws java.io.IOException 
   {
+    if( running!=null ) {
+      serveVirtual();
+      return;
+    }
     log("startup", this+" port "+socket.getLocalPort()
 	+" for "+services.length+" slots\n", null);
    
     while( true ) {
       // find free slot in services
       int slot;
+      long waitStart = 0;
       while( true ) {
 	for(slot=0; slot<services.length && services[slot]!=null; slot++) ;
 	if( slot<services.length ) break;
 
+	if( waitStart==0 ) waitStart = System.nanoTime();
 	synchronized(services) {
 	  // There is no slot available, but as soon as a slot becomes
 	  // free, we are woken up by the ServiceShell.
@@ -298,6 +486,7 @@ public class TcpServer implements Runnable {
 	  //log("free", this+" not blocked anymore\n");
 	}
       } 
+      if( waitStart!=0 ) metrics.slotWait(System.nanoTime()-waitStart);
 
       if( Thread.interrupted() ) {
         shutdown();
@@ -318,10 +507,11 @@ public class TcpServer implements Runnable {
 
       InetAddress client = io.getInetAddress();
       log("connect", "slot "+slot+" for "+client.getHostAddress()+'\n');
+      metrics.accepted();
 
       // prepare the service to serve the socket just created
-      InputStream in = io.getInputStream();
-      OutputStream out = io.getOutputStream();
+      InputStream in = metrics.count(io.getInputStream());
+      OutputStream out = metrics.count(io.getOutputStream());
       Service svc = null;
       try {
 	svc = fac.createService(in, out, null);
@@ -330,6 +520,8 @@ public class TcpServer implements Runnable {
 	// sufficient to close just io and why there could be an
 	// IOException 
 	closeAll(slot, in, out, io);
+	metrics.rejected();
+	metrics.error(e);
 
 	log("error", "slot "+slot+
 	    ", could not create service because\n", e);
@@ -350,6 +542,40 @@ public class TcpServer implements Runnable {
     }
   }
   /**********************************************************************/
+  private void serveVirtual() throws java.io.IOException {
+    log("startup", this+" port "+socket.getLocalPort()
+	+" for "+running.availablePermits()+" services on "
+	+(VirtualThreads.available() ? "virtual" : "platform")
+	+" threads\n", null);
+
+    for(int id=0; true; id++) {
+      if( Thread.interrupted() ) {
+	shutdown();
+	return;
+      }
+      Socket io;
+      try {
+	io = socket.accept();
+      } catch( java.net.SocketException e ) {
+	if( socket.isClosed() ) return;
+	throw e;
+      }
+      metrics.accepted();
+      if( !waiting.tryAcquire() ) {
+	metrics.rejected();
+	log("rejected", "connection "+id+" from "
+	    +io.getInetAddress().getHostAddress()
+	    +", too many connections waiting\n", null);
+	closeAll(id, io);
+	continue;
+      }
+      log("connect", "connection "+id+" for "
+	  +io.getInetAddress().getHostAddress()+'\n');
+      VirtualThreads.newThread(new VirtualShell(id, io),
+			       myName+"-"+id, true).start();
+    }
+  }
+  /**********************************************************************/
   public String toString() {
     return myName;
   }
@@ -28,6 +28,11 @@ import monq.ie.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>
@@ -106,6 +111,38 @@ import java.util.*;
  * pushed back into the input.</dd>
  * </dl>
  *
+ * <h3>Large dictionaries</h3>
+ * <p>
+ * The <code>&lt;t&gt;</code> elements of a large dictionary are
+ * converted and compiled in several shards in parallel, each into its
+ * own automaton. The shards are finally combined into one automaton
+ * which behaves as if all entries had been compiled together. The
+ * number of shards can be set with a constructor parameter and
+ * defaults to the number of available processors, but with at least
+ * {@link #MINSHARD} terms per shard.
+ * </p>
+ *
+ * <h3>Precompiled dictionaries</h3>
+ * <p>
+ * A compiled dictionary can be stored with {@link #write write()}
+ * and read back with {@link #DictFilter(InputStream)}. The stored
+ * artifact contains the whole automaton including the templates,
+ * the trailing contexts and the priorities of the entries, so
+ * reading it back does not need to parse, convert or compile
+ * anything. On the command line, option <code>-c</code> writes the
+ * artifact, which can then be given instead of the mwt file.
+ * </p>
+ *
+ * <h3>Updating a running server</h3>
+ * <p>
+ * A <code>DictFilter</code> used by a server can be switched to a
+ * new dictionary with {@link #reload reload()}. Runs created
+ * afterwards use the new dictionary while runs already in progress
+ * finish with the old one. On the command line, option
+ * <code>-r</code> checks the dictionary file regularly and loads it
+ * again in the background when it changed.
+ * </p>
+ *
  * <h3>Encodings used</h3>
  * <p>
  * The input encoding is guessed from the input file with
@@ -117,10 +154,20 @@ import java.util.*;
  *
  * @author &copy; 2004 Harald Kirsch
  */
-public class DictFilter implements ServiceFactory {
+public class DictFilter implements ServiceFactory, DfaRunFactory {
+
+  /**
+   * <p>is the minimum number of terms per shard when the number of
+   * shards is chosen automatically.</p>
+   */
+  public static final int MINSHARD = 1000;
+
+  // starts every artifact written by write()
+  private static final String ARTIFACT = "monq.programs.DictFilter/1";
 
   // the dictionary Dfa. It is set up in a way that it can be reused. 
-  private Dfa dictDfa;
+  // It is replaced as a whole by reload().
+  private volatile Dfa dictDfa;
 
   // If the inputEncoding is null, it will
   // be guessed with monq.stuff.EncodingDetector
@@ -148,8 +195,10 @@ public class DictFilter implements ServiceFactory {
     // <template> 
     private PrintfFormatter recentTemplate;
 
-    // the dictionary Nfa filled up while reading the mwt file
+    // the dictionary Nfa filled up while reading the mwt file, except
+    // for the terms, which are collected to be compiled later
     private Nfa dict;
+    private List<Term> terms = new ArrayList<Term>();
 
     // print generated regexps to stderr, one per line if this is true
     private boolean verbose = false;
@@ -162,12 +211,21 @@ public class DictFilter implements ServiceFactory {
 
     public ReadHelper(boolean verbose) { this.verbose = verbose; }
   }
+  // a <t> element read from the mwt file
+  private static final class Term {
+    final String term;
+    final MwtCallback action;
+    Term(String term, MwtCallback action) {
+      this.term = term;
+      this.action = action;
+    }
+  }
   /********************************************************************/
   public DictFilter(Reader mwtFile, String inputType, 
 		    String elemName, boolean verbose) 
     throws java.io.IOException, ReSyntaxException, CompileDfaException
   {
-    init(mwtFile, inputType, elemName, verbose, false, true);
+    init(mwtFile, inputType, elemName, verbose, false, true, 0);
   }
   /**********************************************************************/
   /**
@@ -207,11 +265,62 @@ public class DictFilter implements ServiceFactory {
 		    boolean defaultWord)
     throws java.io.IOException, ReSyntaxException, CompileDfaException
   {
-    init(mwtFile, inputType, elemName, verbose, memDebug, defaultWord);
+    init(mwtFile, inputType, elemName, verbose, memDebug, defaultWord, 0);
+  }
+  /**
+   * <p>creates a <code>DictFilter</code> like the constructor above,
+   * but compiles the dictionary entries in the given number of shards
+   * in parallel. A value of 0 or less chooses the number
+   * automatically.</p>
+   */
+  public DictFilter(Reader mwtFile, String inputType, 
+		    String elemName, 
+		    boolean verbose, boolean memDebug,
+		    boolean defaultWord, int shards)
+    throws java.io.IOException, ReSyntaxException, CompileDfaException
+  {
+    init(mwtFile, inputType, elemName, verbose, memDebug, defaultWord,
+	 shards);
+  }
+  /**
+   * <p>reads a dictionary previously stored with {@link #write
+   * write()}. The input type and element name are those used when the
+   * dictionary was compiled.</p>
+   *
+   * @throws IOException if the stream does not contain a dictionary
+   * artifact or the artifact was written by an incompatible version
+   * of this class.
+   */
+  public DictFilter(InputStream artifact) throws IOException {
+    ObjectInputStream in = new ObjectInputStream(artifact);
+    String magic = in.readUTF();
+    if( !ARTIFACT.equals(magic) ) {
+      throw new IOException("not a dictionary artifact, found `"
+			    +magic+"' instead of `"+ARTIFACT+"'");
+    }
+    try {
+      dictDfa = (Dfa)in.readObject();
+    } catch( ClassNotFoundException e ) {
+      throw new IOException("incompatible dictionary artifact", e);
+    }
   }
+  /********************************************************************/
+  /**
+   * <p>returns true if the stream starts with a serialized object as
+   * written by {@link #write write()} rather than with an mwt
+   * file. The stream must support {@link InputStream#mark mark()}.</p>
+   */
+  public static boolean isArtifact(InputStream in) throws IOException {
+    in.mark(2);
+    int b0 = in.read();
+    int b1 = in.read();
+    in.reset();
+    return b0==0xAC && b1==0xED;
+  }
+  /********************************************************************/
   private void init(Reader mwtFile, String inputType, 
 		    String elemName, boolean verbose, 
-		    boolean memDebug, boolean defaultWord) 
+		    boolean memDebug, boolean defaultWord, int shards) 
     throws java.io.IOException, ReSyntaxException, CompileDfaException
   {
     ReadHelper rh = new ReadHelper(verbose);
@@ -235,10 +344,9 @@ public class DictFilter implements ServiceFactory {
 	;
       Context mwt = mgr.addXml((Context)null, "mwt");
 
-      // Do_t_r translates strings read into regexps for
-      // rh.dict. Consequently it needs to know how to escape the
-      // characters for the parser of rh.dict
-      Do_t_r dtr = new Do_t_r(rh.dict.getReParser());
+      // Do_t_r adds regexps to rh.dict and collects the terms to be
+      // converted into regexps for rh.dict later
+      Do_t_r dtr = new Do_t_r();
       nfa.or(Xml.S, Drop.DROP)
        	.or(Xml.XMLDecl, 
 	    // FIX ME: should extract the encoding
@@ -282,13 +390,14 @@ public class DictFilter implements ServiceFactory {
     // now read the dictionary file, this should not produce any output
     r.clientData = rh;
     r.filter(System.out);
+    List<Dfa> shardDfas = addTerms(rh, shards);
     
     // set up the fa to only care for certain types of input
     Nfa nfa = rh.dict;
 
     if( "raw".equals(inputType) ) {
       // nothing to add to dict
-      dictDfa = nfa.compile(DfaRun.UNMATCHED_COPY);
+      dictDfa = compile(nfa, shardDfas);
 
     } else if( "xml".equals(inputType) ) {
       nfa.or(Xml.STag()+"|"+Xml.ETag()+"|"+Xml.EmptyElemTag()
@@ -296,7 +405,7 @@ public class DictFilter implements ServiceFactory {
 	.or("<[?](.*[?]>)!", Copy.COPY)
 	.or("<[!]--(.*-->)!", Copy.COPY)
 	 ;
-      dictDfa = nfa.compile(DfaRun.UNMATCHED_COPY);
+      dictDfa = compile(nfa, shardDfas);
 
     } else if( "elem".equals(inputType) ) {
       nfa.or(Xml.Reference, Copy.COPY);
@@ -307,7 +416,7 @@ public class DictFilter implements ServiceFactory {
       Dfa env = new Nfa(Xml.STag(elemName), toWork)
 	.compile(DfaRun.UNMATCHED_COPY);
       nfa.or(Xml.ETag(elemName), toEnv);
-      dictDfa = nfa.compile(DfaRun.UNMATCHED_COPY);
+      dictDfa = compile(nfa, shardDfas);
       toEnv.setDfa(env);
       toWork.setDfa(dictDfa);
       dictDfa = env;
@@ -341,11 +450,30 @@ public class DictFilter implements ServiceFactory {
   }
   /********************************************************************/
   /**
-   * create a {@link monq.jfa.DfaRun} object suitable to operate the
-   * dictionary DFA.
+   * <p>create a {@link monq.jfa.DfaRun} object suitable to operate the
+   * dictionary DFA. The run carries its own scratch space for
+   * formatting matches, so any number of runs may operate
+   * concurrently without contending for locks.</p>
    */
   public DfaRun createRun() {
-    return new DfaRun(dictDfa);
+    return new DictRun(dictDfa);
+  }
+  // a run with the scratch store used by MwtCallback
+  private static class DictRun extends DfaRun {
+    private final TextStore scratch = new TextStore();
+    DictRun(Dfa dfa) {
+      super(dfa);
+    }
+  }
+  /********************************************************************/
+  /**
+   * <p>same as {@link #createRun()}, the parameters are ignored. This
+   * allows to use a <code>DictFilter</code> in a {@link
+   * NioFilterServer}. Note that the encoding of the input is then
+   * not detected but set for the whole server.</p>
+   */
+  public DfaRun createRun(Map<String,String> params) {
+    return createRun();
   }
   /********************************************************************/
   /**
@@ -353,6 +481,32 @@ public class DictFilter implements ServiceFactory {
    */
   public Dfa getDfa() { return dictDfa; }
   /********************************************************************/
+  /**
+   * <p>switches this filter to the dictionary of <code>fresh</code>,
+   * which is typically compiled or read in a background thread while
+   * this filter keeps serving. {@link #createRun()} and {@link
+   * #createService createService()} use the new dictionary as soon as
+   * this method returns. Runs created before keep working with the
+   * old dictionary until they are finished, after which it can be
+   * garbage collected. The encodings of this filter are not
+   * changed.</p>
+   */
+  public void reload(DictFilter fresh) {
+    dictDfa = fresh.dictDfa;
+  }
+  /********************************************************************/
+  /**
+   * <p>writes the compiled dictionary to <code>out</code> such that it
+   * can be read back with {@link #DictFilter(InputStream)}. The
+   * encodings are not stored.</p>
+   */
+  public void write(OutputStream out) throws IOException {
+    ObjectOutputStream oout = new ObjectOutputStream(out);
+    oout.writeUTF(ARTIFACT);
+    oout.writeObject(dictDfa);
+    oout.flush();
+  }
+  /********************************************************************/
   public Service createService(InputStream in, OutputStream out, Object p) 
     throws ServiceCreateException
   {
@@ -425,28 +579,7 @@ public class DictFilter implements ServiceFactory {
   /********************************************************************/
   private static final class Do_t_r extends AbstractFaAction {
     Map<String,String>  m = new HashMap<String,String>();
-    DfaRun convert;
-    public Do_t_r(ReParser rep) {
-      try {
-	convert = 
-	  Term2Re.createConverter(Term2Re.RE_SPLIT_WORD,
-				  //"[ \\-_]?",
-				  Term2Re.RE_SEP_WORD,
-				  Term2Re.RE_TRAIL_CONTEXT,
-				  rep);
-      } catch( ReSyntaxException e ) {
-	throw new Error("impossible", e);
-      }
-    }
 
-    private String convert(String txt) {
-      try {
-	return convert.filter(txt);
-      } catch( IOException e ) {
-	throw new Error("impossible", e);
-      }
-    }
-    
     public void invoke(StringBuilder yytext, int start, DfaRun r) 
       throws CallbackException
     {
@@ -501,7 +634,6 @@ public class DictFilter implements ServiceFactory {
       
       int tc = 0;		// length of trailing context
       if( isTerm ) {
-	re = convert(re);
 	tc = 1;
       } else {
 	String tmp = m.remove("tc");
@@ -530,29 +662,138 @@ public class DictFilter implements ServiceFactory {
 	throw new CallbackException(sb.toString());
       }
       
-      if( rh.verbose ) System.err.println(">>"+re+"<<");
-      try {
-	rh.dict.or(re, new MwtCallback(fsp, rh.recentTemplate, tc, 
-				       rh.nextPrio++));
-      } catch( ReSyntaxException e ) {
-	throw new CallbackException
-	  ("regular expression syntax error (see cause)", e);
+      MwtCallback a = new MwtCallback(fsp, rh.recentTemplate, tc, 
+				      rh.nextPrio++);
+      if( isTerm ) {
+	rh.terms.add(new Term(re, a));
+      } else {
+	if( rh.verbose ) System.err.println(">>"+re+"<<");
+	try {
+	  rh.dict.or(re, a);
+	} catch( ReSyntaxException e ) {
+	  throw new CallbackException
+	    ("regular expression syntax error (see cause)", e);
+	}
       }
       yytext.setLength(start);
     }
   };
+  /********************************************************************/
+  // Converts the terms into regular expressions and adds them to
+  // rh.dict. With more than one shard, the shards are compiled in
+  // parallel instead and returned, to be combined with rh.dict by
+  // compile().
+  private static List<Dfa> addTerms(final ReadHelper rh, int shards)
+    throws ReSyntaxException, CompileDfaException
+  {
+    final List<Term> terms = rh.terms;
+    rh.terms = null;
+    int n = terms.size();
+    if( shards<=0 ) {
+      shards = Math.min(Runtime.getRuntime().availableProcessors(),
+			n/MINSHARD);
+    }
+    shards = Math.min(shards, n);
+    if( shards<=1 ) {
+      addShard(rh.dict, terms, rh.verbose);
+      return Collections.emptyList();
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(shards);
+    try {
+      List<Future<Dfa>> results = new ArrayList<Future<Dfa>>(shards);
+      for(int i=0; i<shards; i++) {
+	final List<Term> shard = terms.subList(i*n/shards, (i+1)*n/shards);
+	results.add(pool.submit(new Callable<Dfa>() {
+	    public Dfa call() throws ReSyntaxException, CompileDfaException {
+	      Nfa nfa = new Nfa(Nfa.NOTHING);
+	      addShard(nfa, shard, rh.verbose);
+	      return nfa.compile(DfaRun.UNMATCHED_COPY);
+	    }
+	  }));
+      }
+      List<Dfa> dfas = new ArrayList<Dfa>(shards);
+      for(Future<Dfa> f : results) dfas.add(get(f));
+      return dfas;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+  private static Dfa compile(Nfa nfa, List<Dfa> shardDfas)
+    throws CompileDfaException
+  {
+    Dfa dfa = nfa.compile(DfaRun.UNMATCHED_COPY);
+    if( shardDfas.isEmpty() ) return dfa;
+    List<Dfa> all = new ArrayList<Dfa>(shardDfas);
+    all.add(dfa);
+    return Dfa.union(all, DfaRun.UNMATCHED_COPY, null);
+  }
+  private static Dfa get(Future<Dfa> f) 
+    throws ReSyntaxException, CompileDfaException
+  {
+    try {
+      return f.get();
+    } catch( InterruptedException e ) {
+      throw new IllegalStateException("interrupted while compiling", e);
+    } catch( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if( cause instanceof ReSyntaxException ) {
+	throw (ReSyntaxException)cause;
+      }
+      if( cause instanceof CompileDfaException ) {
+	throw (CompileDfaException)cause;
+      }
+      if( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+      throw new Error("shard compilation failed", cause);
+    }
+  }
+  private static void addShard(Nfa nfa, List<Term> terms, boolean verbose)
+    throws ReSyntaxException
+  {
+    // a converter per shard, because DfaRun.filter(String) is
+    // synchronized
+    DfaRun convert = 
+      Term2Re.createConverter(Term2Re.RE_SPLIT_WORD,
+			      //"[ \\-_]?",
+			      Term2Re.RE_SEP_WORD,
+			      Term2Re.RE_TRAIL_CONTEXT,
+			      nfa.getReParser());
+    for(Term t : terms) {
+      String re;
+      try {
+	re = convert.filter(t.term);
+      } catch( IOException e ) {
+	throw new Error("impossible", e);
+      }
+      if( verbose ) System.err.println(">>"+re+"<<");
+      nfa.or(re, t.action);
+    }
+  }
   
   /********************************************************************/
+  // The store is the template with the p1, p2, ... attributes of an
+  // entry and is never changed after construction, because one
+  // dictionary Dfa may be run by many threads. The match is formatted
+  // with a scratch TextStore of the DfaRun instead.
   private static class MwtCallback extends AbstractFaAction {
-    TextStore store;
-    PrintfFormatter f;
-    int tc;			// length of trailing context
+    // for runs not created by createRun()
+    private static final ThreadLocal<TextStore> threadScratch =
+      new ThreadLocal<TextStore>() {
+	protected TextStore initialValue() { return new TextStore(); }
+      };
+
+    final TextStore store;
+    final String[] params;
+    final PrintfFormatter f;
+    final int tc;			// length of trailing context
     public MwtCallback(TextStore store, PrintfFormatter f, 
 		       int tc, int prio) {
       this.store = store;
       this.f = f;
       this.tc = tc;
       this.priority = prio;
+      params = new String[store.getNumParts()-1];
+      for(int i=0; i<params.length; i++) params[i] = store.getPart(i+1);
     }
     public void invoke(StringBuilder yytext, int start, DfaRun r) 
       throws CallbackException
@@ -563,14 +804,22 @@ public class DictFilter implements ServiceFactory {
       // back.
       if( tc>0 && tc<L-start ) r.unskip(yytext, L=L-tc);
 
-      synchronized(store) {
-	int storeLen = store.length();
-	store.append(yytext, start, L);
-	store.setPart(0, storeLen, storeLen+(L-start));
-	yytext.setLength(start);
-	f.format(yytext, store, null);
-	store.setLength(storeLen);
+      TextStore scratch = scratch(r);
+      scratch.clear();
+      scratch.appendPart(yytext, start, L);
+      for(String p : params) {
+	int pos = scratch.length();
+	scratch.append(p);
+	scratch.addPart(pos, scratch.length());
       }
+      yytext.setLength(start);
+      f.format(yytext, scratch, null);
+    }
+    // runs set up by createRun() carry their scratch store, others
+    // use one of the thread
+    private static TextStore scratch(DfaRun r) {
+      if( r instanceof DictRun ) return ((DictRun)r).scratch;
+      return threadScratch.get();
     }
     public String toString() {
       StringBuilder sb = new StringBuilder(80);
@@ -583,6 +832,83 @@ public class DictFilter implements ServiceFactory {
     }
   }
   /********************************************************************/
+  // reads a dictionary file, either an artifact or an mwt file
+  private static DictFilter load(String fileName, String inputType,
+				 String elemName, boolean verbose,
+				 boolean memDebug, boolean defaultWord,
+				 int shards)
+    throws IOException, ReSyntaxException, CompileDfaException
+  {
+    InputStream in = 
+      new BufferedInputStream(new FileInputStream(fileName));
+    try {
+      if( isArtifact(in) ) {
+	if( verbose ) { 
+	  System.err.println("Reading dictionary from `"+fileName+"'");
+	}
+	return new DictFilter(in);
+      }
+      if( inputType==null ) {
+	throw new IllegalArgumentException
+	  ("option -t is required for mwt file `"+fileName+"'");
+      }
+      String mwtEnc = monq.stuff.EncodingDetector.detect(in);
+      Reader rin = new InputStreamReader(in, mwtEnc);
+      return new DictFilter(rin, inputType, elemName, 
+			    verbose, memDebug, defaultWord, shards);
+    } finally {
+      in.close();
+    }
+  }
+  /********************************************************************/
+  // checks the dictionary file regularly and reloads the served
+  // DictFilter in the background when it changed
+  private static final class Reloader implements Runnable {
+    private final DictFilter target;
+    private final File file;
+    private final long millis;
+    private final String inputType;
+    private final String elemName;
+    private final boolean verbose;
+    private final boolean defaultWord;
+    private final int shards;
+
+    Reloader(DictFilter target, String fileName, long millis,
+	     String inputType, String elemName, boolean verbose,
+	     boolean defaultWord, int shards) {
+      this.target = target;
+      this.file = new File(fileName);
+      this.millis = millis;
+      this.inputType = inputType;
+      this.elemName = elemName;
+      this.verbose = verbose;
+      this.defaultWord = defaultWord;
+      this.shards = shards;
+    }
+
+    public void run() {
+      long stamp = file.lastModified();
+      while( true ) {
+	try {
+	  Thread.sleep(millis);
+	} catch( InterruptedException e ) {
+	  return;
+	}
+	long now = file.lastModified();
+	if( now==stamp ) continue;
+	stamp = now;
+	try {
+	  target.reload(load(file.getPath(), inputType, elemName,
+			     verbose, false, defaultWord, shards));
+	  System.err.println("reloaded dictionary `"+file+"'");
+	} catch( Exception e ) {
+	  // keep serving the previous dictionary
+	  System.err.println("could not reload dictionary `"+file+"': "+e);
+	}
+      }
+    }
+  }
+  /********************************************************************/
   /**
    * run on the commandline with <code>-h</code> to get a description.
    */
@@ -595,7 +921,8 @@ public class DictFilter implements ServiceFactory {
     Commandline cmd = new Commandline
       (prog, 
        "filter and tag text according to a dictionary (mwt file)",
-       "filter", "dictionary file in mwt-format", 1, 1);
+       "filter", "dictionary file in mwt-format or as written with "
+       +"option -c", 1, 1);
     cmd.addOption(new BooleanOption("-v", "write all generated regular "+
 				    "expressions to standard error or the "+
 				    "logfile"));
@@ -603,8 +930,9 @@ public class DictFilter implements ServiceFactory {
 		  ("-t", "type", 
 		   "type of input: raw=plain ascii, xml=recognize and "+
 		   "skip xml tags, elem=tag only within xml element given "+
-		   "with option -e",
-		   1, 1, "|raw|xml|elem", null).required());
+		   "with option -e, required unless a precompiled "+
+		   "dictionary is read",
+		   1, 1, "|raw|xml|elem", null));
     String[] dflt = {"plain"};
     cmd.addOption(new Option
 		  ("-e", "elem",
@@ -618,7 +946,9 @@ public class DictFilter implements ServiceFactory {
 		   1, 1, 0, 65535, null));
     cmd.addOption(new Option
 		  ("-c", "fname",
-		   "store the compiled DFA in file fname and exit",
+		   "store the compiled dictionary in file fname and exit. "
+		   +"The file can then be used instead of the mwt file "
+		   +"to start without compiling",
 		   1, 1, null));
     cmd.addOption(new BooleanOption
 		  ("-caw", "suppress additon of a catch-all word to the "
@@ -637,6 +967,18 @@ public class DictFilter implements ServiceFactory {
 			     1, 1, null));
     cmd.addOption(new BooleanOption("-dm", "debug memory: write memory "+
 				    "of Dfa and Nfa to stderr"));
+    cmd.addOption(new LongOption
+		  ("-j", "shards",
+		   "number of shards to compile the dictionary in "
+		   +"parallel, 0 to choose by the number of processors",
+		   1, 1, 0, 1024));
+    cmd.addOption(new LongOption
+		  ("-r", "secs",
+		   "when running as a server, check the dictionary file "
+		   +"every secs seconds and load it again in the "
+		   +"background when it changed. Requests in progress "
+		   +"finish with the previous dictionary",
+		   1, 1, 1, 86400));
     
     try {
       cmd.parse(argv);
@@ -663,16 +1005,20 @@ public class DictFilter implements ServiceFactory {
     boolean memDebug = cmd.available("-dm");
     boolean defaultWord = !cmd.available("-caw");
     String mwtFileName = (String)cmd.getValue("--");
-    String inputType = (String)cmd.getValue("-t");
+    String inputType = null;
+    if( cmd.available("-t") ) inputType = (String)cmd.getValue("-t");
     String elemName = (String)cmd.getValue("-e");
 
-    java.io.InputStream mwtFile = 
-      new BufferedInputStream(new java.io.FileInputStream(mwtFileName));
-    String mwtEnc = monq.stuff.EncodingDetector.detect(mwtFile);
-    Reader rin = new InputStreamReader(mwtFile, mwtEnc);
-    DictFilter dict = new DictFilter(rin, inputType, elemName, 
-				     verbose, memDebug, defaultWord);
-    mwtFile.close();
+    int shards = 0;
+    if( cmd.available("-j") ) shards = ((Long)cmd.getValue("-j")).intValue();
+    DictFilter dict = null;
+    try {
+      dict = load(mwtFileName, inputType, elemName, 
+		  verbose, memDebug, defaultWord, shards);
+    } catch( IllegalArgumentException e ) {
+      System.err.println(prog+": "+e.getMessage());
+      System.exit(1);
+    }
 
     // now set the encodings verified earlier
     if( enc[0]!=null ) dict.setInputEncoding(enc[0]);
@@ -681,13 +1027,12 @@ public class DictFilter implements ServiceFactory {
 
     if( cmd.available("-c") ) {
       String dfaFileName = cmd.getStringValue("-c");
-      ObjectOutputStream out = 
-	new ObjectOutputStream(new FileOutputStream(dfaFileName));
+      OutputStream out = 
+	new BufferedOutputStream(new FileOutputStream(dfaFileName));
       if( verbose ) { 
-	System.err.println("Writing DFA to `"+dfaFileName+"'");
+	System.err.println("Writing dictionary to `"+dfaFileName+"'");
       }
-      out.writeObject(DfaRun.UNMATCHED_COPY);
-      out.writeObject(dict.getDfa());
+      dict.write(out);
       out.close();
       System.exit(0);
     }
@@ -696,6 +1041,15 @@ public class DictFilter implements ServiceFactory {
       //go into server mood
       FilterServiceFactory fsf = new FilterServiceFactory(dict);
       int port = ((Long)cmd.getValue("-p")).intValue();
+      if( cmd.available("-r") ) {
+	long secs = ((Long)cmd.getValue("-r")).longValue();
+	Thread t = new Thread(new Reloader(dict, mwtFileName, 1000*secs,
+					   inputType, elemName, verbose,
+					   defaultWord, shards),
+			      "DictFilter reload");
+	t.setDaemon(true);
+	t.start();
+      }
       new TcpServer(port, fsf, 20).setLogging(System.out).serve();
     } else {
       // filter stdin to stdout, use the file descriptor to be able to
@@ -173,13 +173,25 @@ import java.io.*;
  * <hr>
  * @author &copy; 2004,2005 Harald Kirsch
  */
-public class Grep implements ServiceFactory {
+public class Grep implements ServiceFactory, DfaRunFactory {
 
-  private Dfa main;
+  private volatile Machine machine;
 
-  // in some situations, callbacks must communicate and store
-  // intermediate state
-  private boolean needCom = false;
+  /**********************************************************************/
+  // the automaton together with what its runs need. Both are
+  // replaced at once by reload().
+  private static final class Machine {
+    private final Dfa main;
+
+    // in some situations, callbacks must communicate and store
+    // intermediate state
+    private final boolean needCom;
+
+    Machine(Dfa main, boolean needCom) {
+      this.main = main;
+      this.needCom = needCom;
+    }
+  }
   /**********************************************************************/
   /**
    * used to store internal state for callbacks. Objects of this class
@@ -223,8 +235,9 @@ public class Grep implements ServiceFactory {
       nfa.or(args[i], new Printf(true, args[i+1]).setPriority(prio));
       prio += prioInc;
     }
-    main = nfa.compile(copy ? 
-		       DfaRun.UNMATCHED_COPY : DfaRun.UNMATCHED_DROP);
+    Dfa main = nfa.compile(copy ? 
+			   DfaRun.UNMATCHED_COPY : DfaRun.UNMATCHED_DROP);
+    machine = new Machine(main, false);
   }
   /**********************************************************************/
   /**
@@ -284,7 +297,6 @@ public class Grep implements ServiceFactory {
     Nfa nfa = new Nfa(Nfa.NOTHING);
     nfa.setMemoryForSpeedTradeFactor(1e9f);
     if( select ) {
-      this.needCom = true;
       toWorkAction = new Hold(toWorkAction);
       toEnvAction = new Decide(toEnvAction);
       for(int i=0; i<args.length; i+=2) {
@@ -312,11 +324,12 @@ public class Grep implements ServiceFactory {
     SwitchDfa toWork = new SwitchDfa(toWorkAction);
     Nfa envelope = new Nfa(roiOn, toWork);
     envelope.setMemoryForSpeedTradeFactor(1e9f);
-    main = envelope.compile(fmMain);
+    Dfa main = envelope.compile(fmMain);
 
     // connect the SwitchDfa objects to their DFAs
     toEnv.setDfa(main);
     toWork.setDfa(work);
+    machine = new Machine(main, select);
 
   }
   /**********************************************************************/
@@ -326,11 +339,32 @@ public class Grep implements ServiceFactory {
    * supplied by a <code>DfaRun</code>.</p>
    */
   public DfaRun createRun() {
-    DfaRun r = new DfaRun(main);
-    if( needCom ) r.clientData = new Com();
+    Machine m = machine;
+    DfaRun r = new DfaRun(m.main);
+    if( m.needCom ) r.clientData = new Com();
     return r;
   }
   /**********************************************************************/
+  /**
+   * <p>switches this object to the automaton of <code>fresh</code>,
+   * which may have been set up with completely different parameters,
+   * typically in a background thread. {@link #createRun()} and
+   * {@link #createService createService()} use the new automaton as
+   * soon as this method returns, while runs created before finish
+   * with the old one.</p>
+   */
+  public void reload(Grep fresh) {
+    machine = fresh.machine;
+  }
+  /**********************************************************************/
+  /**
+   * <p>same as {@link #createRun()}, the parameters are ignored. This
+   * allows to use a <code>Grep</code> in a {@link NioFilterServer}.</p>
+   */
+  public DfaRun createRun(java.util.Map<String,String> params) {
+    return createRun();
+  }
+  /**********************************************************************/
   public Service createService(java.io.InputStream in,
 			       java.io.OutputStream out,
 			       Object param) {
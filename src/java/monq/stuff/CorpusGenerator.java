@@ -0,0 +1,369 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.stuff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>generates reproducible synthetic input for benchmarks and
+ * scaling tests: text, text wrapped into XML, dictionaries in the mwt
+ * format of {@link monq.programs.DictFilter} and sets of regular
+ * expressions with a controlled number of competing entries.</p>
+ *
+ * <p>Text is produced by a Markov chain over characters. Each
+ * character is followed by another one according to bigram
+ * statistics, either the built in ones, which produce words of
+ * lower case ASCII letters, or statistics read from a file like
+ * <code>resources/char-2stat-english.txt.gz</code>. Everything is
+ * derived from the seed given to the constructor, so two generators
+ * created alike produce identical output. Since the output is written
+ * to an {@link Appendable}, corpora of several gigabytes can be
+ * generated on the fly instead of being stored.</p>
+ *
+ * <p>Dictionary terms are produced by the same Markov chain and can be
+ * mixed into the text with {@link #setTerms setTerms()} such that a
+ * dictionary filter finds a known share of matches.</p>
+ */
+public class CorpusGenerator {
+
+  // the statistics for the character following the index character,
+  // null if none is known
+  private final CharStatistics[] stats;
+  private final Random r;
+
+  // the character most recently generated, the chain continues with
+  // it in the next call
+  private char current = ' ';
+
+  private int[] termLengths = {0, 0, 0, 1, 2, 3, 3, 3, 2, 2, 1, 1, 1};
+  private List<String> terms = Collections.emptyList();
+  private double hitRate = 0.0;
+  /**********************************************************************/
+  // the characters that may follow a given one with their
+  // accumulated frequencies
+  private static final class CharStatistics {
+    private char[] chars = new char[4];
+    private long[] accFreq = new long[4];
+    private int size = 0;
+
+    void add(char ch, long freq) {
+      if( size==chars.length ) {
+	chars = Arrays.copyOf(chars, 2*size);
+	accFreq = Arrays.copyOf(accFreq, 2*size);
+      }
+      accFreq[size] = (size==0 ? 0 : accFreq[size-1]) + freq;
+      chars[size++] = ch;
+    }
+
+    char next(Random r) {
+      long frq = (long)(r.nextDouble()*accFreq[size-1]);
+      int idx = Arrays.binarySearch(accFreq, 0, size, frq);
+      if( idx<0 ) idx = -(idx+1);
+      else idx += 1;
+      return chars[Math.min(idx, size-1)];
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates a generator with built in statistics which produce
+   * words of lower case ASCII letters with an average length of
+   * about six, separated by single blanks.</p>
+   */
+  public CorpusGenerator(long seed) {
+    this.r = new Random(seed);
+    stats = new CharStatistics[Character.MAX_VALUE+1];
+    String alphabet = " abcdefghijklmnopqrstuvwxyz";
+    for(int i=0; i<alphabet.length(); i++) {
+      char from = alphabet.charAt(i);
+      CharStatistics cs = stats[from] = new CharStatistics();
+      for(char ch='a'; ch<='z'; ch++) cs.add(ch, 5);
+      if( from!=' ' ) cs.add(' ', 26);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates a generator from bigram statistics. Each line of the
+   * input describes how often one character follows another, like
+   * </p>
+   * <pre>et 101 116 448651</pre>
+   * <p>where the first entry is the character pair, the next two are
+   * their code points and the last is the count.</p>
+   */
+  public CorpusGenerator(InputStream bigrams, long seed) throws IOException {
+    this.r = new Random(seed);
+    stats = new CharStatistics[Character.MAX_VALUE+1];
+    BufferedReader br =
+      new BufferedReader(new InputStreamReader(bigrams, "UTF-8"));
+    String line;
+    while( null!=(line = br.readLine()) ) {
+      String[] parts = line.trim().split("[ ]+");
+      int l = parts.length;
+      if( l<3 ) continue;
+      int from = Integer.parseInt(parts[l-3]);
+      int to = Integer.parseInt(parts[l-2]);
+      long count = Long.parseLong(parts[l-1]);
+      if( stats[from]==null ) stats[from] = new CharStatistics();
+      stats[from].add((char)to, count);
+    }
+    if( stats[current]==null ) {
+      throw new IOException("bigram statistics contain no successors "
+			    +"for the blank");
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates a generator from bigram statistics stored in the given
+   * file, which may be compressed with gzip if its name ends in
+   * <code>.gz</code>.</p>
+   *
+   * @see #CorpusGenerator(InputStream,long)
+   */
+  public static CorpusGenerator fromFile(String fname, long seed)
+    throws IOException
+  {
+    InputStream in = new BufferedInputStream(new FileInputStream(fname));
+    try {
+      if( fname.endsWith(".gz") ) in = new GZIPInputStream(in);
+      return new CorpusGenerator(in, seed);
+    } finally {
+      in.close();
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>sets the distribution of term lengths used by {@link #terms
+   * terms()} and {@link #regexes regexes()}. Element <code>i</code>
+   * is the relative weight of terms with <code>i</code> characters.
+   * The default prefers lengths between 5 and 9 and creates terms of
+   * 3 to 12 characters.</p>
+   */
+  public CorpusGenerator setTermLengths(int... weights) {
+    int sum = 0;
+    for(int w : weights) sum += w;
+    if( sum<=0 || weights[0]!=0 ) {
+      throw new IllegalArgumentException("weights must be positive "
+					 +"for some length greater zero");
+    }
+    this.termLengths = weights.clone();
+    return this;
+  }
+  /**********************************************************************/
+  /**
+   * <p>requests that generated text contains the given terms. At the
+   * start of each word, one of the terms is inserted with probability
+   * <code>hitRate</code>.</p>
+   */
+  public CorpusGenerator setTerms(List<String> terms, double hitRate) {
+    this.terms = new ArrayList<String>(terms);
+    this.hitRate = terms.isEmpty() ? 0.0 : hitRate;
+    return this;
+  }
+  /**********************************************************************/
+  /**
+   * <p>appends exactly <code>nChars</code> characters of text to
+   * <code>out</code>.</p>
+   */
+  public void text(Appendable out, long nChars) throws IOException {
+    StringBuilder sb = new StringBuilder(8192);
+    while( nChars>0 ) {
+      sb.setLength(0);
+      int chunk = (int)Math.min(nChars, 8192);
+      chunk(sb, chunk);
+      out.append(sb);
+      nChars -= chunk;
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns exactly <code>nChars</code> characters of text.</p>
+   */
+  public StringBuilder text(int nChars) {
+    StringBuilder sb = new StringBuilder(nChars);
+    chunk(sb, nChars);
+    return sb;
+  }
+  /**********************************************************************/
+  /**
+   * <p>appends an XML document to <code>out</code> which contains
+   * <code>nChars</code> characters of text, split into elements
+   * <code>element</code> of about <code>meanLength</code>
+   * characters below a root element <code>corpus</code>. Characters
+   * not allowed in XML are replaced by blanks and markup characters
+   * are escaped, so the document is well formed.</p>
+   */
+  public void xml(Appendable out, long nChars, String element,
+		  int meanLength) throws IOException
+  {
+    out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<corpus>\n");
+    StringBuilder sb = new StringBuilder(2*meanLength);
+    StringBuilder esc = new StringBuilder(3*meanLength);
+    while( nChars>0 ) {
+      int l = meanLength/2+r.nextInt(meanLength+1);
+      l = (int)Math.min(Math.max(l, 1), nChars);
+      sb.setLength(0);
+      chunk(sb, l);
+      esc.setLength(0);
+      esc.append('<').append(element).append('>');
+      escape(esc, sb);
+      esc.append("</").append(element).append(">\n");
+      out.append(esc);
+      nChars -= l;
+    }
+    out.append("</corpus>\n");
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns <code>n</code> distinct terms with lengths distributed
+   * as set with {@link #setTermLengths setTermLengths()}. Terms
+   * consist of letters, longer ones may contain single blanks.</p>
+   *
+   * @throws IllegalArgumentException if the lengths do not allow for
+   * <code>n</code> distinct terms.
+   */
+  public List<String> terms(int n) {
+    int total = 0;
+    for(int w : termLengths) total += w;
+
+    Set<String> result = new LinkedHashSet<String>(2*n);
+    StringBuilder sb = new StringBuilder();
+    long attempts = 0;
+    while( result.size()<n ) {
+      if( ++attempts>100L*n+1000 ) {
+	throw new IllegalArgumentException
+	  ("cannot create "+n+" distinct terms with the given lengths");
+      }
+      int pick = r.nextInt(total);
+      int len = 0;
+      while( pick>=termLengths[len] ) pick -= termLengths[len++];
+      sb.setLength(0);
+      char ch = ' ';
+      while( sb.length()<len ) {
+	ch = next(ch);
+	if( Character.isLetter(ch) ) {
+	  sb.append(ch);
+	} else if( sb.length()>0 && sb.length()<len-1
+		   && sb.charAt(sb.length()-1)!=' ' ) {
+	  sb.append(' ');
+	}
+      }
+      result.add(sb.toString());
+    }
+    return new ArrayList<String>(result);
+  }
+  /**********************************************************************/
+  /**
+   * <p>returns <code>n</code> regular expressions of which about the
+   * given share competes with others. The others are literal terms
+   * as created by {@link #terms terms()}, which never match the same
+   * text. A competing expression is derived from one of the literal
+   * terms by replacing one of its characters with a dot, so both
+   * match the term. Compiling competing expressions into one
+   * automaton needs priorities to resolve the clashes.</p>
+   */
+  public List<String> regexes(int n, double ambiguity) {
+    List<String> base = terms(n);
+    int nAmbiguous = (int)Math.round(n*ambiguity);
+    nAmbiguous = Math.max(0, Math.min(nAmbiguous, n-1));
+    int nLiteral = n-nAmbiguous;
+
+    List<String> result = new ArrayList<String>(base.subList(0, nLiteral));
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<nAmbiguous; i++) {
+      sb.setLength(0);
+      sb.append(base.get(r.nextInt(nLiteral)));
+      sb.setCharAt(r.nextInt(sb.length()), '.');
+      result.add(sb.toString());
+    }
+    Collections.shuffle(result, r);
+    return result;
+  }
+  /**********************************************************************/
+  /**
+   * <p>appends a dictionary in the mwt format of {@link
+   * monq.programs.DictFilter} to <code>out</code> which contains the
+   * given terms. The terms are formatted with <code>template</code>,
+   * which is copied verbatim into the <code>template</code> element,
+   * where <code>%1</code> is replaced by the index of a term in
+   * <code>terms</code>, for example
+   * <code>&lt;t id="%1">%0&lt;/t></code>.</p>
+   */
+  public static void mwt(Appendable out, List<String> terms,
+			 String template) throws IOException
+  {
+    StringBuilder sb = new StringBuilder(200);
+    out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mwt>\n");
+    out.append("<template>").append(template).append("</template>\n");
+    for(int i=0; i<terms.size(); i++) {
+      sb.setLength(0);
+      sb.append("<t p1=\"").append(i).append("\">");
+      escape(sb, terms.get(i));
+      sb.append("</t>\n");
+      out.append(sb);
+    }
+    out.append("</mwt>\n");
+  }
+  /**********************************************************************/
+  private void chunk(StringBuilder sb, int nChars) {
+    int end = sb.length()+nChars;
+    while( sb.length()<end ) {
+      if( current==' ' && hitRate>0.0 && r.nextDouble()<hitRate ) {
+	String t = terms.get(r.nextInt(terms.size()));
+	if( sb.length()+t.length()+1<=end ) {
+	  sb.append(t).append(' ');
+	  continue;
+	}
+      }
+      current = next(current);
+      sb.append(current);
+    }
+  }
+  /**********************************************************************/
+  private char next(char ch) {
+    CharStatistics cs = stats[ch];
+    if( cs==null ) cs = stats[' '];
+    return cs.next(r);
+  }
+  /**********************************************************************/
+  private static void escape(StringBuilder out, CharSequence s) {
+    for(int i=0, L=s.length(); i<L; i++) {
+      char ch = s.charAt(i);
+      switch( ch ) {
+      case '&': out.append("&amp;"); break;
+      case '<': out.append("&lt;"); break;
+      case '>': out.append("&gt;"); break;
+      case '\n': case '\r': case '\t': out.append(ch); break;
+      default:
+	if( ch<' ' || Character.isSurrogate(ch) || ch>=0xFFFE ) ch = ' ';
+	out.append(ch);
+      }
+    }
+  }
+  /**********************************************************************/
+}
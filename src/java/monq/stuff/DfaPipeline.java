@@ -0,0 +1,366 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.stuff;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import monq.jfa.CharSequenceCharSource;
+import monq.jfa.CharSource;
+import monq.jfa.Dfa;
+import monq.jfa.DfaRun;
+import monq.jfa.EmptyCharSource;
+
+/**
+ * <p>runs a chain of {@link Dfa}s, each in its own {@link DfaRun} on
+ * its own thread. The output of one stage is handed to the next one
+ * in chunks of characters through a bounded queue. A stage that
+ * produces faster than the next one consumes is blocked as soon as
+ * the queue is full.</p>
+ *
+ * <p>The result is the same as if each <code>DfaRun</code> would read
+ * from the previous one, except that the stages run
+ * concurrently. Because each stage has its own <code>DfaRun</code>,
+ * the callbacks of one stage can not see the {@link
+ * DfaRun#clientData} of another stage.</p>
+ *
+ * <p>While {@link #filter filter()} is running, the statistics of the
+ * stages may be inspected from other threads through {@link
+ * #getStages}.</p>
+ *
+ * <p><b>Note:</b> <code>filter()</code> is synchronized, a pipeline
+ * can only filter one input at a time.</p>
+ */
+public class DfaPipeline {
+
+  // marks the end of the chunks delivered by a stage
+  private static final StringBuilder END = new StringBuilder();
+
+  private final List<Stage> stages = new ArrayList<>();
+  private int chunkSize = 16*1024;
+  private int queueCapacity = 4;
+  private boolean virtualThreads = false;
+
+  private volatile boolean aborted;
+  private volatile Exception failure;
+
+  /**********************************************************************/
+  /**
+   * <p>describes one stage of a {@link DfaPipeline} and provides
+   * statistics about it. The statistics are updated only by the
+   * thread running the stage, but can be read at any time.</p>
+   */
+  public static final class Stage {
+    private final String name;
+    private final Dfa dfa;
+    private BlockingQueue<StringBuilder> out;
+
+    private volatile long charsOut;
+    private volatile long chunksOut;
+    private volatile long blockedNanos;
+    private volatile long starvedNanos;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    private Stage(String name, Dfa dfa) {
+      this.name = name;
+      this.dfa = dfa;
+    }
+    public String getName() { return name; }
+    public Dfa getDfa() { return dfa; }
+
+    /** number of characters delivered to the next stage */
+    public long getCharsOut() { return charsOut; }
+
+    /** number of chunks delivered to the next stage */
+    public long getChunksOut() { return chunksOut; }
+
+    /** nanoseconds spent waiting for the next stage to take a chunk */
+    public long getBlockedNanos() { return blockedNanos; }
+
+    /** nanoseconds spent waiting for input from the previous stage */
+    public long getStarvedNanos() { return starvedNanos; }
+
+    /** number of chunks waiting to be taken by the next stage */
+    public int getQueueDepth() {
+      BlockingQueue<StringBuilder> q = out;
+      return q==null ? 0 : q.size();
+    }
+
+    /**
+     * <p>returns the characters delivered per second since the stage
+     * was started.</p>
+     */
+    public double getThroughput() {
+      long start = startNanos;
+      if( start==0 ) return 0.0;
+      long end = endNanos;
+      if( end==0 ) end = System.nanoTime();
+      if( end==start ) return 0.0;
+      return charsOut*1e9/(end-start);
+    }
+
+    public String toString() {
+      return String.format("%s: %d chars in %d chunks, %.0f chars/s, "+
+                           "queue %d, blocked %dms, starved %dms",
+                           name, charsOut, chunksOut, getThroughput(),
+                           getQueueDepth(), blockedNanos/1000000,
+                           starvedNanos/1000000);
+    }
+  }
+  /**********************************************************************/
+  /**
+   * <p>appends a stage which filters with the given <code>Dfa</code>.</p>
+   */
+  public DfaPipeline add(Dfa dfa) {
+    return add(dfa, "stage"+stages.size());
+  }
+  /**
+   * <p>appends a named stage which filters with the given
+   * <code>Dfa</code>. The name is used for the thread and in the
+   * statistics.</p>
+   */
+  public DfaPipeline add(Dfa dfa, String name) {
+    stages.add(new Stage(name, dfa));
+    return this;
+  }
+  /**
+   * <p>sets the minimum number of characters a stage collects before
+   * handing them to the next stage. The default is 16k.</p>
+   */
+  public DfaPipeline setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+    return this;
+  }
+  /**
+   * <p>sets the number of chunks that may wait between two
+   * stages. The default is 4.</p>
+   */
+  public DfaPipeline setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+    return this;
+  }
+  /**
+   * <p>requests to run the stages on virtual threads, if the runtime
+   * supports them.</p>
+   *
+   * @see VirtualThreads
+   */
+  public DfaPipeline setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+    return this;
+  }
+  /**
+   * returns the stages in the order they were added.
+   */
+  public List<Stage> getStages() {
+    return Collections.unmodifiableList(stages);
+  }
+  /**********************************************************************/
+  /**
+   * <p>filters <code>in</code> through all stages and appends the
+   * result to <code>out</code>. The calling thread writes to
+   * <code>out</code> while the stages run on their own threads.</p>
+   *
+   * @throws IOException if a stage fails, in particular with a
+   * {@link monq.jfa.CallbackException}. All other stages are stopped
+   * in this case.
+   */
+  public synchronized void filter(CharSource in, Appendable out)
+    throws IOException
+  {
+    if( stages.isEmpty() ) {
+      throw new IllegalStateException("pipeline has no stages");
+    }
+    aborted = false;
+    failure = null;
+
+    Thread[] threads = new Thread[stages.size()];
+    CharSource src = in;
+    for(int i=0; i<threads.length; i++) {
+      Stage s = stages.get(i);
+      s.out = new ArrayBlockingQueue<>(queueCapacity);
+      s.charsOut = s.chunksOut = s.blockedNanos = s.starvedNanos = 0;
+      s.startNanos = s.endNanos = 0;
+      threads[i] = VirtualThreads.newThread(new Worker(s, src),
+                                            s.name, virtualThreads);
+      if( i+1<threads.length ) {
+        src = new QueueSource(s.out, stages.get(i+1), this);
+      }
+    }
+    for(Thread t : threads) t.start();
+
+    boolean done = false;
+    try {
+      BlockingQueue<StringBuilder> q = stages.get(threads.length-1).out;
+      while( true ) {
+        StringBuilder chunk = q.poll(100, TimeUnit.MILLISECONDS);
+        if( chunk==END ) break;
+        if( chunk!=null ) out.append(chunk);
+        else if( aborted ) break;
+      }
+      done = true;
+    } catch( InterruptedException e ) {
+      InterruptedIOException ee = new InterruptedIOException();
+      ee.initCause(e);
+      throw ee;
+    } finally {
+      // also if out failed, the stages must not wait for us forever
+      if( !done ) aborted = true;
+      join(threads);
+    }
+
+    Exception e = failure;
+    if( e==null ) return;
+    if( e instanceof IOException ) throw (IOException)e;
+    if( e instanceof RuntimeException ) throw (RuntimeException)e;
+    throw new IOException(e);
+  }
+  /**********************************************************************/
+  /**
+   * <p>filters <code>in</code> through all stages and returns the
+   * result.</p>
+   */
+  public String filter(CharSequence in) throws IOException {
+    StringBuilder out = new StringBuilder(in.length());
+    filter(new CharSequenceCharSource(in), out);
+    return out.toString();
+  }
+  /**********************************************************************/
+  // waits for all threads, keeping the interrupt for the caller
+  private static void join(Thread[] threads) {
+    boolean interrupted = false;
+    for(Thread t : threads) {
+      while( true ) {
+        try {
+          t.join();
+          break;
+        } catch( InterruptedException e ) {
+          interrupted = true;
+        }
+      }
+    }
+    if( interrupted ) Thread.currentThread().interrupt();
+  }
+  /**********************************************************************/
+  private void fail(Exception e) {
+    synchronized(stages) {
+      if( failure==null ) failure = e;
+    }
+    aborted = true;
+  }
+  /**********************************************************************/
+  private final class Worker implements Runnable {
+    private final Stage stage;
+    private final CharSource in;
+
+    Worker(Stage stage, CharSource in) {
+      this.stage = stage;
+      this.in = in;
+    }
+
+    public void run() {
+      stage.startNanos = System.nanoTime();
+      try {
+        DfaRun r = new DfaRun(stage.dfa, in);
+        StringBuilder sb = new StringBuilder(chunkSize+chunkSize/4);
+        while( r.read(sb) ) {
+          if( sb.length()<chunkSize ) continue;
+          put(sb);
+          sb = new StringBuilder(chunkSize+chunkSize/4);
+        }
+        if( sb.length()>0 ) put(sb);
+        put(END);
+      } catch( InterruptedIOException e ) {
+        // may also be a timeout of the source, like a
+        // SocketTimeoutException, which is a failure
+        if( aborted || Thread.currentThread().isInterrupted() ) {
+          // another stage failed or filter() was interrupted
+          aborted = true;
+        } else {
+          fail(e);
+        }
+      } catch( IOException | RuntimeException e ) {
+        fail(e);
+      } finally {
+        stage.endNanos = System.nanoTime();
+      }
+    }
+
+    private void put(StringBuilder chunk) throws InterruptedIOException {
+      long start = System.nanoTime();
+      try {
+        while( !stage.out.offer(chunk, 100, TimeUnit.MILLISECONDS) ) {
+          if( aborted ) throw new InterruptedIOException();
+        }
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      stage.blockedNanos += System.nanoTime()-start;
+      if( chunk==END ) return;
+      stage.charsOut += chunk.length();
+      stage.chunksOut += 1;
+    }
+  }
+  /**********************************************************************/
+  // delivers the chunks of one stage to the DfaRun of the next stage
+  private static final class QueueSource extends EmptyCharSource {
+    private final BlockingQueue<StringBuilder> q;
+    private final Stage consumer;
+    private final DfaPipeline pipeline;
+    private StringBuilder chunk = new StringBuilder();
+    private int next = 0;
+
+    QueueSource(BlockingQueue<StringBuilder> q, Stage consumer,
+                DfaPipeline pipeline) {
+      this.q = q;
+      this.consumer = consumer;
+      this.pipeline = pipeline;
+    }
+
+    public int read() throws IOException {
+      int ch = readOne();
+      if( ch>=0 ) return ch;
+      while( next>=chunk.length() ) {
+        if( chunk==END ) return -1;
+        long start = System.nanoTime();
+        try {
+          do {
+            chunk = q.poll(100, TimeUnit.MILLISECONDS);
+            if( chunk==null && pipeline.aborted ) {
+              throw new InterruptedIOException();
+            }
+          } while( chunk==null );
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        consumer.starvedNanos += System.nanoTime()-start;
+        next = 0;
+      }
+      return chunk.charAt(next++);
+    }
+  }
+  /**********************************************************************/
+}
@@ -43,6 +43,15 @@ public class Sizeof {
 
   static final Map<Object,Integer> pSizes;
 
+  // null if not available
+  private static final Unsafe UNSAFE;
+
+  // objects start at multiples of this
+  private static final int OBJ_ALIGN = 8;
+
+  private static final Map<Class<?>,Integer> instanceSizes =
+    new java.util.concurrent.ConcurrentHashMap<Class<?>,Integer>();
+
   // no need for this to show up in the docs
   private Sizeof() {}
 
@@ -81,6 +90,7 @@ public class Sizeof {
     MEM_OBJ_OVERHEAD = (f!=null && u!=null) ? (int)u.objectFieldOffset(f) : 12;
     MEM_CHAR_INARRAY = u!=null ? u.arrayIndexScale(char[].class) : 2;
     MEM_PTR_INARRAY = u!=null ? u.arrayIndexScale(Object[].class) : MEM_PTR_SIZE;
+    UNSAFE = u;
   }
   private static final class Root {}
 
@@ -96,6 +106,42 @@ public class Sizeof {
     return MEM_PTR_SIZE*((l+MEM_PTR_SIZE-1)/MEM_PTR_SIZE);
   }
 
+  /**
+   * <p>returns the size of an object of class <code>c</code>, not
+   * counting any objects it refers to. The size is derived from the
+   * field offsets the running JVM uses, so it reflects compressed
+   * pointers and field packing. Only if these are not available, it
+   * is estimated from the field types. Results are cached per
+   * class.</p>
+   */
+  public static int instanceSize(Class<?> c) {
+    Integer size = instanceSizes.get(c);
+    if( size!=null ) return size;
+
+    int end = MEM_OBJ_OVERHEAD;
+    int sum = MEM_OBJ_OVERHEAD;
+    boolean exact = UNSAFE!=null;
+    for(Class<?> k=c; k!=null; k=k.getSuperclass()) {
+      for(Field f : k.getDeclaredFields()) {
+	if( Modifier.isStatic(f.getModifiers()) ) continue;
+	Integer l = pSizes.get(f.getType());
+	int fsize = l!=null ? l.intValue() : MEM_PTR_INARRAY;
+	sum += fsize;
+	if( !exact ) continue;
+	try {
+	  end = Math.max(end, (int)UNSAFE.objectFieldOffset(f)+fsize);
+	} catch( RuntimeException e ) {
+	  // hidden classes and the like
+	  exact = false;
+	}
+      }
+    }
+    int result = exact ? end : sum;
+    result = OBJ_ALIGN*((result+OBJ_ALIGN-1)/OBJ_ALIGN);
+    instanceSizes.put(c, result);
+    return result;
+  }
+
   private static void sizeof(Object obj, IdentityHashMap<Object,Object> known, 
 			     Map<Class<?>,Map<Class<?>,Pair>> types) 
   {
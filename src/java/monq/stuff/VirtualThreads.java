@@ -0,0 +1,78 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.stuff;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * <p>creates virtual threads if the Java runtime supports them, and
+ * platform threads otherwise. Virtual threads are accessed by
+ * reflection such that this package still compiles and runs on older
+ * Java versions.</p>
+ */
+public final class VirtualThreads {
+
+  private static final Method OF_VIRTUAL;
+  private static final Method NAME;
+  private static final Method UNSTARTED;
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      name = builder.getMethod("name", String.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+    } catch( ClassNotFoundException | NoSuchMethodException e ) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+  }
+
+  private VirtualThreads() {}
+  /**********************************************************************/
+  /**
+   * returns <code>true</code> if the runtime supports virtual threads.
+   */
+  public static boolean available() {
+    return OF_VIRTUAL!=null;
+  }
+  /**********************************************************************/
+  /**
+   * <p>creates an unstarted thread running <code>r</code>. If
+   * <code>virtual</code> is true and the runtime supports it, the
+   * thread is virtual, otherwise it is a platform thread which is a
+   * daemon if the current thread is.</p>
+   */
+  public static Thread newThread(Runnable r, String name, boolean virtual) {
+    if( !virtual || OF_VIRTUAL==null ) return new Thread(r, name);
+    try {
+      Object builder = OF_VIRTUAL.invoke(null);
+      builder = NAME.invoke(builder, name);
+      return (Thread)UNSTARTED.invoke(builder, r);
+    } catch( IllegalAccessException e ) {
+      throw new Error("impossible", e);
+    } catch( InvocationTargetException e ) {
+      throw new Error("impossible", e.getCause());
+    }
+  }
+  /**********************************************************************/
+}
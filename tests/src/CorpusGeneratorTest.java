@@ -0,0 +1,117 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import monq.jfa.*;
+import monq.jfa.actions.*;
+import monq.programs.DictFilter;
+import monq.stuff.CorpusGenerator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CorpusGeneratorTest {
+
+  private static final String BIGRAMS = 
+    "resources/char-2stat-english.txt.gz";
+
+  @Test
+  public void test_reproducible() throws Exception {
+    String a = CorpusGenerator.fromFile(BIGRAMS, 17).text(10000).toString();
+    String b = CorpusGenerator.fromFile(BIGRAMS, 17).text(10000).toString();
+    String c = CorpusGenerator.fromFile(BIGRAMS, 18).text(10000).toString();
+    assertEquals(10000, a.length());
+    assertEquals(a, b);
+    assertFalse(a.equals(c));
+
+    StringBuilder sb = new StringBuilder();
+    new CorpusGenerator(17).text(sb, 20000);
+    assertEquals(new CorpusGenerator(17).text(20000).toString(), 
+		 sb.toString());
+  }
+
+  @Test
+  public void test_xml() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    CorpusGenerator.fromFile(BIGRAMS, 1).xml(sb, 100000, "p", 500);
+    DocumentBuilderFactory.newInstance().newDocumentBuilder()
+      .parse(new ByteArrayInputStream(sb.toString().getBytes("UTF-8")));
+  }
+
+  @Test
+  public void test_terms() throws Exception {
+    CorpusGenerator g = CorpusGenerator.fromFile(BIGRAMS, 1);
+    g.setTermLengths(0, 0, 0, 0, 1, 1);
+    List<String> terms = g.terms(300);
+    assertEquals(300, terms.size());
+    for(String t : terms) {
+      assertTrue(t, t.length()==4 || t.length()==5);
+      assertEquals(t, t.trim());
+    }
+    try {
+      g.setTermLengths(0, 1).terms(1000);
+      fail("there are not that many terms of length 1");
+    } catch( IllegalArgumentException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void test_mwt() throws Exception {
+    CorpusGenerator g = new CorpusGenerator(1);
+    List<String> terms = g.terms(200);
+    StringBuilder mwt = new StringBuilder();
+    CorpusGenerator.mwt(mwt, terms, "<x id=\"%1\">%0</x>");
+    DictFilter df = new DictFilter(new StringReader(mwt.toString()), "raw",
+				   null, false);
+    String text = g.setTerms(terms, 0.1).text(20000).toString();
+    String out = df.createRun().filter(text);
+    int hits = out.split("<x id=").length-1;
+    assertTrue("hits="+hits, hits>100);
+  }
+
+  @Test
+  public void test_regexes() throws Exception {
+    CorpusGenerator g = new CorpusGenerator(1);
+    assertEquals(100, g.regexes(100, 0.0).size());
+    compile(g.regexes(100, 0.0));
+    List<String> rexes = g.regexes(100, 0.2);
+    int dots = 0;
+    for(String re : rexes) if( re.indexOf('.')>=0 ) dots += 1;
+    assertEquals(20, dots);
+    try {
+      compile(rexes);
+      fail("competing regular expressions must clash");
+    } catch( CompileDfaException e ) {
+      // expected
+    }
+  }
+
+  private static void compile(List<String> rexes) throws Exception {
+    Nfa nfa = new Nfa(Nfa.NOTHING);
+    for(int i=0; i<rexes.size(); i++) {
+      nfa.or(rexes.get(i), new Printf(Integer.toString(i)));
+    }
+    nfa.compile(DfaRun.UNMATCHED_COPY);
+  }
+}
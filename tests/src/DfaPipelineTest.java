@@ -0,0 +1,116 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+
+import monq.jfa.*;
+import monq.jfa.actions.*;
+import monq.stuff.DfaPipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DfaPipelineTest {
+
+  private static Dfa[] stages() throws Exception {
+    return new Dfa[] {
+      new Nfa("a", new Printf("bb")).compile(DfaRun.UNMATCHED_COPY),
+      new Nfa("b", new Printf("cc")).compile(DfaRun.UNMATCHED_COPY),
+      new Nfa("cccc", new Printf("d")).compile(DfaRun.UNMATCHED_COPY),
+    };
+  }
+
+  @Test
+  public void test_sameAsCascade() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<20000; i++) sb.append("xa").append(i).append('\n');
+    String in = sb.toString();
+
+    Dfa[] dfas = stages();
+    CharSource src = new CharSequenceCharSource(in);
+    for(Dfa dfa : dfas) src = new DfaRun(dfa, src);
+    StringBuilder expect = new StringBuilder();
+    ((DfaRun)src).filter(expect);
+
+    DfaPipeline p = new DfaPipeline().setChunkSize(100).setQueueCapacity(2);
+    for(Dfa dfa : dfas) p.add(dfa);
+    assertEquals(expect.toString(), p.filter(in));
+
+    DfaPipeline.Stage last = p.getStages().get(2);
+    assertEquals(expect.length(), last.getCharsOut());
+    assertTrue(last.getChunksOut()>1);
+    assertEquals(0, last.getQueueDepth());
+  }
+
+  // if the output fails, the stages are stopped before filter()
+  // returns
+  @Test
+  public void test_failingOutput() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<20000; i++) sb.append("xa").append(i).append('\n');
+    DfaPipeline p = new DfaPipeline().setChunkSize(100).setQueueCapacity(2);
+    Dfa[] dfas = stages();
+    for(int i=0; i<dfas.length; i++) p.add(dfas[i], "failingOut"+i);
+    Appendable out = new Appendable() {
+        public Appendable append(CharSequence cs) throws java.io.IOException {
+          throw new java.io.IOException("output broken");
+        }
+        public Appendable append(CharSequence cs, int start, int end)
+          throws java.io.IOException {
+          return append(cs);
+        }
+        public Appendable append(char c) throws java.io.IOException {
+          return append("");
+        }
+      };
+    try {
+      p.filter(new CharSequenceCharSource(sb), out);
+      fail("exception expected");
+    } catch( java.io.IOException e ) {
+      assertEquals("output broken", e.getMessage());
+    }
+    for(Thread t : Thread.getAllStackTraces().keySet()) {
+      assertFalse(t.getName(), t.getName().startsWith("failingOut"));
+    }
+  }
+
+  // a timeout of the source must not end the pipeline as if it was
+  // stopped on purpose
+  @Test(expected=java.net.SocketTimeoutException.class)
+  public void test_sourceTimeout() throws Exception {
+    CharSource in = new EmptyCharSource() {
+        private int count = 0;
+        @Override
+        public int read() throws java.io.IOException {
+          int ch = readOne();
+          if( ch>=0 ) return ch;
+          if( count++<50 ) return 'a';
+          throw new java.net.SocketTimeoutException("read timed out");
+        }
+      };
+    DfaPipeline p = new DfaPipeline().setChunkSize(10);
+    for(Dfa dfa : stages()) p.add(dfa);
+    p.filter(in, new StringBuilder());
+  }
+
+  @Test(expected=NomatchException.class)
+  public void test_failingStage() throws Exception {
+    DfaPipeline p = new DfaPipeline().setChunkSize(10);
+    for(Dfa dfa : stages()) p.add(dfa);
+    p.add(new Nfa("d", Copy.COPY).compile(DfaRun.UNMATCHED_THROW));
+    p.filter("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaax");
+  }
+}
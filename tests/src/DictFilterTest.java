@@ -316,6 +316,145 @@ public class DictFilterTest extends TestCase {
     assertEquals("bla bla<harald> bla <harald> bla", s);
   }
 
+  // Compiling the dictionary in shards must give the same filter as
+  // compiling it in one go, including the priorities between entries
+  // of different shards.
+  public static void test_shards() throws Exception {
+    StringBuilder mwt = new StringBuilder("<mwt><template>[%0|%1]</template>");
+    StringBuilder text = new StringBuilder();
+    for(int i=0; i<300; i++) {
+      mwt.append("<t p1='").append(i).append("'>term").append(i)
+	.append("</t>");
+      text.append("a term").append(i).append(" b ");
+    }
+    // overlaps with terms in the first shard, but has higher priority
+    mwt.append("<template>{%0}</template><r tc='1'>term1[0-9]* </r>");
+    mwt.append("<t p1='x'>term 7</t></mwt>");
+    text.append("term 7 term12x term7");
+
+    String[] results = new String[3];
+    int[] shards = {1, 3, 7};
+    for(int i=0; i<shards.length; i++) {
+      DictFilter df = new DictFilter(new StringReader(mwt.toString()),
+				     "xml", null, false, false, true,
+				     shards[i]);
+      results[i] = df.createRun().filter("<x>"+text+"</x>");
+    }
+    assertTrue(results[0].contains("a [term5|5] b"));
+    assertTrue(results[0].contains("a {term12} b"));
+    assertTrue(results[0].contains("a [term200|200] b"));
+    assertTrue(results[0].endsWith("{term 7} term12x {term7}</x>"));
+    assertEquals(results[0], results[1]);
+    assertEquals(results[0], results[2]);
+  }
+
+  // A dictionary written as an artifact and read back must filter
+  // exactly like the compiled one, templates, trailing contexts and
+  // priorities included.
+  public static void test_artifact() throws Exception {
+    String mwt = "<mwt><template>[%0|%1]</template>"
+      +"<t p1='1'>term1</t><t p1='2'>term 2</t>"
+      +"<template>{%0}</template><r tc='1'>term1[0-9]* </r></mwt>";
+    String text = "<x>a term1 b term12 term 2 term1x</x><y>term1 </y>";
+    String[] types = {"raw", "xml", "elem"};
+    for(int i=0; i<types.length; i++) {
+      DictFilter df = new DictFilter(new StringReader(mwt), types[i], "x",
+				     false);
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      df.write(bout);
+
+      InputStream in = new BufferedInputStream
+	(new ByteArrayInputStream(bout.toByteArray()));
+      assertTrue(DictFilter.isArtifact(in));
+      DictFilter loaded = new DictFilter(in);
+      String expect = df.createRun().filter(text);
+      assertEquals(expect, loaded.createRun().filter(text));
+      assertEquals(expect, loaded.createRun().filter(text));
+    }
+    DictFilter df = new DictFilter(new StringReader(mwt), "elem", "x",
+				   false);
+    assertEquals("<x>a {term1} b {term12} [term 2|2] term1x</x><y>term1 </y>",
+		 df.createRun().filter(text));
+
+    InputStream in = new BufferedInputStream
+      (new ByteArrayInputStream(mwt.getBytes("UTF-8")));
+    assertFalse(DictFilter.isArtifact(in));
+    try {
+      new DictFilter(in);
+      fail("an mwt file must not be accepted as an artifact");
+    } catch( IOException e ) {
+      // expected
+    }
+  }
+
+  // After a reload, new runs use the new dictionary while a run
+  // created before finishes with the old one.
+  public static void test_reload() throws Exception {
+    DictFilter df = new DictFilter
+      (new StringReader("<mwt><template>[%0|%1]</template>"
+			+"<t p1='old'>alpha</t></mwt>"), "raw", null, false);
+    DfaRun running = df.createRun();
+    DictFilter fresh = new DictFilter
+      (new StringReader("<mwt><template>{%0|%1}</template>"
+			+"<t p1='new'>alpha</t><t p1='new'>beta</t></mwt>"),
+       "raw", null, false);
+    df.reload(fresh);
+
+    String text = "alpha beta.";
+    assertEquals("{alpha|new} {beta|new}.", df.createRun().filter(text));
+    assertEquals("[alpha|old] beta.", running.filter(text));
+    assertSame(fresh.getDfa(), df.getDfa());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    df.createService(new ByteArrayInputStream(text.getBytes("UTF-8")),
+		     out, null).run();
+    assertEquals("{alpha|new} {beta|new}.", out.toString());
+  }
+
+  // Many threads run the same dictionary Dfa, each with its own
+  // DfaRun. They must not garble each other's matches. The
+  // throughput is measured by DictFilterBench in bench/src.
+  public static void test_concurrentRuns() throws Exception {
+    StringReader in = new StringReader
+      ("<mwt><template>[%0|%1|%2]</template>"
+       +"<t p1='A' p2='x'>alpha</t><t p1='B' p2='y'>beta</t>"
+       +"<t p1='C' p2='z'>gamma</t></mwt>");
+    final DictFilter df = new DictFilter(in, "raw", null, false);
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<5000; i++) sb.append("alpha beta gamma ").append(i);
+    final String text = sb.toString();
+    final String expect = df.createRun().filter(text);
+    assertTrue(expect.startsWith("[alpha|A|x] [beta|B|y] [gamma|C|z] 0"));
+
+    final String[] results = new String[4];
+    Thread[] threads = new Thread[results.length];
+    for(int i=0; i<threads.length; i++) {
+      final int id = i;
+      threads[i] = new Thread() {
+	  public void run() {
+	    try {
+	      DfaRun r = df.createRun();
+	      for(int k=0; k<3; k++) results[id] = r.filter(text);
+	    } catch( IOException e ) {
+	      results[id] = e.toString();
+	    }
+	  }
+	};
+    }
+    for(Thread t : threads) t.start();
+    for(Thread t : threads) t.join();
+    for(String r : results) assertEquals(expect, r);
+
+    // a run not created by createRun() formats matches just as well
+    // and its clientData is left alone
+    DfaRun plain = new DfaRun(df.getDfa());
+    monq.jfa.TextStore own = new monq.jfa.TextStore();
+    own.appendPart(new StringBuilder("mine"), 0, 4);
+    plain.clientData = own;
+    assertEquals(expect, plain.filter(text));
+    assertEquals("mine", own.getPart(0));
+  }
+
   // to be able to run on the command line
   public static void main(String[] argv) {
     junit.textui.TestRunner.run(new TestSuite(DictFilterTest.class));
@@ -0,0 +1,202 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+
+import monq.net.*;
+import monq.programs.DictFilter;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MuxTest {
+
+  private MuxServer server;
+  private MuxConnection conn;
+
+  // upper cases its input or fails, depending on the parameters
+  private static final class UpperService implements Service {
+    private final InputStream in;
+    private final OutputStream out;
+    private final Map<?,?> params;
+    private Exception e;
+    UpperService(InputStream in, OutputStream out, Map<?,?> params) {
+      this.in = in;
+      this.out = out;
+      this.params = params;
+    }
+    public void run() {
+      try {
+	if( params.containsKey("fail") ) {
+	  throw new IOException("failing on purpose");
+	}
+	byte[] buf = new byte[1000];
+	int l;
+	while( -1!=(l=in.read(buf)) ) {
+	  for(int i=0; i<l; i++) {
+	    buf[i] = (byte)Character.toUpperCase((char)buf[i]);
+	  }
+	  out.write(buf, 0, l);
+	  out.flush();
+	}
+      } catch( IOException ex ) {
+	e = ex;
+      }
+    }
+    public Exception getException() { return e; }
+  }
+  private static final class Fac implements ServiceFactory {
+    public Service createService(InputStream in, OutputStream out,
+				 Object param) {
+      return new UpperService(in, out, (Map<?,?>)param);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = new MuxServer(new java.net.ServerSocket(0), new Fac())
+      .setLogging(new PrintStream(new ByteArrayOutputStream()));
+    Thread t = new Thread(server);
+    t.setDaemon(true);
+    t.start();
+    conn = new MuxConnection("localhost", server.getLocalPort());
+  }
+  @After
+  public void tearDown() throws Exception {
+    conn.close();
+    server.shutdown();
+  }
+  /**********************************************************************/
+  private static String filter(MuxConnection conn, final String doc,
+			       Map<String,String> params) 
+    throws Exception
+  {
+    final MuxStream s = conn.open(params);
+    Thread feeder = new Thread() {
+	public void run() {
+	  try( OutputStream out = s.getOutputStream() ) {
+	    out.write(doc.getBytes("UTF-8"));
+	  } catch( IOException e ) {
+	    // the reader will see the problem
+	  }
+	}
+      };
+    feeder.start();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int l;
+    InputStream in = s.getInputStream();
+    while( -1!=(l=in.read(buf)) ) result.write(buf, 0, l);
+    feeder.join();
+    return result.toString("UTF-8");
+  }
+  /**********************************************************************/
+  @Test
+  public void test_concurrentStreams() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<30000; i++) sb.append("line ").append(i).append('\n');
+    final String doc = sb.toString();
+    final String expect = doc.toUpperCase();
+
+    ExecutorService ex = Executors.newFixedThreadPool(8);
+    List<Future<String>> results = new ArrayList<>();
+    for(int i=0; i<16; i++) {
+      results.add(ex.submit(new Callable<String>() {
+	  public String call() throws Exception {
+	    return filter(conn, doc, new HashMap<String,String>());
+	  }
+	}));
+    }
+    for(Future<String> f : results) assertEquals(expect, f.get());
+    ex.shutdown();
+    assertEquals(0, conn.getStreamCount());
+  }
+  /**********************************************************************/
+  @Test
+  public void test_error() throws Exception {
+    Map<String,String> params = new HashMap<>();
+    params.put("fail", "1");
+    try {
+      filter(conn, "abc", params);
+      fail("exception expected");
+    } catch( IOException e ) {
+      assertTrue(e.getMessage().contains("failing on purpose"));
+    }
+    assertEquals("ABC", filter(conn, "abc", new HashMap<String,String>()));
+  }
+  /**********************************************************************/
+  // DictFilter.createService() reads input to detect the encoding,
+  // which must not block the reader thread of the connection
+  @Test
+  public void test_dictFilter() throws Exception {
+    String mwt = "<mwt><template>[%0](%1)</template>"
+      +"<t p1='17'>hallo</t></mwt>";
+    DictFilter df = 
+      new DictFilter(new StringReader(mwt), "raw", null, false);
+    MuxServer dfServer = new MuxServer(new java.net.ServerSocket(0), df)
+      .setLogging(new PrintStream(new ByteArrayOutputStream()));
+    Thread t = new Thread(dfServer);
+    t.setDaemon(true);
+    t.start();
+    final MuxConnection dfConn = 
+      new MuxConnection("localhost", dfServer.getLocalPort());
+    ExecutorService ex = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for(int i=0; i<2; i++) {
+	results.add(ex.submit(new Callable<String>() {
+	    public String call() throws Exception {
+	      return filter(dfConn, "blurb hallo blurb", 
+			    new HashMap<String,String>());
+	    }
+	  }));
+      }
+      for(Future<String> f : results) {
+	assertEquals("blurb [hallo](17) blurb", 
+		     f.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      ex.shutdownNow();
+      dfConn.close();
+      dfServer.shutdown();
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_cancel() throws Exception {
+    MuxStream s = conn.open(new HashMap<String,String>());
+    OutputStream out = s.getOutputStream();
+    out.write("abc".getBytes());
+    out.flush();
+    InputStream in = s.getInputStream();
+    assertEquals('A', in.read());
+    s.cancel();
+    try {
+      in.read();
+      fail("exception expected");
+    } catch( IOException e ) {
+      // expected
+    }
+    assertEquals(0, conn.getStreamCount());
+    assertEquals("XYZ", filter(conn, "xyz", new HashMap<String,String>()));
+  }
+}
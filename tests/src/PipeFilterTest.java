@@ -56,6 +56,13 @@ public class PipeFilterTest {
       // parameters in order to check proper handling of exceptions on
       // several sides
       if( m.containsKey("exitnow") ) return;
+      if( m.containsKey("fail") ) {
+	e = new IOException("failing on purpose");
+	return;
+      }
+      if( m.containsKey("throw") ) {
+	throw new IllegalStateException("throwing on purpose");
+      }
 
       try {
 	PrintStream out = new PrintStream(this.out, true, "UTF-8");
@@ -136,6 +143,381 @@ public class PipeFilterTest {
     dp.shutdown();
   }
   /**********************************************************************/
+  // waits until the server has exactly n services available
+  private static void awaitAvailable(TcpServer server, int n) 
+    throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis()+10000;
+    while( server.getAvailableServices()!=n ) {
+      assertTrue("still "+server.getAvailableServices()
+		 +" services available instead of "+n,
+		 System.currentTimeMillis()<deadline);
+      Thread.sleep(5);
+    }
+  }
+  @Test
+  public void test_virtualThreads() throws Exception {
+    java.net.ServerSocket s = new java.net.ServerSocket(0);
+    TcpServer vtcp = 
+      new TcpServer(s, new FilterServiceFactory(new SFac()), 1)
+      .setVirtualThreads(3, 0, 5000)
+      // the busy connections below close without a request
+      .setLogging(new PrintStream(new ByteArrayOutputStream()));
+    Thread t = new Thread(vtcp);
+    t.setDaemon(true);
+    t.start();
+
+    PipelineRequest req[] = new PipelineRequest[3];
+    req[0] = new PipelineRequest("localhost", s.getLocalPort());
+    req[1] = new PipelineRequest(req[0]);
+    req[2] = new PipelineRequest(req[0]);
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.start();
+    try {
+      assertEquals("Harald Kirsch", filter(dp, req, "Harald Kirsch"));
+
+      // with all 3 services busy and no room to wait, the next
+      // connection is closed right away. The services of the first
+      // request may still be releasing their permits.
+      awaitAvailable(vtcp, 3);
+      java.net.Socket[] busy = new java.net.Socket[3];
+      for(int i=0; i<busy.length; i++) {
+	busy[i] = new java.net.Socket("localhost", s.getLocalPort());
+      }
+      awaitAvailable(vtcp, 0);
+      try( java.net.Socket extra = 
+	   new java.net.Socket("localhost", s.getLocalPort()) ) {
+	extra.setSoTimeout(5000);
+	assertEquals(-1, extra.getInputStream().read());
+      }
+      for(java.net.Socket b : busy) b.close();
+    } finally {
+      dp.shutdown();
+      vtcp.shutdown();
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_session() throws Exception {
+    PipelineRequest req[] = new PipelineRequest[2];
+    req[0] = new PipelineRequest("localhost", filterPort);
+    req[1] = new PipelineRequest(req[0]);
+    req[1].put("x", "y");
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.start();
+    try {
+      PipelineSession session = dp.openSession(req);
+      for(int i=0; i<50; i++) {
+	assertEquals("x=y\ndoc "+i, session.filter("doc "+i, "UTF-8"));
+      }
+      assertEquals("x=y\n", session.filter("", "UTF-8"));
+
+      // a failing filter does not break the session
+      req[0].put("fail", "1");
+      PipelineSession failing = dp.openSession(req);
+      for(int i=0; i<2; i++) {
+	try {
+	  failing.filter("bla", "UTF-8");
+	  fail("exception expected");
+	} catch( IOException e ) {
+	  assertTrue(e.getMessage().contains("failing on purpose"));
+	}
+      }
+      failing.close();
+
+      // neither does a filter throwing a RuntimeException
+      req[0].clear();
+      req[0].put("throw", "1");
+      PipelineSession throwing = dp.openSession(req);
+      for(int i=0; i<2; i++) {
+	try {
+	  throwing.filter("bla", "UTF-8");
+	  fail("exception expected");
+	} catch( IOException e ) {
+	  assertTrue(e.getMessage().contains("throwing on purpose"));
+	}
+      }
+      throwing.close();
+
+      assertEquals("x=y\nagain", session.filter("again", "UTF-8"));
+      session.close();
+      session.close();
+    } finally {
+      dp.shutdown();
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_compression() throws Exception {
+    PipelineRequest req[] = new PipelineRequest[2];
+    req[0] = new PipelineRequest("localhost", filterPort);
+    req[1] = new PipelineRequest(req[0]);
+    req[1].put("x", "y");
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.setCompression(true);
+    dp.start();
+    try {
+      StringBuilder sb = new StringBuilder();
+      for(int i=0; i<20000; i++) {
+	sb.append("<doc id=\"").append(i).append("\">äö</doc>\n");
+      }
+      String doc = sb.toString();
+      assertEquals("x=y\n"+doc, filter(dp, req, doc));
+      assertEquals("x=y\n", filter(dp, req, ""));
+
+      PipelineSession session = dp.openSession(req);
+      for(int i=0; i<20; i++) {
+	assertEquals("x=y\ndoc "+i, session.filter("doc "+i, "UTF-8"));
+      }
+      session.close();
+    } finally {
+      dp.shutdown();
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_metrics() throws Exception {
+    ServerMetrics m = tcp.getMetrics();
+    PipelineRequest req[] = new PipelineRequest[1];
+    req[0] = new PipelineRequest("localhost", filterPort);
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.start();
+    try {
+      assertEquals("Harald Kirsch", filter(dp, req, "Harald Kirsch"));
+      req[0].put("fail", "1");
+      try {
+	filter(dp, req, "bla");
+      } catch( IOException e ) {
+	// whether the failure gets through depends on timing
+      }
+    } finally {
+      dp.shutdown();
+    }
+    assertEquals(2, m.getAccepted());
+    assertEquals(2, m.getServices());
+    assertEquals(0, m.getActive());
+    assertEquals(10, m.getSlots());
+    assertTrue(m.getBytesIn()>0);
+    assertTrue(m.getBytesOut()>="Harald Kirsch".length());
+    assertEquals(Long.valueOf(1), m.getErrors().get("java.io.IOException"));
+
+    // a DfaRunService reports its throughput
+    final monq.jfa.Dfa dfa = 
+      new monq.jfa.Nfa("a", new monq.jfa.actions.Printf("A"))
+      .compile(monq.jfa.DfaRun.UNMATCHED_COPY);
+    TcpServer dfaServer = new TcpServer(0, new ServiceFactory() {
+	public Service createService(InputStream in, OutputStream out,
+				     Object param) {
+	  monq.jfa.DfaRun r = 
+	    new monq.jfa.DfaRun(dfa, new monq.jfa.ReaderCharSource(in));
+	  return new DfaRunService(r, new PrintStream(out));
+	}
+      });
+    dfaServer.setMetrics(new ServerMetrics("dfa \"server\""));
+    Thread t = new Thread(dfaServer);
+    t.setDaemon(true);
+    t.start();
+    TcpServer endpoint = dfaServer.getMetrics().startEndpoint(0);
+    javax.management.ObjectName on = dfaServer.getMetrics().register();
+    try {
+      StringBuilder sb = new StringBuilder();
+      try( java.net.Socket sock = 
+	   new java.net.Socket("localhost", dfaServer.getLocalPort()) ) {
+	sock.getOutputStream().write("banana".getBytes("UTF-8"));
+	sock.shutdownOutput();
+	InputStream in = sock.getInputStream();
+	int ch;
+	while( -1!=(ch=in.read()) ) sb.append((char)ch);
+      }
+      assertEquals("bAnAnA", sb.toString());
+      assertEquals(6, dfaServer.getMetrics().getDfaChars());
+      assertEquals(6L, java.lang.management.ManagementFactory
+		   .getPlatformMBeanServer().getAttribute(on, "DfaChars"));
+
+      sb.setLength(0);
+      try( java.net.Socket sock = 
+	   new java.net.Socket("localhost", endpoint.getLocalPort()) ) {
+	sock.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes("UTF-8"));
+	InputStream in = sock.getInputStream();
+	int ch;
+	while( -1!=(ch=in.read()) ) sb.append((char)ch);
+      }
+      String text = sb.toString();
+      assertTrue(text, text.startsWith("HTTP/1.0 200 OK\r\n"));
+      assertTrue(text, text.contains("monq_connections_accepted_total"
+				     +"{server=\"dfa \\\"server\\\"\"} 1\n"));
+      assertTrue(text, text.contains("monq_dfa_chars_total{"));
+    } finally {
+      java.lang.management.ManagementFactory
+	.getPlatformMBeanServer().unregisterMBean(on);
+      endpoint.shutdown();
+      dfaServer.shutdown();
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_balancer() throws Exception {
+    ReplicaBalancer b = 
+      new ReplicaBalancer(ReplicaBalancer.Policy.POWER_OF_TWO,
+			  new Random(7));
+    List<String> reps = Arrays.asList("a:1", "b:1", "c:1");
+    Set<String> none = Collections.emptySet();
+    for(int i=0; i<5; i++) b.acquire(reps.subList(0, 1), none);
+    for(int i=0; i<3; i++) b.acquire(reps.subList(2, 3), none);
+    // a has 5 jobs, b none and c 3: the worst one is never picked
+    for(int i=0; i<50; i++) {
+      String r = b.acquire(reps, none);
+      assertFalse("a:1".equals(r));
+      b.release(r);
+    }
+
+    b = new ReplicaBalancer(ReplicaBalancer.Policy.LEAST_OUTSTANDING);
+    Set<String> notB = new HashSet<>(Arrays.asList("a:1", "c:1"));
+    assertEquals("b:1", b.acquire(reps, notB));
+    b.refused("b:1");
+    assertEquals(0, b.getOutstanding("b:1"));
+    for(int i=0; i<4; i++) {
+      assertFalse("b:1".equals(b.acquire(reps, none)));
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_replicas() throws Exception {
+    java.net.ServerSocket s = new java.net.ServerSocket(0);
+    TcpServer other = 
+      new TcpServer(s, new FilterServiceFactory(new SFac()), 10);
+    Thread t = new Thread(other);
+    t.setDaemon(true);
+    t.start();
+    java.net.ServerSocket dead = new java.net.ServerSocket(0);
+    int deadPort = dead.getLocalPort();
+    dead.close();
+
+    PipelineRequest req[] = new PipelineRequest[2];
+    req[0] = new PipelineRequest("localhost", filterPort);
+    req[0].addReplica("localhost", s.getLocalPort());
+    req[1] = new PipelineRequest("localhost", deadPort);
+    req[1].addReplica("localhost", filterPort);
+    req[1].addReplica("localhost", s.getLocalPort());
+    assertEquals(3, req[1].getReplicas().size());
+
+    ReplicaBalancer b = 
+      new ReplicaBalancer(ReplicaBalancer.Policy.LEAST_OUTSTANDING);
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.setBalancer(b);
+    dp.start();
+    try {
+      for(int i=0; i<20; i++) {
+	assertEquals("doc "+i, filter(dp, req, "doc "+i));
+      }
+      for(String r : req[1].getReplicas()) {
+	assertEquals(0, b.getOutstanding(r));
+      }
+    } finally {
+      dp.shutdown();
+      other.shutdown();
+    }
+  }  @Test
+  public void test_busyReplica() throws Exception {
+    java.net.ServerSocket s = new java.net.ServerSocket(0);
+    TcpServer busy = 
+      new TcpServer(s, new FilterServiceFactory(new SFac()), 1)
+      .setVirtualThreads(1, 0, 5000)
+      .setLogging(new PrintStream(new ByteArrayOutputStream()));
+    Thread t = new Thread(busy);
+    t.setDaemon(true);
+    t.start();
+
+    PipelineRequest req[] = new PipelineRequest[2];
+    req[0] = new PipelineRequest("localhost", filterPort);
+    req[1] = new PipelineRequest("localhost", s.getLocalPort());
+    req[1].addReplica("localhost", filterPort);
+
+    // breaks ties in favour of the busy server, which comes first
+    ReplicaBalancer b = 
+      new ReplicaBalancer(ReplicaBalancer.Policy.LEAST_OUTSTANDING,
+			  new Random() {
+			    @Override
+			    public int nextInt(int n) { return 0; }
+			  });
+    b.setCooldown(0);
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.setBalancer(b);
+    dp.start();
+    // the only service of the busy server waits for a request
+    java.net.Socket hold = new java.net.Socket("localhost", s.getLocalPort());
+    try {
+      awaitAvailable(busy, 0);
+      for(int i=0; i<5; i++) {
+	assertEquals("doc "+i, filter(dp, req, "doc "+i));
+      }
+      PipelineSession session = dp.openSession(req);
+      assertEquals("doc", session.filter("doc", "UTF-8"));
+      session.close();
+      assertEquals(6, busy.getMetrics().getRejected());
+      for(String r : req[1].getReplicas()) {
+	assertEquals(0, b.getOutstanding(r));
+      }
+
+      // once the server is free again, it serves jobs
+      hold.close();
+      awaitAvailable(busy, 1);
+      long services = busy.getMetrics().getServices();
+      assertEquals("doc", filter(dp, req, "doc"));
+      assertEquals(services+1, busy.getMetrics().getServices());
+    } finally {
+      hold.close();
+      dp.shutdown();
+      busy.shutdown();
+    }
+  }
+
+  /**********************************************************************/
+  @Test
+  public void test_nioServer() throws Exception {
+    final monq.jfa.Dfa dfa = 
+      new monq.jfa.Nfa("ab+", new monq.jfa.actions.Printf("<%0>"))
+      .or("äö", new monq.jfa.actions.Printf("[%0]"))
+      .compile(monq.jfa.DfaRun.UNMATCHED_COPY);
+    NioFilterServer nio = 
+      new NioFilterServer(0, new DfaRunFactory() {
+	  public monq.jfa.DfaRun createRun(Map<String,String> params) {
+	    return new monq.jfa.DfaRun(dfa);
+	  }
+	}, 2);
+    Thread t = new Thread(nio);
+    t.setDaemon(true);
+    t.start();
+
+    StringBuilder in = new StringBuilder();
+    StringBuilder expect = new StringBuilder();
+    for(int i=0; i<20000; i++) {
+      in.append("x abbbb äö ").append(i);
+      expect.append("x <<abbbb>> [[äö]] ").append(i);
+    }
+    PipelineRequest req[] = new PipelineRequest[3];
+    req[0] = new PipelineRequest("localhost", nio.getLocalPort());
+    req[1] = new PipelineRequest("localhost", filterPort);
+    req[2] = new PipelineRequest(req[0]);
+    DistPipeFilter dp = new DistPipeFilter(0, 3);
+    dp.start();
+    try {
+      assertEquals(expect.toString(), filter(dp, req, in.toString()));
+
+      // with a replica, the server confirms that it serves the job
+      java.net.ServerSocket dead = new java.net.ServerSocket(0);
+      int deadPort = dead.getLocalPort();
+      dead.close();
+      req[2].addReplica("localhost", deadPort);
+      for(int i=0; i<3; i++) {
+	assertEquals(expect.toString(), filter(dp, req, in.toString()));
+      }
+    } finally {
+      dp.shutdown();
+      nio.shutdown();
+    }
+  }
+  /**********************************************************************/
   @Test
   public void test1() throws Exception {
     PipelineRequest req[] = new PipelineRequest[1];
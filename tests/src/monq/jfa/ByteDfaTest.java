@@ -0,0 +1,155 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Embed;
+import monq.jfa.actions.Printf;
+
+public class ByteDfaTest {
+
+  private static ByteBuffer utf8(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String filter(ByteDfa bdfa, String in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ByteDfaRun(bdfa, utf8(in)).filter(out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+  /**********************************************************************/
+  @Test
+  public void test_sameAsDfaRun() throws Exception {
+    Nfa nfa = new Nfa("[a-z]+", new Printf("<w>%0</w>"))
+      .or("[à-ÿĀ-߿]+", new Printf("<l>%0</l>"))
+      .or("€[0-9]+", new Printf("<e>%0</e>"))
+      .or("𝄞+", new Printf("<g>%0</g>"))
+      .or("[一-鿿]", new Printf("<c>%0</c>"));
+    Dfa dfa = nfa.compile(DfaRun.UNMATCHED_COPY);
+    ByteDfa bdfa = new ByteDfa(dfa);
+
+    String in = "abc äöБ €12 x𝄞𝄞"
+      + " 中文 😀 9€z";
+    assertEquals(dfa.createRun().filter(in), filter(bdfa, in));
+  }
+  /**********************************************************************/
+  @Test
+  public void test_serialize() throws Exception {
+    Nfa nfa = new Nfa("[a-z]+", new Embed("<w>", "</w>"))
+      .or("[à-ÿĀ-߿]+", new Embed("<l>", "</l>"))
+      .or("𝄞+", new Embed("<g>", "</g>"));
+    ByteDfa bdfa = new ByteDfa(nfa.compile(DfaRun.UNMATCHED_COPY), 1e9);
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bout);
+    out.writeObject(bdfa);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream
+      (new ByteArrayInputStream(bout.toByteArray()));
+    ByteDfa copy = (ByteDfa)in.readObject();
+
+    String text = "abc äöБ x𝄞𝄞 9z";
+    assertEquals(filter(bdfa, text), filter(copy, text));
+    assertEquals(copy.getDfa().createRun().filter(text), filter(copy, text));
+    assertTrue(copy.getStart().getTrans() instanceof TableCharTrans);
+  }
+  /**********************************************************************/
+  @Test
+  public void test_allBmpCharacters() throws Exception {
+    Dfa dfa = new Nfa("[a-z\u00e0-\u0fff\u2000-\u20ff\ue000-\ufffd]",
+                      new Printf("x"))
+      .compile(DfaRun.UNMATCHED_DROP);
+    ByteDfa bdfa = new ByteDfa(dfa);
+    FaAction[] a = new FaAction[1];
+    byte[] b = new byte[4];
+    for(int cp=0; cp<0x10000; cp++) {
+      if( Character.isSurrogate((char)cp) ) continue;
+      int l = ByteDfa.encode(cp, b, 0);
+      boolean charMatch = dfa.getStart().follow((char)cp)!=null;
+      int end = bdfa.match(ByteBuffer.wrap(b, 0, l), 0, l, a);
+      assertEquals("code point "+cp, charMatch ? l : -1, end);
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_byteOffsets() throws Exception {
+    ByteDfa bdfa = new Nfa("[0-9]+", new Printf("%0"))
+      .compileUtf8(DfaRun.UNMATCHED_DROP, null);
+    ByteDfaRun r = new ByteDfaRun(bdfa, utf8("ä 12 €345"));
+    assertNotSame(DfaRun.EOF, r.next());
+    assertEquals(3, r.matchStart());
+    assertEquals(5, r.matchEnd());
+    assertNotSame(DfaRun.EOF, r.next());
+    assertEquals(9, r.matchStart());
+    assertEquals(12, r.matchEnd());
+    assertSame(DfaRun.EOF, r.next());
+
+    r.setIn(utf8("77"), 1000);
+    r.next();
+    assertEquals(1000, r.matchStart());
+    assertEquals(1002, r.matchEnd());
+  }
+  /**********************************************************************/
+  @Test
+  public void test_invalidBytesAreCopied() throws Exception {
+    ByteDfa bdfa = new Nfa("a", new Printf("A"))
+      .compileUtf8(DfaRun.UNMATCHED_COPY, null);
+    byte[] in = {'a', (byte)0xff, (byte)0x80, 'a', (byte)0xc3};
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ByteDfaRun(bdfa, ByteBuffer.wrap(in)).filter(out);
+    byte[] expect = {'A', (byte)0xff, (byte)0x80, 'A', (byte)0xc3};
+    assertArrayEquals(expect, out.toByteArray());
+  }
+  /**********************************************************************/
+  @Test
+  public void test_trailingContextAndSubmatches() throws Exception {
+    FaAction dropTail = new AbstractFaAction() {
+        public void invoke(StringBuilder out, int start, DfaRun r) {
+          r.unskip(out, out.length()-1);
+          out.insert(start, '[').append(']');
+        }
+      };
+    ByteDfa bdfa = new Nfa("ä€", dropTail)
+      .or("€", new Printf("E"))
+      .or("x(!y+)z", new Printf(true, "%1"))
+      .compileUtf8(DfaRun.UNMATCHED_COPY, null);
+    assertEquals("[ä]E-yyy", filter(bdfa, "ä€-xyyyz"));
+  }
+  /**********************************************************************/
+  @Test(expected=NomatchException.class)
+  public void test_throw() throws Exception {
+    ByteDfa bdfa = new Nfa("a", new Printf("A"))
+      .compileUtf8(DfaRun.UNMATCHED_THROW, null);
+    filter(bdfa, "ab");
+  }
+  /**********************************************************************/
+  @Test(expected=IllegalArgumentException.class)
+  public void test_emptyMatcher() throws Exception {
+    new ByteDfaRun(new Nfa("a?", new Printf("A"))
+                   .compileUtf8(DfaRun.UNMATCHED_COPY, null));
+  }
+}
@@ -0,0 +1,89 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Embed;
+
+public class DfaProfileTest {
+
+  // the start state has transitions for a-z and for the wide range
+  // of the greek letters, so its table is much larger than its array
+  private static Dfa dfa() throws Exception {
+    Nfa nfa = new Nfa("[a-z]+", new Embed("<", ">"))
+      .or("[Α-Ω]+|一", new Embed("[", "]"));
+    nfa.setMemoryForSpeedTradeFactor(0.0f);
+    return nfa.compile(DfaRun.UNMATCHED_COPY);
+  }
+
+  @Test
+  public void test_optimize() throws Exception {
+    Dfa dfa = dfa();
+    String text = "abc xyz ΑΒ 一 ab";
+    DfaProfile profile = new DfaProfile(dfa).sample(text);
+    // every match attempt visits the start state, also the last one
+    // hitting EOF
+    assertEquals(21, profile.getVisits());
+    assertTrue(profile.getStatesVisited()>=3);
+    assertTrue(dfa.getStart().getTrans() instanceof ArrayCharTrans);
+
+    Dfa fast = dfa.optimize(profile, 1<<20);
+    assertTrue(fast.getStart().getTrans() instanceof TableCharTrans);
+    assertEquals(dfa.createRun().filter(text), fast.createRun().filter(text));
+    assertEquals("<abc> <xyz> [ΑΒ] [一] <ab>",
+		 fast.createRun().filter(text));
+
+    Dfa small = dfa.optimize(profile, 0);
+    assertTrue(small.getStart().getTrans() instanceof ArrayCharTrans);
+    assertEquals(dfa.createRun().filter(text), small.createRun().filter(text));
+  }
+
+  @Test
+  public void test_coldStates() throws Exception {
+    Dfa dfa = dfa();
+    DfaProfile profile = new DfaProfile(dfa);
+    assertEquals(0, profile.getVisits());
+    Dfa same = dfa.optimize(profile, 1<<20);
+    assertTrue(same.getStart().getTrans() instanceof ArrayCharTrans);
+    assertEquals("<a>.<b>", same.createRun().filter("a.b"));
+  }
+
+  // a table would not be larger than the array of the start state,
+  // still it keeps its array without budget
+  @Test
+  public void test_keepKind() throws Exception {
+    Nfa nfa = new Nfa("a", new Embed("<", ">"))
+      .or("b", new Embed("[", "]"))
+      .or("c", new Embed("{", "}"));
+    nfa.setMemoryForSpeedTradeFactor(0.0f);
+    Dfa dfa = nfa.compile(DfaRun.UNMATCHED_COPY);
+    assertTrue(dfa.getStart().getTrans() instanceof ArrayCharTrans);
+    DfaProfile profile = new DfaProfile(dfa).sample("abcx");
+    Dfa small = dfa.optimize(profile, 0);
+    assertTrue(small.getStart().getTrans() instanceof ArrayCharTrans);
+    assertEquals(dfa.footprint().getTables(), small.footprint().getTables());
+    assertEquals("<a>[b]{c}x", small.createRun().filter("abcx"));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void test_foreignProfile() throws Exception {
+    dfa().optimize(new DfaProfile(dfa()), 1000);
+  }
+}
@@ -0,0 +1,129 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Printf;
+
+public class DfaRunPushTest {
+
+  // turns "x" into "yy" which is then matched again
+  private static final FaAction REPLACE = new AbstractFaAction() {
+      public void invoke(StringBuilder out, int start, DfaRun r) {
+        out.setLength(start);
+        r.unskip("yy");
+      }
+    };
+
+  private static Dfa dfa(DfaRun.FailedMatchBehaviour fmb)
+    throws ReSyntaxException, CompileDfaException
+  {
+    return new Nfa("a(!b+)c", new Printf(true, "<%1>"))
+      .or("ab", new Printf("[%0]"))
+      .or("x", REPLACE)
+      .or("y+", new Printf("{%0}"))
+      .compile(fmb, new Printf("$"));
+  }
+
+  private static String push(DfaRun r, String in, Random rand)
+    throws java.io.IOException
+  {
+    char[] cbuf = in.toCharArray();
+    StringBuilder out = new StringBuilder();
+    int pos = 0;
+    while( pos<cbuf.length ) {
+      int l = Math.min(cbuf.length-pos, 1+rand.nextInt(7));
+      r.feed(cbuf, pos, l, out);
+      pos += l;
+    }
+    r.finish(out);
+    return out.toString();
+  }
+
+  private static String input(Random rand, int n) {
+    String alphabet = "abbbcxyz";
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<n; i++) {
+      sb.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+  /**********************************************************************/
+  @Test
+  public void test_sameAsPull() throws Exception {
+    Random rand = new Random(31);
+    Dfa copy = dfa(DfaRun.UNMATCHED_COPY);
+    Dfa drop = dfa(DfaRun.UNMATCHED_DROP);
+    for(int i=0; i<200; i++) {
+      String in = input(rand, 1+rand.nextInt(60));
+      assertEquals(in, new DfaRun(copy).filter(in),
+                   push(new DfaRun(copy), in, rand));
+      assertEquals(in, new DfaRun(drop).filter(in),
+                   push(new DfaRun(drop), in, rand));
+
+      DfaRun r = new DfaRun(copy);
+      r.maxCopy = 2;
+      DfaRun p = new DfaRun(copy);
+      p.maxCopy = 2;
+      assertEquals(in, r.filter(in), push(p, in, rand));
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_matchAcrossChunks() throws Exception {
+    DfaRun r = new DfaRun(dfa(DfaRun.UNMATCHED_COPY));
+    StringBuilder out = new StringBuilder();
+    r.feed("zzab".toCharArray(), 0, 4, out);
+    // the match may still become longer
+    assertEquals("zz", out.toString());
+    r.feed("bb".toCharArray(), 0, 2, out);
+    assertEquals("zz", out.toString());
+    r.feed("bcz".toCharArray(), 0, 3, out);
+    assertEquals("zz<bbbb>z", out.toString());
+    r.finish(out);
+    assertEquals("zz<bbbb>z$", out.toString());
+
+    // a second round starts with fresh input
+    out.setLength(0);
+    r.feed("ab".toCharArray(), 0, 2, out);
+    r.finish(out);
+    assertEquals("[ab]$", out.toString());
+  }
+  /**********************************************************************/
+  @Test
+  public void test_emptyInput() throws Exception {
+    StringBuilder out = new StringBuilder();
+    new DfaRun(dfa(DfaRun.UNMATCHED_COPY)).finish(out);
+    assertEquals("$", out.toString());
+  }
+  /**********************************************************************/
+  @Test(expected=NomatchException.class)
+  public void test_nomatch() throws Exception {
+    DfaRun r = new DfaRun(dfa(DfaRun.UNMATCHED_THROW));
+    StringBuilder out = new StringBuilder();
+    r.feed("abbc".toCharArray(), 0, 4, out);
+    // no decision yet, the match might still become longer
+    assertEquals("", out.toString());
+    r.feed("az".toCharArray(), 0, 2, out);
+    r.finish(out);
+  }
+}
@@ -0,0 +1,81 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Embed;
+
+public class DfaRunStatisticsTest {
+
+  private static final FaAction AB = new Embed("<", ">");
+  private static final FaAction C = new Embed("[", "]");
+
+  // "abbbx" needs lookahead up to the x to find out that only "ab"
+  // matches, the "bbx" is pushed back. Each failed match attempt and
+  // the "c" read one more character which is pushed back too.
+  private static Dfa dfa(DfaRun.FailedMatchBehaviour fmb) throws Exception {
+    return new Nfa("ab|abbbbb", AB).or("c", C).compile(fmb);
+  }
+
+  @Test
+  public void test_pull() throws Exception {
+    DfaRun r = new DfaRun(dfa(DfaRun.UNMATCHED_COPY));
+    DfaRunStatistics stats = new DfaRunStatistics();
+    r.setMonitor(stats);
+    assertSame(stats, r.getMonitor());
+    assertEquals("xx<ab>bbxy[c]<ab>", r.filter("xxabbbxyc"+"ab"));
+
+    assertEquals(3, stats.getMatches());
+    assertEquals(2, stats.getMatches(AB));
+    assertEquals(1, stats.getMatches(C));
+    assertEquals(2, stats.getMatchesByAction().size());
+    assertEquals(6, stats.getUnmatchedCopied());
+    assertEquals(0, stats.getUnmatchedDropped());
+    assertEquals(5, stats.getLongestLookahead());
+    assertEquals(10, stats.getPushedBack());
+    assertEquals(15, stats.getCharsScanned());
+    assertTrue(stats.getInvokeNanos()>=stats.getInvokeNanos(AB));
+    assertTrue(stats.toString().contains("3 matches"));
+
+    stats.reset();
+    assertEquals(0, stats.getMatches());
+    r.setMonitor(null);
+    assertEquals("<ab>", r.filter("ab"));
+    assertEquals(0, stats.getCharsScanned());
+  }
+
+  @Test
+  public void test_push() throws Exception {
+    DfaRun r = new DfaRun(dfa(DfaRun.UNMATCHED_DROP));
+    DfaRunStatistics stats = new DfaRunStatistics();
+    r.setMonitor(stats);
+    StringBuilder out = new StringBuilder();
+    String in = "xxabbbxycab";
+    for(int i=0; i<in.length(); i++) {
+      r.feed(in.toCharArray(), i, 1, out);
+    }
+    r.finish(out);
+    assertEquals("<ab>[c]<ab>", out.toString());
+    assertEquals(3, stats.getMatches());
+    assertEquals(6, stats.getUnmatchedDropped());
+    assertEquals(0, stats.getUnmatchedCopied());
+    assertEquals(5, stats.getLongestLookahead());
+  }
+}
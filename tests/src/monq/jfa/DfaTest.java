@@ -18,7 +18,15 @@ package monq.jfa;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -156,4 +164,250 @@ public class DfaTest  {
     dfa.match(new CharSequenceCharSource(longWord), out, new SubmatchData());
     assertEquals(SIZE, out.length());
   }
+
+  @Test
+  public void test_union() throws Exception {
+    AbstractFaAction a = new Xaction("a");
+    AbstractFaAction b = new Xaction("b");
+    AbstractFaAction c = new Xaction("c");
+    b.setPriority(1);
+    Dfa da = new Nfa("[a-z]+", a).compile(DfaRun.UNMATCHED_COPY);
+    Dfa db = new Nfa("abc|x[0-9]", b).compile(DfaRun.UNMATCHED_COPY);
+    Dfa dc = new Nfa("[0-9]+", c).compile(DfaRun.UNMATCHED_COPY);
+    Dfa u = Dfa.union(Arrays.asList(da, db, dc), DfaRun.UNMATCHED_COPY, null);
+    Dfa expect = new Nfa("[a-z]+", a).or("abc|x[0-9]", b).or("[0-9]+", c)
+      .compile(DfaRun.UNMATCHED_COPY);
+
+    String[] inputs = {"abc", "abcd", "ab", "x1", "x12", "x", "123", "", "-"};
+    for(String in : inputs) {
+      StringBuilder out1 = new StringBuilder();
+      StringBuilder out2 = new StringBuilder();
+      FaAction a1 = u.match(new CharSequenceCharSource(in), out1,
+			    (TextStore)null);
+      FaAction a2 = expect.match(new CharSequenceCharSource(in), out2,
+				 (TextStore)null);
+      assertEquals(in, a2, a1);
+      assertEquals(in, out2.toString(), out1.toString());
+    }
+
+    // without priorities, the actions clash
+    AbstractFaAction d = new Xaction("d");
+    Dfa dd = new Nfa("abc", d).compile(DfaRun.UNMATCHED_COPY);
+    try {
+      Dfa.union(Arrays.asList(da, dd), DfaRun.UNMATCHED_COPY, null);
+      fail("exception expected");
+    } catch( CompileDfaException e ) {
+      assertTrue(e.getMessage(), e.getMessage().contains("`abc'"));
+    }
+  }
+  @Test
+  public void test_productKeepsTableKind() throws Exception {
+    FaAction a = new Xaction("a");
+    // the ranges are far apart, so that factor 1.0 would give arrays
+    Nfa na = new Nfa("[\u0391\u4e00]x[0-9]", a);
+    Nfa nb = new Nfa("[\u0391\u4e01]x[0-9]|[\u0391\u4e00]y", a);
+    na.setMemoryForSpeedTradeFactor(1e9f);
+    nb.setMemoryForSpeedTradeFactor(1e9f);
+    Dfa da = na.compile(DfaRun.UNMATCHED_COPY);
+    Dfa db = nb.compile(DfaRun.UNMATCHED_COPY);
+    assertFalse(da.footprint().getTables().containsKey(ArrayCharTrans.class));
+    assertFalse(db.footprint().getTables().containsKey(ArrayCharTrans.class));
+
+    Dfa u = Dfa.union(Arrays.asList(da, db), DfaRun.UNMATCHED_COPY, null);
+    Map<Class<?>,Integer> tables = u.footprint().getTables();
+    assertTrue(tables.toString(), tables.containsKey(TableCharTrans.class));
+    assertFalse(tables.toString(), tables.containsKey(ArrayCharTrans.class));
+
+    // pruning keeps the kind too
+    Dfa both = Dfa.intersect(Arrays.asList(db, u), DfaRun.UNMATCHED_COPY,
+			     null);
+    tables = both.footprint().getTables();
+    assertTrue(tables.toString(), tables.containsKey(TableCharTrans.class));
+    assertFalse(tables.toString(), tables.containsKey(ArrayCharTrans.class));
+  }
+  // checks for each pair of input and expected match that dfa
+  // matches the expected prefix with the given action
+  private static void assertMatches(Dfa dfa, FaAction a, String... pairs)
+    throws Exception
+  {
+    for(int i=0; i<pairs.length; i+=2) {
+      StringBuilder out = new StringBuilder();
+      FaAction found = dfa.match(new CharSequenceCharSource(pairs[i]), out,
+				 (TextStore)null);
+      if( pairs[i+1]==null ) {
+	assertNull(pairs[i], found);
+      } else {
+	assertEquals(pairs[i], a, found);
+	assertEquals(pairs[i], pairs[i+1], out.toString());
+      }
+    }
+  }
+
+  @Test
+  public void test_intersect() throws Exception {
+    AbstractFaAction a = new Xaction("a");
+    AbstractFaAction b = new Xaction("b");
+    b.setPriority(1);
+    Dfa da = new Nfa("[a-z]+", a).compile(DfaRun.UNMATCHED_COPY);
+    Dfa db = new Nfa("abc|x[0-9]|x", b).compile(DfaRun.UNMATCHED_COPY);
+    Dfa i = Dfa.intersect(Arrays.asList(da, db), DfaRun.UNMATCHED_COPY, null);
+    assertMatches(i, b, "abc", "abc", "abcd", "abc", "ab", null,
+		  "x1", "x", "x", "x");
+    assertEquals(DfaRun.UNMATCHED_COPY, i.fmb);
+
+    // without priorities, the actions clash
+    AbstractFaAction d = new Xaction("d");
+    Dfa dd = new Nfa("abc", d).compile(DfaRun.UNMATCHED_COPY);
+    try {
+      Dfa.intersect(Arrays.asList(da, dd), DfaRun.UNMATCHED_COPY, null);
+      fail("exception expected");
+    } catch( CompileDfaException e ) {
+      assertTrue(e.getMessage(), e.getMessage().contains("`abc'"));
+    }
+
+    // the paths via c and d are created first, but lead nowhere
+    Dfa de = new Nfa("ab(c|d)e", a).compile(DfaRun.UNMATCHED_COPY);
+    Dfa df = new Nfa("ab(c|d)f", a).compile(DfaRun.UNMATCHED_COPY);
+    Dfa empty = Dfa.intersect(Arrays.asList(de, df), 
+			      DfaRun.UNMATCHED_COPY, null);
+    assertEquals(1, empty.footprint().getStates());
+    assertMatches(empty, a, "abce", null, "abcf", null);
+  }
+
+  @Test
+  public void test_minus() throws Exception {
+    AbstractFaAction a = new Xaction("a");
+    AbstractFaAction b = new Xaction("b");
+    Dfa da = new Nfa("[a-z]+", a).compile(DfaRun.UNMATCHED_COPY);
+    Dfa db = new Nfa("abc|x[0-9]", b).compile(DfaRun.UNMATCHED_COPY);
+    Dfa m = Dfa.minus(da, db, DfaRun.UNMATCHED_DROP, null);
+    assertMatches(m, a, "abc", "ab", "abcd", "abcd", "ab", "ab",
+		  "x1", "x", "q", "q", "1", null);
+    assertEquals(DfaRun.UNMATCHED_DROP, m.fmb);
+
+    Dfa none = Dfa.minus(db, db, DfaRun.UNMATCHED_DROP, null);
+    assertEquals(1, none.footprint().getStates());
+    assertMatches(none, b, "abc", null, "x1", null);
+  }
+
+  @Test
+  public void test_complement() throws Exception {
+    AbstractFaAction a = new Xaction("a");
+    AbstractFaAction c = new Xaction("c");
+    Dfa da = new Nfa("[a-z]+", a).compile(DfaRun.UNMATCHED_COPY);
+    Dfa not = da.complement(c);
+    assertTrue(not.matchesEmpty());
+    assertMatches(not, c, "1", "1", "ab1", "ab1", "ab", "", "a-b", "a-b");
+
+    // the exact complement, which matches extensions of matches
+    Dfa notAb = new Nfa("ab", a).compile(DfaRun.UNMATCHED_COPY)
+      .complement(c);
+    assertMatches(notAb, c, "ab", "a", "abc", "abc", "abx", "abx");
+
+    // strings of letters and digits with at least one digit
+    Dfa dx = new Nfa("[a-z0-9]+", c).compile(DfaRun.UNMATCHED_DROP);
+    Dfa digits = Dfa.intersect(Arrays.asList(dx, not), 
+			       DfaRun.UNMATCHED_DROP, null);
+    assertMatches(digits, c, "ab1", "ab1", "ab1c", "ab1c", "abc", null,
+		  "1-", "1");
+    assertEquals("a122", new DfaRun(digits).filter("a1 bb 22 "));
+  }
+  // a long chain of states must not be serialized recursively
+  @Test
+  public void test_serialize() throws Exception {
+    StringBuilder word = new StringBuilder();
+    for(int i=0; i<50000; i++) word.append((char)('a'+i%26));
+    Dfa dfa = new Nfa(word, Copy.COPY)
+      .or("x+y", Drop.DROP)
+      .compile(DfaRun.UNMATCHED_DROP);
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bout);
+    out.writeObject(dfa);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream
+      (new ByteArrayInputStream(bout.toByteArray()));
+    Dfa copy = (Dfa)in.readObject();
+
+    String text = "-xxy"+word+"+";
+    assertEquals(word.toString(), copy.createRun().filter(text));
+    assertEquals(dfa.createRun().filter(text), copy.createRun().filter(text));
+  }
+
+  // the kinds of transition tables are restored as they were
+  @Test
+  public void test_serializeTableKinds() throws Exception {
+    Nfa nfa = new Nfa("[a-z]+([0-9]|[\u0391-\u03a9])", Copy.COPY)
+      .or("[x-z\u4e00]+y", Drop.DROP);
+    Set<Class<?>> kinds = new HashSet<Class<?>>();
+    for(float f : new float[]{0f, 30f, 1e9f}) {
+      nfa.setMemoryForSpeedTradeFactor(f);
+      Dfa dfa = nfa.compile(DfaRun.UNMATCHED_DROP);
+      Map<Class<?>,Integer> tables = dfa.footprint().getTables();
+      kinds.addAll(tables.keySet());
+
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bout);
+      out.writeObject(dfa);
+      out.close();
+      ObjectInputStream in = new ObjectInputStream
+	(new ByteArrayInputStream(bout.toByteArray()));
+      Dfa copy = (Dfa)in.readObject();
+      assertEquals(tables, copy.footprint().getTables());
+    }
+    assertTrue(kinds.toString(), kinds.contains(TableCharTrans.class));
+    assertTrue(kinds.toString(), kinds.contains(HybridCharTrans.class));
+    assertTrue(kinds.toString(), kinds.contains(ArrayCharTrans.class));
+  }
+
+  @Test
+  public void test_compact() throws Exception {
+    Nfa nfa = new Nfa("[a-z]+([0-9]|[Α-Ω])", Copy.COPY)
+      .or("[x-z]+y", Drop.DROP);
+    nfa.setMemoryForSpeedTradeFactor(1e9f);
+    Dfa dfa = nfa.compile(DfaRun.UNMATCHED_DROP);
+    dfa.matchMax = 20;
+    Dfa copy = dfa.compact();
+    assertNotSame(dfa.getStart(), copy.getStart());
+    assertEquals(dfa.getStart().getTrans().getClass(),
+		 copy.getStart().getTrans().getClass());
+    assertEquals(20, copy.matchMax);
+
+    // the long one is only matched once its tail is short enough
+    String text = "ab1 xxy cdΩ aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa1";
+    assertEquals("ab1cdΩaaaaaaaaaaaaaaaaaa1", copy.createRun().filter(text));
+    assertEquals(dfa.createRun().filter(text), copy.createRun().filter(text));
+  }
+
+  @Test
+  public void test_intern() throws Exception {
+    // the subset construction creates the tails "alking" and "alked"
+    // twice, after interning they exist once
+    Nfa nfa = new Nfa(Nfa.NOTHING);
+    for(String w : new String[] {"walking", "talking", "walked", "talked",
+				 "x[yz]*w", "u[yz]*w"}) {
+      nfa.or(w, Copy.COPY);
+    }
+    Dfa dfa = nfa.compile(DfaRun.UNMATCHED_DROP);
+    // start, [tw], a, l, k, i, n, e, stop, x-loop, u-loop, where the
+    // loops differ by pointing to themselves
+    assertEquals(11, countStates(dfa));
+
+    String text = "walking,talked;walk xyzw uw";
+    assertEquals("walkingtalkedxyzwuw", dfa.createRun().filter(text));
+  }
+
+  private static int countStates(Dfa dfa) {
+    Set<DfaState> seen = new HashSet<>();
+    LinkedList<DfaState> work = new LinkedList<>();
+    work.add(dfa.getStart());
+    seen.add(dfa.getStart());
+    while( !work.isEmpty() ) {
+      CharTrans<DfaState> t = work.removeFirst().getTrans();
+      for(int i=0; i<t.size(); i++) {
+	if( seen.add(t.getAt(i)) ) work.add(t.getAt(i));
+      }
+    }
+    return seen.size();
+  }
 }
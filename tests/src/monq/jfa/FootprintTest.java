@@ -0,0 +1,112 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Copy;
+import monq.jfa.actions.Drop;
+import monq.jfa.actions.Embed;
+import monq.stuff.Sizeof;
+
+public class FootprintTest {
+
+  @Test
+  public void test_dfa() throws Exception {
+    Dfa dfa = new Nfa("abc", Copy.COPY).compile(DfaRun.UNMATCHED_COPY);
+    Footprint fp = dfa.footprint();
+    assertEquals(4, fp.getStates());
+    assertEquals(1, fp.getStopStates());
+    assertEquals(0, fp.getEpsStates());
+    assertEquals(3, fp.getTransitions());
+
+    Map<Class<?>,Integer> tables = fp.getTables();
+    assertEquals(1, tables.size());
+    assertEquals(3, (int)tables.get(SingletonCharTrans.class));
+    int single = Sizeof.instanceSize(SingletonCharTrans.class);
+    assertEquals(3*single, fp.getTableBytes(SingletonCharTrans.class));
+    assertEquals(3*single, fp.getTableBytes());
+    assertEquals(4*Sizeof.instanceSize(DfaState.class), fp.getStateBytes());
+    assertEquals(0, fp.getSubinfoBytes());
+    assertEquals(fp.getStateBytes()+fp.getTableBytes(), fp.getBytes());
+    assertTrue(fp.toString().startsWith("4 states (1 stop, 0 eps)"));
+  }
+
+  @Test
+  public void test_tables() throws Exception {
+    Nfa nfa = new Nfa("[a-z][0-9]+|[Α-Ω]", Copy.COPY);
+    nfa.setMemoryForSpeedTradeFactor(1e9f);
+    Footprint table = nfa.compile(DfaRun.UNMATCHED_COPY).footprint();
+    nfa.setMemoryForSpeedTradeFactor(0f);
+    Footprint array = nfa.compile(DfaRun.UNMATCHED_COPY).footprint();
+    assertEquals(array.getStates(), table.getStates());
+    assertEquals(0, table.getTableBytes(ArrayCharTrans.class));
+    assertEquals(0, array.getTableBytes(TableCharTrans.class));
+    // the table of the start state covers 'a' to 'Ω', more than 800
+    // characters, with at least 4 bytes each
+    assertTrue(table.getBytes()>array.getBytes()+3200);
+  }
+
+  @Test
+  public void test_sharedTables() throws Exception {
+    // the states after 'a' and 'b' differ by their action, but both
+    // have the same transition on 'w' to the same stop state
+    Dfa dfa = new Nfa("aw|bw", Copy.COPY)
+      .or("a", Drop.DROP)
+      .or("b", new Embed("<", ">"))
+      .compile(DfaRun.UNMATCHED_COPY);
+    Footprint fp = dfa.footprint();
+    assertEquals(4, fp.getStates());
+    assertEquals(3, fp.getStopStates());
+    assertEquals(4, fp.getTransitions());
+    int tables = 0;
+    for(int n : fp.getTables().values()) tables += n;
+    assertEquals(2, tables);
+    assertEquals("<b>aw", dfa.createRun().filter("bawa"));
+  }
+
+  @Test
+  public void test_nfa() throws Exception {
+    Nfa nfa = new Nfa("a|b|c", Copy.COPY);
+    Footprint fp = nfa.footprint();
+    assertTrue(fp.getEpsStates()>0);
+    assertTrue(fp.getStates()>=4);
+    assertTrue(fp.getStopStates()>=1);
+    assertTrue(fp.getBytes()>fp.getStates()
+	       *Sizeof.instanceSize(AbstractFaState.class));
+  }
+
+  @Test
+  public void test_instanceSize() throws Exception {
+    int obj = Sizeof.instanceSize(Object.class);
+    assertEquals(0, obj%8);
+    assertTrue(obj>=Sizeof.MEM_OBJ_OVERHEAD);
+    assertTrue(Sizeof.instanceSize(TwoLongs.class)
+	       >=Sizeof.MEM_OBJ_OVERHEAD+16);
+    assertEquals(Sizeof.instanceSize(TwoLongs.class),
+		 Sizeof.instanceSize(TwoLongs.class));
+  }
+  @SuppressWarnings("unused")
+  private static final class TwoLongs {
+    long a;
+    long b;
+  }
+}
@@ -64,6 +64,53 @@ public class IntervalsTest extends TestCase {
     assertEquals("[a,j ..........]", s);
   }
   /**********************************************************************/
+  // many ranges below and above ASCII get a direct table for ASCII
+  // only, unless a full table or plain binary search is requested
+  public static void test_hybrid() throws Exception {
+    Object[] targets = {"x", "y", "z"};
+    Intervals<Object> ivals = new Intervals<>();
+    CharTrans<Object> t = null;
+    for(double factor : new double[]{0.0, 1.0, 1e9}) {
+      for(int i=0; i<40; i++) {
+	char first = (char)(3*i+10);
+	ivals.overwrite(first, (char)(first+1), targets[i%3]);
+	ivals.overwrite((char)(100*i+first), (char)(100*i+first+5),
+			targets[(i+1)%3]);
+      }
+      ivals.overwrite((char)120, (char)140, targets[0]);
+      CharTrans<Object> next = ivals.toCharTrans(factor);
+      if( t!=null ) {
+	for(int ch=0; ch<=Character.MAX_VALUE; ch++) {
+	  assertEquals(t.get((char)ch), next.get((char)ch));
+	}
+	assertEquals(t.size(), next.size());
+	for(int i=0; i<t.size(); i++) {
+	  assertEquals(t.getFirstAt(i), next.getFirstAt(i));
+	  assertEquals(t.getLastAt(i), next.getLastAt(i));
+	  assertEquals(t.getAt(i), next.getAt(i));
+	}
+      }
+      t = next;
+      if( factor==0.0 ) assertEquals(ArrayCharTrans.class, t.getClass());
+      if( factor==1.0 ) assertEquals(HybridCharTrans.class, t.getClass());
+      if( factor==1e9 ) assertEquals(TableCharTrans.class, t.getClass());
+    }
+    assertEquals(null, t.get('\u0000'));
+    assertEquals("y", t.get((char)10));
+    assertEquals("x", t.get((char)130));
+  }
+  /**********************************************************************/
+  // the start state of an XML name is what the hybrid is made for
+  public static void test_hybridXmlName() throws Exception {
+    Nfa nfa = new Nfa(Xml.Name, Copy.COPY);
+    Dfa dfa = nfa.compile(DfaRun.UNMATCHED_DROP);
+    assertEquals(HybridCharTrans.class, dfa.getStart().getTrans().getClass());
+    assertEquals(HybridCharTrans.class,
+		 dfa.compact().getStart().getTrans().getClass());
+    assertEquals("abc_\u00e4\u4e00x", 
+		 dfa.createRun().filter("#abc_\u00e4\u4e00x# "));
+  }
+  /**********************************************************************/
   public static void main(String[] argv)   {
     // Fa fa = new Fa();
     junit.textui.TestRunner.run(new TestSuite(IntervalsTest.class));
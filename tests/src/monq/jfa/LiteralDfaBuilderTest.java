@@ -0,0 +1,135 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Copy;
+import monq.jfa.actions.Embed;
+
+public class LiteralDfaBuilderTest {
+
+  @Test
+  public void test_minimal() throws Exception {
+    LiteralDfaBuilder b = new LiteralDfaBuilder();
+    for(String s : new String[]{"tap", "taps", "top", "tops"}) {
+      b.add(s, Copy.COPY);
+    }
+    Footprint fp = b.compile(DfaRun.UNMATCHED_DROP).footprint();
+    // ta and to lead to the same state, as do tap and top
+    assertEquals(5, fp.getStates());
+    assertEquals(2, fp.getStopStates());
+    assertEquals(5, fp.getTransitions());
+  }
+
+  @Test
+  public void test_sameAsNfa() throws Exception {
+    Random rand = new Random(1962);
+    List<String> words = new ArrayList<String>();
+    for(int i=0; i<2000; i++) {
+      StringBuilder sb = new StringBuilder();
+      int L = 1+rand.nextInt(6);
+      for(int j=0; j<L; j++) sb.append((char)('a'+rand.nextInt(4)));
+      words.add(sb.toString());
+    }
+    Collections.sort(words);
+
+    LiteralDfaBuilder b = new LiteralDfaBuilder();
+    Nfa nfa = new Nfa(Nfa.NOTHING);
+    String recent = null;
+    for(String w : words) {
+      if( w.equals(recent) ) continue;
+      FaAction a = new Embed("<"+w+">", "</>");
+      b.add(w, a);
+      nfa.or(nfa.escape(w), a);
+      recent = w;
+    }
+    Dfa built = b.compile(DfaRun.UNMATCHED_COPY);
+    Dfa compiled = nfa.compile(DfaRun.UNMATCHED_COPY);
+    assertEquals(compiled.footprint().getStates(),
+		 built.footprint().getStates());
+
+    StringBuilder text = new StringBuilder();
+    for(int i=0; i<5000; i++) text.append((char)('a'+rand.nextInt(5)));
+    assertEquals(new DfaRun(compiled).filter(text.toString()),
+		 new DfaRun(built).filter(text.toString()));
+  }
+
+  @Test
+  public void test_union() throws Exception {
+    Dfa words = new LiteralDfaBuilder()
+      .add("12", new Embed("<w>", "</w>", 1))
+      .add("ab", new Embed("<w>", "</w>", 1))
+      .add("abc", new Embed("<w>", "</w>", 1))
+      .compile(DfaRun.UNMATCHED_COPY);
+    Dfa num = new Nfa("[0-9]+", new Embed("<n>", "</n>"))
+      .compile(DfaRun.UNMATCHED_COPY);
+    Dfa dfa = Dfa.union(Arrays.asList(words, num),
+			DfaRun.UNMATCHED_COPY, null);
+    assertEquals("<w>12</w> <n>123</n> <w>abc</w>d <w>ab</w>",
+		 new DfaRun(dfa).filter("12 123 abcd ab"));
+  }
+
+  @Test
+  public void test_duplicate() throws Exception {
+    Dfa dfa = new LiteralDfaBuilder()
+      .add("ab", new Embed("[", "]", 1))
+      .add("ab", new Embed("<", ">", 2))
+      .add("ab", new Embed("{", "}", 0))
+      .compile(DfaRun.UNMATCHED_COPY);
+    assertEquals("x<ab>y", new DfaRun(dfa).filter("xaby"));
+
+    LiteralDfaBuilder b = new LiteralDfaBuilder()
+      .add("ab", new Embed("[", "]"))
+      .add("ab", new Embed("<", ">"));
+    try {
+      b.compile(DfaRun.UNMATCHED_COPY);
+      fail("exception expected");
+    } catch( CompileDfaException e ) {
+      assertTrue(e.getMessage(), e.getMessage().contains("`ab'"));
+    }
+  }
+
+  @Test
+  public void test_emptyString() throws Exception {
+    Dfa dfa = new LiteralDfaBuilder()
+      .add("", Copy.COPY)
+      .compile(DfaRun.UNMATCHED_COPY);
+    assertTrue(dfa.matchesEmpty());
+    assertEquals(1, dfa.footprint().getStates());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void test_unsorted() {
+    new LiteralDfaBuilder().add("b", Copy.COPY).add("a", Copy.COPY);
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void test_compiled() throws Exception {
+    LiteralDfaBuilder b = new LiteralDfaBuilder().add("a", Copy.COPY);
+    b.compile(DfaRun.UNMATCHED_COPY);
+    b.add("b", Copy.COPY);
+  }
+}
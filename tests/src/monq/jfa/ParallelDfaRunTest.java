@@ -0,0 +1,97 @@
+/*+*********************************************************************
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software Foundation
+Foundation, Inc., 59 Temple Place - Suite 330, Boston MA 02111-1307, USA.
+************************************************************************/
+
+package monq.jfa;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import monq.jfa.actions.Printf;
+
+public class ParallelDfaRunTest {
+
+  // counts matches in clientData
+  private static class Count extends AbstractFaAction {
+    public void invoke(StringBuilder out, int start, DfaRun r) {
+      int[] count = (int[])r.clientData;
+      count[0] += 1;
+      out.insert(start, '<').append('>');
+    }
+  }
+  /**********************************************************************/
+  private static String text() {
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; i<2000; i++) {
+      sb.append("line ").append(i).append(" has word").append(i%7)
+        .append('\n');
+    }
+    return sb.toString();
+  }
+  /**********************************************************************/
+  @Test
+  public void test_sameAsDfaRun() throws Exception {
+    Dfa dfa = new Nfa("word[0-9]+", new Count())
+      .or("[0-9]+", new Printf("#%0#"))
+      .compile(DfaRun.UNMATCHED_COPY, new Printf("[EOF]"));
+    String in = text();
+
+    DfaRun r = new DfaRun(dfa);
+    r.clientData = new int[1];
+    String expect = r.filter(in);
+
+    final List<Integer> order = new ArrayList<>();
+    final int[] total = new int[1];
+    ParallelDfaRun pr = new ParallelDfaRun(dfa, "\n")
+      .setChunkSize(500)
+      .setThreads(4)
+      .setClientDataHandler(new ParallelDfaRun.ClientDataHandler() {
+          public Object create(int chunk) { return new int[1]; }
+          public void merge(Object clientData, int chunk) {
+            order.add(chunk);
+            total[0] += ((int[])clientData)[0];
+          }
+        });
+    assertEquals(expect, pr.filter(in));
+    assertEquals(2000, total[0]);
+    assertTrue(order.size()>10);
+    for(int i=0; i<order.size(); i++) {
+      assertEquals(i, order.get(i).intValue());
+    }
+  }
+  /**********************************************************************/
+  @Test
+  public void test_smallInput() throws Exception {
+    Dfa dfa = new Nfa("a", new Printf("b"))
+      .compile(DfaRun.UNMATCHED_COPY, new Printf("."));
+    ParallelDfaRun pr = new ParallelDfaRun(dfa, "</doc>");
+    assertEquals(".", pr.filter(""));
+    assertEquals("xbx</doc>.", pr.filter("xax</doc>"));
+    pr.setChunkSize(1);
+    assertEquals("b</doc>b</doc>b.", pr.filter("a</doc>a</doc>a"));
+  }
+  /**********************************************************************/
+  @Test(expected=NomatchException.class)
+  public void test_exception() throws Exception {
+    Dfa dfa = new Nfa("a", new Printf("b"))
+      .compile(DfaRun.UNMATCHED_THROW);
+    ParallelDfaRun pr = new ParallelDfaRun(dfa, "\n").setChunkSize(2);
+    pr.filter("a\na\na\nx\na\n");
+  }
+}
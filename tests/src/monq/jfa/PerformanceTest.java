@@ -2,28 +2,19 @@ package monq.jfa;
 
 import static org.junit.Assert.*;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import monq.jfa.actions.MapProvider;
+import monq.stuff.CorpusGenerator;
 
 /**
  * contains one test to verify that {@link Nfa#setMemoryForSpeedTradeFactor}
@@ -32,10 +23,11 @@ import monq.jfa.actions.MapProvider;
 public class PerformanceTest {
   private double speedupFactor;
 
-  private CharStatistics[] charStats;
+  private CorpusGenerator corpus;
   @Before
   public void setup() throws Exception {
-      charStats = readBiStats("resources/char-2stat-english.txt.gz");
+      corpus = CorpusGenerator.fromFile("resources/char-2stat-english.txt.gz",
+                                        15121962);
       if (null!=System.getProperty("cobertura.active")) {
         speedupFactor = 1.01;
       } else {
@@ -45,7 +37,7 @@ public class PerformanceTest {
 
     @Test
     public void performanceTest() throws Exception {
-      StringBuilder text = createText(20_000_000);
+      StringBuilder text = corpus.text(20_000_000);
       CountWords cw = new CountWords();
       Nfa nfa = createNfa(cw);
 
@@ -85,7 +77,7 @@ public class PerformanceTest {
         nfa.or(rexes[i], new CountAction(names[i]));
       }
 
-      StringBuilder text = createText(200_000);
+      StringBuilder text = corpus.text(200_000);
       DfaRun r = new DfaRun(nfa.compile(DfaRun.UNMATCHED_DROP));
       r.setIn(new CharSequenceCharSource(text));
       r.clientData = mp;
@@ -127,9 +119,9 @@ public class PerformanceTest {
         throws CompileDfaException, IOException
     {
       nfa.setMemoryForSpeedTradeFactor(tradeOff);
-      Intervals.resetStats();
       Dfa dfa = nfa.compile(DfaRun.UNMATCHED_DROP);
-      System.out.println(Intervals.logStats());
+      Statistics.getStatistics(dfa, null)
+        .print(new PrintWriter(System.out, true));
 
       DfaRun r = new DfaRun(dfa);
       r.setIn(new CharSequenceCharSource(text));
@@ -140,7 +132,7 @@ public class PerformanceTest {
     }
 
     private Nfa createNfa(CountWords cw) throws Exception {
-      String[] words = new String(createText(700)).split("[ ]+");
+      String[] words = new String(corpus.text(700)).split("[ ]+");
       Nfa nfa = new Nfa();
       for (String word : words) {
         if (word.length()<4) {
@@ -152,61 +144,6 @@ public class PerformanceTest {
       return nfa;
     }
 
-    /**
-     * create a random text based on the charStats values.
-     */
-    private StringBuilder createText(int nChars) {
-      StringBuilder text = new StringBuilder(nChars);
-      char lastCh = 'e';   //arbitrary first character
-      for (int i=0; i<nChars; i++) {
-        CharStatistics cs = charStats[lastCh];
-        char nextCh = cs.getRandomChar();
-        text.append(nextCh);
-        lastCh = nextCh;
-      }
-      return text;
-    }
-    /*+******************************************************************/
-  /**
-   * reads a file with lines like
-   *
-   * <pre>
-   * et 101 116 448651
-   * </pre>
-   *
-   * where the first entry is a character pair, the second and third are the
-   * UNICODE code points of these characters and the forth item is the number
-   * of times this pair was found in some text.
-   *
-   * @param fname
-   * @return each element of the result array, indexed by characters, returns
-   *         the statistics for the character following the index character.
-   * @throws IOException
-   */
-    private static CharStatistics[] readBiStats(String fname) throws IOException {
-      CharStatistics[] result = new CharStatistics[Character.MAX_VALUE+1];
-
-      try (InputStream in = new BufferedInputStream(new FileInputStream(fname));
-          GZIPInputStream gin = new GZIPInputStream(in);
-          Reader r = new InputStreamReader(gin, Charset.forName("UTF-8"));
-          BufferedReader br = new BufferedReader(r)) {
-        String line = null;
-
-        while ( null!=(line = br.readLine())) {
-          String[] parts = line.split("[ ]+");
-          int l = parts.length;
-          int count = Integer.parseInt(parts[l-1]);
-          int charFrom = Integer.parseInt(parts[l-3]);
-          int charTo = Integer.parseInt(parts[l-2]);
-          if (result[charFrom]==null) {
-            result[charFrom] = new CharStatistics();
-          }
-          CharStatistics current = result[charFrom];
-          current.add((char)charTo, current.getMaxFrq()+count);
-        }
-      }
-      return result;
-    }
     /*+******************************************************************/
     private static final class Timing {
       private long start = System.currentTimeMillis();
@@ -289,38 +226,4 @@ public class PerformanceTest {
         return Integer.toString(count);
       }
     }
-    /*+******************************************************************/
-    private static final class CharStatistics {
-      private final static Random r = new Random(15121962);
-
-      private ArrayList<Long> accumulatedFreq = new ArrayList<>();
-      private ArrayList<Character> chars = new ArrayList<Character>();
-
-      public void add(char ch, long accFrq) {
-        accumulatedFreq.add(accFrq);
-        chars.add(ch);
-      }
-      public long getMaxFrq() {
-        if (accumulatedFreq.isEmpty()) {
-          return 0;
-        }
-        return accumulatedFreq.get(accumulatedFreq.size()-1);
-      }
-
-    /**
-     * computes a random character picked according to the frequency
-     * statistics stored.
-     */
-      public char getRandomChar() {
-        double dfrq =
-            r.nextDouble()*accumulatedFreq.get(accumulatedFreq.size()-1);
-        long frq= (long)dfrq;
-
-        int idx = Collections.binarySearch(accumulatedFreq, frq);
-        if (idx<0) {
-          idx = -(idx+1);
-        }
-        return chars.get(idx);
-      }
-    }
 }